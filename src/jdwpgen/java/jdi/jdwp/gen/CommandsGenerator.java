@@ -0,0 +1,813 @@
+package jdi.jdwp.gen;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates typed encoders and decoders of JDWP commands from a command
+ * specification. For each command set a class named after it is generated in
+ * package jdi.jdwp.commands, with a nested class for each command. Commands
+ * are encoded in one pass into a packet of exactly computed size, replies are
+ * decoded directly into typed fields and arrays.
+ *
+ * The specification is a list of lines, indentation is ignored and '#' starts
+ * a comment:
+ *
+ * <pre>
+ * CommandSet ThreadReference 11
+ *     Command Frames 6
+ *         Out
+ *             threadID thread
+ *             int startFrame
+ *             int length
+ *         Reply
+ *             Repeat frames Frame
+ *                 frameID frameID
+ *                 location location
+ *             End
+ * </pre>
+ *
+ * In Reply sections Repeat with element class name declares an array of
+ * objects of nested class, Repeat without it must contain exactly one value
+ * and declares an array of that value type. In Out sections each repeated
+ * value is passed as an array, all of the same length.
+ *
+ * Usage: CommandsGenerator &lt;specification&gt; &lt;output directory&gt;
+ */
+public final class CommandsGenerator {
+
+    private static final String PACKAGE = "jdi.jdwp.commands";
+
+    /**
+     * Type of value in the specification.
+     */
+    private static final class Type {
+        final String javaType;
+
+        final String accessor;
+
+        /**
+         * Expression reading the value from packet, or null if the type is
+         * not supported in Reply sections.
+         */
+        final String read;
+
+        /**
+         * Size expression, %s is replaced with the value and $StringCodec
+         * with the name of StringCodec class.
+         */
+        final String size;
+
+        final boolean fixedSize;
+
+        /**
+         * Expression of the least size of the value, as size but without the
+         * value.
+         */
+        final String minSize;
+
+        /**
+         * Qualified name of javaType if it has to be imported.
+         */
+        final String importName;
+
+        Type(String javaType, String accessor, String read, String size,
+                boolean fixedSize, String minSize, String importName) {
+            this.javaType = javaType;
+            this.accessor = accessor;
+            this.read = read;
+            this.size = size;
+            this.fixedSize = fixedSize;
+            this.minSize = minSize;
+            this.importName = importName;
+        }
+    }
+
+    private static final Map<String, Type> TYPES = new HashMap<String, Type>();
+
+    private static void type(String name, String javaType, String accessor,
+            String size, String importName) {
+        type(name, javaType, accessor, "packet.getNextValueAs" + accessor
+                + "()", size, true, size, importName);
+    }
+
+    private static void type(String name, String javaType, String accessor,
+            String read, String size, boolean fixedSize, String minSize,
+            String importName) {
+        TYPES.put(name, new Type(javaType, accessor, read, size, fixedSize,
+                minSize, importName));
+    }
+
+    private static void idType(String name, String accessor, String getter,
+            String sizeGetter) {
+        String size = "sizes." + sizeGetter + "()";
+        TYPES.put(name, new Type("long", accessor, "packet.getNextValueAs"
+                + getter + "()", size, true, size, null));
+    }
+
+    static {
+        // primitive values have fixed JDWP lengths, so they are read
+        // directly rather than with lengths looked up in TypesLengths
+        type("byte", "byte", "Byte", "1", null);
+        type("boolean", "boolean", "Boolean",
+                "packet.getNextValueAsByte() != 0", "1", true, "1", null);
+        type("int", "int", "Int", "packet.getNextInt()", "4", true, "4", null);
+        type("long", "long", "Long", "packet.getNextLong()", "8", true, "8",
+                null);
+        type("string", "String", "String", "packet.getNextValueAsString()",
+                "4 + $StringCodec.encodedLength(%s)", false, "4", null);
+        idType("objectID", "ObjectID", "ObjectID", "getObjectIDSize");
+        idType("threadID", "ThreadID", "ThreadID", "getObjectIDSize");
+        idType("threadGroupID", "ThreadGroupID", "ThreadGroupID",
+                "getObjectIDSize");
+        idType("stringID", "StringID", "StringID", "getObjectIDSize");
+        idType("classLoaderID", "ClassLoaderID", "ClassLoaderID",
+                "getObjectIDSize");
+        idType("classObjectID", "ClassObjectID", "ClassObjectID",
+                "getObjectIDSize");
+        idType("arrayID", "ArrayID", "ClassArrayID", "getObjectIDSize");
+        idType("referenceTypeID", "ReferenceTypeID", "ReferenceTypeID",
+                "getReferenceTypeIDSize");
+        idType("classID", "ClassID", "ClassID", "getReferenceTypeIDSize");
+        idType("interfaceID", "InterfaceID", "InterfaceID",
+                "getReferenceTypeIDSize");
+        idType("arrayTypeID", "ArrayTypeID", "ArrayTypeID",
+                "getReferenceTypeIDSize");
+        idType("methodID", "MethodID", "MethodID", "getMethodIDSize");
+        idType("fieldID", "FieldID", "FieldID", "getFieldIDSize");
+        idType("frameID", "FrameID", "FrameID", "getFrameIDSize");
+        type("location", "Location", "Location", "sizes.getLocationSize()",
+                "jdi.jdwp.Location");
+        type("taggedObject", "TaggedObject", "TaggedObject",
+                "1 + sizes.getObjectIDSize()", "jdi.jdwp.TaggedObject");
+        type("value", "Value", "Value", "packet.getNextValueAsValue()",
+                "1 + sizes.getUntaggedValueSize(%s.getTag())", false, "1",
+                "jdi.jdwp.Value");
+        // the tag of untagged values is known from elsewhere, so they can
+        // only be written
+        type("untaggedValue", "Value", "UntaggedValue", null,
+                "sizes.getUntaggedValueSize(%s.getTag())", false, "0",
+                "jdi.jdwp.Value");
+        type("arrayRegion", "ArrayRegion", "ArrayRegion",
+                "packet.getNextValueAsArrayRegion()", null, false, "5",
+                "jdi.jdwp.ArrayRegion");
+    }
+
+    /**
+     * Value or repeated group of values.
+     */
+    private static final class Field {
+        final String name;
+
+        final Type type;
+
+        /**
+         * Values of repeated group, or null for single value.
+         */
+        final List<Field> group;
+
+        /**
+         * Class of elements of repeated group, or null for array of values.
+         */
+        final String elementClass;
+
+        Field(String name, Type type, List<Field> group, String elementClass) {
+            this.name = name;
+            this.type = type;
+            this.group = group;
+            this.elementClass = elementClass;
+        }
+
+        boolean isRepeated() {
+            return group != null;
+        }
+    }
+
+    private static final class Command {
+        final String name;
+
+        final int id;
+
+        final List<Field> out = new ArrayList<Field>();
+
+        List<Field> reply;
+
+        Command(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    private static final class CommandSet {
+        final String name;
+
+        final int id;
+
+        final List<Command> commands = new ArrayList<Command>();
+
+        CommandSet(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    private final String specName;
+
+    private final List<CommandSet> commandSets = new ArrayList<CommandSet>();
+
+    private List<String[]> lines;
+
+    private int[] lineNumbers;
+
+    private int position;
+
+    private CommandsGenerator(String specName) {
+        this.specName = specName;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CommandsGenerator <specification> "
+                    + "<output directory>");
+            System.exit(1);
+        }
+        File spec = new File(args[0]);
+        CommandsGenerator generator = new CommandsGenerator(spec.getName());
+        generator.parse(spec);
+        generator.collectNestedClasses();
+        File dir = new File(args[1], PACKAGE.replace('.', File.separatorChar));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        for (CommandSet commandSet : generator.commandSets) {
+            File file = new File(dir, commandSet.name + "Commands.java");
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                    "UTF-8");
+            try {
+                writer.write(generator.generate(commandSet));
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Parsing
+
+    private void parse(File spec) throws IOException {
+        lines = new ArrayList<String[]>();
+        List<Integer> numbers = new ArrayList<Integer>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(spec), "UTF-8"));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.length() > 0) {
+                    lines.add(line.split("\\s+"));
+                    numbers.add(number);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        lineNumbers = new int[numbers.size()];
+        for (int i = 0; i < lineNumbers.length; i++) {
+            lineNumbers[i] = numbers.get(i);
+        }
+
+        CommandSet commandSet = null;
+        Command command = null;
+        while (position < lines.size()) {
+            String[] tokens = lines.get(position);
+            String keyword = tokens[0];
+            if (keyword.equals("CommandSet")) {
+                expectTokens(tokens, 3);
+                commandSet = new CommandSet(tokens[1], parseId(tokens[2]));
+                commandSets.add(commandSet);
+                command = null;
+                position++;
+            } else if (keyword.equals("Command")) {
+                expectTokens(tokens, 3);
+                if (commandSet == null) {
+                    throw error("Command outside of CommandSet");
+                }
+                command = new Command(tokens[1], parseId(tokens[2]));
+                commandSet.commands.add(command);
+                position++;
+            } else if (keyword.equals("Out")) {
+                expectTokens(tokens, 1);
+                checkSection(command, command == null || !command.out.isEmpty()
+                        || command.reply != null);
+                position++;
+                parseFields(command.out, true);
+            } else if (keyword.equals("Reply")) {
+                expectTokens(tokens, 1);
+                checkSection(command, command == null || command.reply != null);
+                command.reply = new ArrayList<Field>();
+                position++;
+                parseFields(command.reply, false);
+            } else {
+                throw error("Unexpected " + keyword);
+            }
+        }
+    }
+
+    private void checkSection(Command command, boolean wrong) {
+        if (wrong) {
+            throw error("Misplaced section of command "
+                    + (command == null ? "" : command.name));
+        }
+    }
+
+    private void parseFields(List<Field> fields, boolean out) {
+        while (position < lines.size()) {
+            String[] tokens = lines.get(position);
+            String keyword = tokens[0];
+            if (keyword.equals("CommandSet") || keyword.equals("Command")
+                    || keyword.equals("Out") || keyword.equals("Reply")
+                    || keyword.equals("End")) {
+                return;
+            }
+            if (keyword.equals("Repeat")) {
+                if (tokens.length != 2 && tokens.length != 3) {
+                    throw error("Expected Repeat <name> [<element class>]");
+                }
+                position++;
+                List<Field> group = new ArrayList<Field>();
+                parseFields(group, out);
+                if (position >= lines.size()
+                        || !lines.get(position)[0].equals("End")) {
+                    throw error("Repeat " + tokens[1] + " is not closed by End");
+                }
+                position++;
+                String elementClass = tokens.length == 3 ? tokens[2] : null;
+                if (group.isEmpty()) {
+                    throw error("Empty Repeat " + tokens[1]);
+                }
+                if (!out && elementClass == null
+                        && (group.size() != 1 || group.get(0).isRepeated())) {
+                    throw error("Repeat " + tokens[1]
+                            + " without element class must have one value");
+                }
+                if (out) {
+                    for (Field field : group) {
+                        if (field.isRepeated()) {
+                            throw error("Nested Repeat in Out section");
+                        }
+                    }
+                }
+                fields.add(new Field(tokens[1], null, group, elementClass));
+            } else {
+                expectTokens(tokens, 2);
+                Type type = TYPES.get(keyword);
+                if (type == null) {
+                    throw error("Unknown type " + keyword);
+                }
+                if (out && type.size == null) {
+                    throw error("Type " + keyword + " is not supported in Out");
+                }
+                if (!out && type.read == null) {
+                    throw error("Type " + keyword
+                            + " is not supported in Reply");
+                }
+                fields.add(new Field(tokens[1], type, null, null));
+                position++;
+            }
+        }
+    }
+
+    private int parseId(String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw error("Wrong number " + token);
+        }
+    }
+
+    private void expectTokens(String[] tokens, int count) {
+        if (tokens.length != count) {
+            throw error("Expected " + count + " tokens");
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        int line = position < lineNumbers.length ? lineNumbers[position] : -1;
+        return new IllegalArgumentException(specName + ":" + line + ": "
+                + message);
+    }
+
+    // ---------------------------------------------------------------------
+    // Generation
+
+    private StringBuilder out;
+
+    private int indent;
+
+    private TreeSet<String> imports;
+
+    /**
+     * Names of nested classes of all generated classes. Imported classes of
+     * the same name would be hidden in some of them, so they are referred to
+     * by qualified name in all of them.
+     */
+    private Set<String> nestedClasses;
+
+    private void collectNestedClasses() {
+        nestedClasses = new HashSet<String>();
+        nestedClasses.add("Reply");
+        for (CommandSet commandSet : commandSets) {
+            for (Command command : commandSet.commands) {
+                nestedClasses.add(command.name);
+                if (command.reply != null) {
+                    collectElementClasses(command.reply);
+                }
+            }
+        }
+    }
+
+    private String generate(CommandSet commandSet) {
+        imports = new TreeSet<String>();
+        out = new StringBuilder();
+        indent = 0;
+
+        line("/**");
+        line(" * Typed encoders and decoders of JDWP " + commandSet.name
+                + " command set.");
+        line(" */");
+        line("public final class " + commandSet.name + "Commands {");
+        indent++;
+        line();
+        line("public static final byte COMMAND_SET = " + commandSet.id + ";");
+        line();
+        line("private " + commandSet.name + "Commands() {");
+        line("}");
+        for (Command command : commandSet.commands) {
+            line();
+            generateCommand(commandSet, command);
+        }
+        indent--;
+        line("}");
+
+        StringBuilder res = new StringBuilder();
+        res.append("// Generated by ").append(getClass().getName())
+                .append(" from ").append(specName).append(", do not edit.\n");
+        res.append("package ").append(PACKAGE).append(";\n\n");
+        for (String name : imports) {
+            res.append("import ").append(name).append(";\n");
+        }
+        res.append('\n');
+        res.append(out);
+        return res.toString();
+    }
+
+    private void generateCommand(CommandSet commandSet, Command command) {
+        String params = parameters(command.out);
+        String args = arguments(command.out);
+
+        line("/**");
+        line(" * " + commandSet.name + "." + command.name + " command.");
+        line(" */");
+        line("public static final class " + command.name + " {");
+        indent++;
+        line();
+        line("public static final byte COMMAND = " + command.id + ";");
+        line();
+        line("private " + command.name + "() {");
+        line("}");
+        line();
+
+        line("/**");
+        line(" * Returns exact size of the data of the command in bytes.");
+        line(" */");
+        line("public static int getDataSize(" + params + ") {");
+        indent++;
+        generateSize(command.out);
+        indent--;
+        line("}");
+        line();
+
+        line("/**");
+        line(" * Creates packet of the command.");
+        line(" */");
+        line("public static " + name("jdi.jdwp.CommandPacket") + " encode("
+                + params + ") {");
+        indent++;
+        generateChecks(command.out);
+        String packetClass = name("jdi.jdwp.CommandPacket");
+        line(packetClass + " packet = new " + packetClass
+                + "(COMMAND_SET, COMMAND,");
+        line("        getDataSize(" + args + "));");
+        line("packet.setIDSizes(sizes);");
+        generateWrite(command.out);
+        line("return packet;");
+        indent--;
+        line("}");
+
+        if (command.reply != null && !command.reply.isEmpty()) {
+            line();
+            line("/**");
+            line(" * Reply to " + commandSet.name + "." + command.name
+                    + " command.");
+            line(" */");
+            line("public static final class Reply {");
+            indent++;
+            generateFields(command.reply);
+            line();
+            line("/**");
+            line(" * Decodes data of reply packet.");
+            line(" */");
+            line("public Reply(" + name("jdi.jdwp.ReplyPacket") + " packet) {");
+            indent++;
+            generateRead(command.reply);
+            indent--;
+            line("}");
+            indent--;
+            line("}");
+            generateElementClasses(command.reply);
+        }
+        indent--;
+        line("}");
+    }
+
+    private String parameters(List<Field> fields) {
+        StringBuilder res = new StringBuilder(name("jdi.jdwp.IDSizes"))
+                .append(" sizes");
+        for (Field field : fields) {
+            if (field.isRepeated()) {
+                for (Field element : field.group) {
+                    res.append(", ").append(javaType(element.type))
+                            .append("[] ").append(element.name);
+                }
+            } else {
+                res.append(", ").append(javaType(field.type)).append(' ')
+                        .append(field.name);
+            }
+        }
+        return res.toString();
+    }
+
+    private String arguments(List<Field> fields) {
+        StringBuilder res = new StringBuilder("sizes");
+        for (Field field : fields) {
+            if (field.isRepeated()) {
+                for (Field element : field.group) {
+                    res.append(", ").append(element.name);
+                }
+            } else {
+                res.append(", ").append(field.name);
+            }
+        }
+        return res.toString();
+    }
+
+    private void generateSize(List<Field> fields) {
+        StringBuilder fixed = new StringBuilder();
+        List<Field> variable = new ArrayList<Field>();
+        for (Field field : fields) {
+            if (field.isRepeated() || !field.type.fixedSize) {
+                variable.add(field);
+            } else {
+                append(fixed, sizeOf(field.type, field.name));
+            }
+        }
+        if (variable.isEmpty()) {
+            line("return " + (fixed.length() == 0 ? "0" : fixed) + ";");
+            return;
+        }
+        line("int size = " + (fixed.length() == 0 ? "0" : fixed) + ";");
+        for (Field field : variable) {
+            if (!field.isRepeated()) {
+                line("size += " + sizeOf(field.type, field.name) + ";");
+                continue;
+            }
+            String count = field.group.get(0).name + ".length";
+            StringBuilder elementFixed = new StringBuilder();
+            List<Field> elementVariable = new ArrayList<Field>();
+            for (Field element : field.group) {
+                if (element.type.fixedSize) {
+                    append(elementFixed, sizeOf(element.type, element.name));
+                } else {
+                    elementVariable.add(element);
+                }
+            }
+            line("size += 4;");
+            if (elementFixed.length() > 0) {
+                line("size += " + count + " * (" + elementFixed + ");");
+            }
+            if (!elementVariable.isEmpty()) {
+                line("for (int i = 0; i < " + count + "; i++) {");
+                indent++;
+                for (Field element : elementVariable) {
+                    line("size += " + sizeOf(element.type, element.name + "[i]")
+                            + ";");
+                }
+                indent--;
+                line("}");
+            }
+        }
+        line("return size;");
+    }
+
+    private static void append(StringBuilder sum, String size) {
+        if (sum.length() > 0) {
+            sum.append(" + ");
+        }
+        sum.append(size);
+    }
+
+    private void generateChecks(List<Field> fields) {
+        for (Field field : fields) {
+            if (!field.isRepeated()) {
+                continue;
+            }
+            String first = field.group.get(0).name;
+            for (Field element : field.group.subList(1, field.group.size())) {
+                line("if (" + element.name + ".length != " + first
+                        + ".length) {");
+                indent++;
+                line("throw new "
+                        + name("jdi.jdwp.exceptions.TestErrorException")
+                        + "(\"Length of " + element.name
+                        + " differs from length of " + first + "\");");
+                indent--;
+                line("}");
+            }
+        }
+    }
+
+    private void generateWrite(List<Field> fields) {
+        for (Field field : fields) {
+            if (!field.isRepeated()) {
+                line("packet.setNextValueAs" + field.type.accessor + "("
+                        + field.name + ");");
+                continue;
+            }
+            String count = field.group.get(0).name + ".length";
+            line("packet.setNextValueAsInt(" + count + ");");
+            line("for (int i = 0; i < " + count + "; i++) {");
+            indent++;
+            for (Field element : field.group) {
+                line("packet.setNextValueAs" + element.type.accessor + "("
+                        + element.name + "[i]);");
+            }
+            indent--;
+            line("}");
+        }
+    }
+
+    private void generateFields(List<Field> fields) {
+        for (Field field : fields) {
+            line();
+            line("public final " + javaType(field) + " " + field.name + ";");
+        }
+    }
+
+    private void generateRead(List<Field> fields) {
+        for (Field field : fields) {
+            if (!field.isRepeated()) {
+                line(field.name + " = " + field.type.read + ";");
+                continue;
+            }
+            // the count is checked against the remaining bytes before the
+            // array is allocated
+            line(field.name + " = new " + elementType(field)
+                    + "[packet.getNextCount(" + minSizeOf(field.group) + ")];");
+            line("for (int i = 0; i < " + field.name + ".length; i++) {");
+            indent++;
+            if (field.elementClass != null) {
+                line(field.name + "[i] = new " + field.elementClass
+                        + "(packet);");
+            } else {
+                line(field.name + "[i] = " + field.group.get(0).type.read
+                        + ";");
+            }
+            indent--;
+            line("}");
+        }
+    }
+
+    private void generateElementClasses(List<Field> fields) {
+        for (Field field : fields) {
+            if (!field.isRepeated() || field.elementClass == null) {
+                continue;
+            }
+            line();
+            line("/**");
+            line(" * Element of " + field.name + " array of the reply.");
+            line(" */");
+            line("public static final class " + field.elementClass + " {");
+            indent++;
+            generateFields(field.group);
+            line();
+            line(field.elementClass + "(" + name("jdi.jdwp.Packet")
+                    + " packet) {");
+            indent++;
+            generateRead(field.group);
+            indent--;
+            line("}");
+            indent--;
+            line("}");
+            generateElementClasses(field.group);
+        }
+    }
+
+    private void collectElementClasses(List<Field> fields) {
+        for (Field field : fields) {
+            if (field.isRepeated()) {
+                if (field.elementClass != null) {
+                    nestedClasses.add(field.elementClass);
+                }
+                collectElementClasses(field.group);
+            }
+        }
+    }
+
+    /**
+     * Returns name to refer to given class by, importing it unless a nested
+     * class of any generated class has the same name.
+     */
+    private String name(String qualifiedName) {
+        String simpleName = qualifiedName.substring(qualifiedName
+                .lastIndexOf('.') + 1);
+        if (nestedClasses.contains(simpleName)) {
+            return qualifiedName;
+        }
+        imports.add(qualifiedName);
+        return simpleName;
+    }
+
+    private String javaType(Type type) {
+        return type.importName == null ? type.javaType
+                : name(type.importName);
+    }
+
+    /**
+     * Java type of single element of the field.
+     */
+    private String elementType(Field field) {
+        if (field.elementClass != null) {
+            return field.elementClass;
+        }
+        return javaType(field.isRepeated() ? field.group.get(0).type
+                : field.type);
+    }
+
+    private String javaType(Field field) {
+        return field.isRepeated() ? elementType(field) + "[]"
+                : javaType(field.type);
+    }
+
+    /**
+     * Returns expression of the least size of an element of repeated group
+     * in a reply.
+     */
+    private static String minSizeOf(List<Field> group) {
+        StringBuilder res = new StringBuilder();
+        for (Field field : group) {
+            String size = field.isRepeated() ? "4" : field.type.minSize;
+            if (!size.equals("0")) {
+                append(res, size.replace("sizes.", "packet.getIDSizes()."));
+            }
+        }
+        return res.length() == 0 ? "0" : res.toString();
+    }
+
+    private String sizeOf(Type type, String value) {
+        String size = type.size.replace("%s", value);
+        if (size.contains("$StringCodec")) {
+            size = size.replace("$StringCodec", name("jdi.jdwp.StringCodec"));
+        }
+        return size;
+    }
+
+    private void line() {
+        out.append('\n');
+    }
+
+    private void line(String text) {
+        for (int i = 0; i < indent; i++) {
+            out.append("    ");
+        }
+        out.append(text).append('\n');
+    }
+}
@@ -0,0 +1,105 @@
+package jdi.jdwp.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import jdi.jdwp.ClassesReader;
+import jdi.jdwp.IDSizes;
+import jdi.jdwp.JDWPConstants;
+import jdi.jdwp.ReplyPacket;
+import jdi.jdwp.commands.VirtualMachineCommands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding of reply to VirtualMachine.AllClasses with 10000
+ * classes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AllClassesReplyBenchmark {
+
+    private static final int CLASSES_COUNT = 10000;
+
+    private final IDSizes sizes = new IDSizes(8, 8, 8, 8, 8);
+
+    private String[] signatures;
+
+    private byte[] replyBytes;
+
+    @Setup
+    public void setUp() {
+        signatures = new String[CLASSES_COUNT];
+        for (int i = 0; i < CLASSES_COUNT; i++) {
+            signatures[i] = "Lcom/example/app/feature" + (i % 97) + "/Class"
+                    + i + ";";
+        }
+        replyBytes = build().toBytesArray();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        return build().asByteBuffer();
+    }
+
+    private ReplyPacket build() {
+        ReplyPacket packet = new ReplyPacket();
+        packet.setIDSizes(sizes);
+        packet.setNextValueAsInt(CLASSES_COUNT);
+        for (int i = 0; i < CLASSES_COUNT; i++) {
+            packet.setNextValueAsByte(JDWPConstants.TypeTag.CLASS);
+            packet.setNextValueAsReferenceTypeID(0x1000 + i);
+            packet.setNextValueAsString(signatures[i]);
+            packet.setNextValueAsInt(JDWPConstants.ClassStatus.INITIALIZED);
+        }
+        return packet;
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        ReplyPacket packet = ReplyPacket.wrap(replyBytes, 0, replyBytes.length);
+        packet.setIDSizes(sizes);
+        int count = packet.getNextValueAsInt();
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(packet.getNextValueAsByte());
+            blackhole.consume(packet.getNextValueAsReferenceTypeID());
+            blackhole.consume(packet.getNextValueAsString());
+            blackhole.consume(packet.getNextValueAsInt());
+        }
+    }
+
+    @Benchmark
+    public VirtualMachineCommands.AllClasses.Reply decodeGenerated() {
+        ReplyPacket packet = ReplyPacket.wrap(replyBytes, 0, replyBytes.length);
+        packet.setIDSizes(sizes);
+        return new VirtualMachineCommands.AllClasses.Reply(packet);
+    }
+
+    @Benchmark
+    public int filterStreaming() {
+        ReplyPacket packet = ReplyPacket.wrap(replyBytes, 0, replyBytes.length);
+        packet.setIDSizes(sizes);
+        ClassesReader classes = ClassesReader.forAllClasses(packet);
+        int found = 0;
+        while (classes.next()) {
+            if (classes.getSignature().startsWith("Lcom/example/app/feature7/")) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,98 @@
+package jdi.jdwp.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import jdi.jdwp.ArrayRegion;
+import jdi.jdwp.IDSizes;
+import jdi.jdwp.JDWPConstants;
+import jdi.jdwp.PrimitiveArrayRegion;
+import jdi.jdwp.ReplyPacket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of 64 KB primitive ArrayRegion payloads, as in
+ * replies to ArrayReference.GetValues.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArrayRegionBenchmark {
+
+    private static final int PAYLOAD_SIZE = 64 * 1024;
+
+    @Param({ "B", "I", "J" })
+    public char tag;
+
+    private final IDSizes sizes = new IDSizes(8, 8, 8, 8, 8);
+
+    private ArrayRegion region;
+
+    private byte[] replyBytes;
+
+    @Setup
+    public void setUp() {
+        byte arrayTag = (byte) tag;
+        int length = PAYLOAD_SIZE / PrimitiveArrayRegion.getValueSize(arrayTag);
+        switch (arrayTag) {
+        case JDWPConstants.Tag.BYTE_TAG: {
+            byte[] array = new byte[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = (byte) i;
+            }
+            region = new PrimitiveArrayRegion(array);
+            break;
+        }
+        case JDWPConstants.Tag.INT_TAG: {
+            int[] array = new int[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = i * 31;
+            }
+            region = new PrimitiveArrayRegion(array);
+            break;
+        }
+        default: {
+            long[] array = new long[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = i * 0x9E3779B97F4A7C15L;
+            }
+            region = new PrimitiveArrayRegion(array);
+            break;
+        }
+        }
+        replyBytes = build().toBytesArray();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        return build().asByteBuffer();
+    }
+
+    private ReplyPacket build() {
+        ReplyPacket packet = new ReplyPacket();
+        packet.setIDSizes(sizes);
+        packet.setNextValueAsArrayRegion(region);
+        return packet;
+    }
+
+    @Benchmark
+    public ArrayRegion decode() {
+        ReplyPacket packet = ReplyPacket.wrap(replyBytes, 0, replyBytes.length);
+        packet.setIDSizes(sizes);
+        return packet.getNextValueAsArrayRegion();
+    }
+}
@@ -0,0 +1,82 @@
+package jdi.jdwp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import jdi.jdwp.EventCursor;
+import jdi.jdwp.EventPacket;
+import jdi.jdwp.IDSizes;
+import jdi.jdwp.JDWPConstants;
+import jdi.jdwp.Location;
+import jdi.jdwp.Packet;
+import jdi.jdwp.ParsedEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding of composite event packet holding breakpoint, step and class
+ * prepare events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParsedEventBenchmark {
+
+    private final IDSizes sizes = new IDSizes(8, 8, 8, 8, 8);
+
+    private EventPacket packet;
+
+    private EventCursor cursor;
+
+    @Setup
+    public void setUp() {
+        Packet events = new Packet();
+        events.setIDSizes(sizes);
+        events.setNextValueAsByte(JDWPConstants.SuspendPolicy.ALL);
+        events.setNextValueAsInt(3);
+        events.setNextValueAsByte(JDWPConstants.EventKind.BREAKPOINT);
+        events.setNextValueAsInt(1);
+        events.setNextValueAsThreadID(0x100);
+        events.setNextValueAsLocation(new Location((byte) 1, 0x10, 0x20, 3));
+        events.setNextValueAsByte(JDWPConstants.EventKind.SINGLE_STEP);
+        events.setNextValueAsInt(2);
+        events.setNextValueAsThreadID(0x100);
+        events.setNextValueAsLocation(new Location((byte) 1, 0x10, 0x20, 3));
+        events.setNextValueAsByte(JDWPConstants.EventKind.CLASS_PREPARE);
+        events.setNextValueAsInt(3);
+        events.setNextValueAsThreadID(0x100);
+        events.setNextValueAsByte(JDWPConstants.TypeTag.CLASS);
+        events.setNextValueAsReferenceTypeID(0x30);
+        events.setNextValueAsString("Lcom/example/app/MainActivity;");
+        events.setNextValueAsInt(JDWPConstants.ClassStatus.PREPARED);
+        packet = new EventPacket(events.toBytesArray());
+        packet.setIDSizes(sizes);
+        cursor = new EventCursor(packet);
+    }
+
+    @Benchmark
+    public ParsedEvent[] parseEventPacket() {
+        return ParsedEvent.parseEventPacket(packet);
+    }
+
+    @Benchmark
+    public void cursorKindsAndRequestIDs(Blackhole blackhole) {
+        EventCursor events = cursor.reset(packet);
+        while (events.next()) {
+            blackhole.consume(events.getEventKind());
+            blackhole.consume(events.getRequestID());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package jdi.jdwp.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import jdi.jdwp.CommandPacket;
+import jdi.jdwp.IDSizes;
+import jdi.jdwp.JDWPCommands;
+import jdi.jdwp.Location;
+import jdi.jdwp.ReplyPacket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding of small commands and replies, which make most of
+ * JDWP traffic.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SmallPacketBenchmark {
+
+    private final IDSizes sizes = new IDSizes(8, 8, 8, 8, 8);
+
+    private final Location location = new Location((byte) 1, 0x10, 0x20, 5);
+
+    private byte[] replyBytes;
+
+    @Setup
+    public void setUp() {
+        replyBytes = buildReply().toBytesArray();
+    }
+
+    private CommandPacket encodeFrames() {
+        CommandPacket packet = new CommandPacket(
+                JDWPCommands.ThreadReferenceCommandSet.CommandSetID,
+                JDWPCommands.ThreadReferenceCommandSet.FramesCommand);
+        packet.setIDSizes(sizes);
+        packet.setNextValueAsThreadID(0x5678);
+        packet.setNextValueAsInt(0);
+        packet.setNextValueAsInt(1);
+        return packet;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCommand() {
+        return encodeFrames().asByteBuffer();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeReply() {
+        return buildReply().asByteBuffer();
+    }
+
+    private ReplyPacket buildReply() {
+        ReplyPacket packet = new ReplyPacket();
+        packet.setIDSizes(sizes);
+        packet.setId(1);
+        packet.setNextValueAsInt(1);
+        packet.setNextValueAsFrameID(0x1234);
+        packet.setNextValueAsLocation(location);
+        return packet;
+    }
+
+    @Benchmark
+    public void decodeReply(Blackhole blackhole) {
+        ReplyPacket packet = ReplyPacket.wrap(replyBytes, 0, replyBytes.length);
+        packet.setIDSizes(sizes);
+        blackhole.consume(packet.getNextValueAsInt());
+        blackhole.consume(packet.getNextValueAsFrameID());
+        blackhole.consume(packet.getNextValueAsLocation());
+    }
+}
@@ -6,8 +6,11 @@ import com.alibaba.fastjson.JSONObject;
 import com.freddy.im.IMSClientFactory;
 import com.freddy.im.interf.IMSClientInterface;
 import com.freddy.im.listener.OnEventListener;
+import com.freddy.im.netty.NettyTcpClient;
 import com.freddy.im.protobuf.MessageProtobuf;
 
+import io.netty.channel.EventLoop;
+
 import java.util.Vector;
 
 /**
@@ -69,6 +72,19 @@ public class IMSClientBootstrap {
         }
     }
 
+    /**
+     * 获取IM连接所在的EventLoop，供JDWP连接共享
+     *
+     * @return EventLoop，未启动或imsClient不是基于netty时为null
+     */
+    public EventLoop getEventLoop() {
+        IMSClientInterface client = imsClient;
+        if (isActive && client instanceof NettyTcpClient) {
+            return ((NettyTcpClient) client).getEventLoop();
+        }
+        return null;
+    }
+
     private Vector<String> convertHosts(String hosts) {
         if (hosts != null && hosts.length() > 0) {
             JSONArray hostArray = JSONArray.parseArray(hosts);
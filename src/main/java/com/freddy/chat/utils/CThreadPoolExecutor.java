@@ -1,5 +1,6 @@
 package com.freddy.chat.utils;
 
+import jdi.concurrent.ThreadSupport;
 import jdi.log.Log;
 
 import java.util.HashMap;
@@ -116,10 +117,7 @@ public class CThreadPoolExecutor {
         }
 
         public Thread newThread(Runnable r) {
-            Thread executor = new Thread(r, prefix + " #" + counter.getAndIncrement());
-            executor.setDaemon(true);
-            executor.setPriority(priority);
-            return executor;
+            return ThreadSupport.newThread(prefix + " #" + counter.getAndIncrement(), priority, r);
         }
     }
 
@@ -9,6 +9,7 @@ import com.freddy.im.protobuf.MessageProtobuf;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -35,6 +36,7 @@ public class NettyTcpClient implements IMSClientInterface {
     private static volatile NettyTcpClient instance;
 
     private Bootstrap bootstrap;
+    private EventLoopGroup eventLoopGroup;// EventLoop线程组，重连时保留，可与JDWP连接共享
     private Channel channel;
 
     private boolean isClosed = false;// 标识ims是否已关闭
@@ -167,10 +169,10 @@ public class NettyTcpClient implements IMSClientInterface {
             ex.printStackTrace();
         }
 
-        // 关闭bootstrap
+        // 关闭EventLoop线程组
         try {
-            if (bootstrap != null) {
-                bootstrap.group().shutdownGracefully();
+            if (eventLoopGroup != null) {
+                eventLoopGroup.shutdownGracefully();
             }
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -195,6 +197,7 @@ public class NettyTcpClient implements IMSClientInterface {
             isReconnecting = false;
             channel = null;
             bootstrap = null;
+            eventLoopGroup = null;
         }
     }
 
@@ -444,13 +447,36 @@ public class NettyTcpClient implements IMSClientInterface {
         return msgTimeoutTimerManager;
     }
 
+    /**
+     * 获取EventLoop线程组，首次调用时创建，直到close()前保持不变
+     * JDWP连接可注册到同一线程组，使转发的ByteBuf无需跨线程
+     *
+     * @return
+     */
+    public synchronized EventLoopGroup getEventLoopGroup() {
+        if (eventLoopGroup == null) {
+            eventLoopGroup = new NioEventLoopGroup(4);
+        }
+        return eventLoopGroup;
+    }
+
+    /**
+     * 获取当前channel所在的EventLoop，未连接时从线程组中取一个
+     * JDWP连接注册到该EventLoop后与IM连接同线程，转发的包无需跨线程
+     *
+     * @return
+     */
+    public EventLoop getEventLoop() {
+        Channel ch = channel;
+        return ch != null ? ch.eventLoop() : getEventLoopGroup().next();
+    }
+
     /**
      * 初始化bootstrap
      */
     private void initBootstrap() {
-        EventLoopGroup loopGroup = new NioEventLoopGroup(4);
         bootstrap = new Bootstrap();
-        bootstrap.group(loopGroup).channel(NioSocketChannel.class);
+        bootstrap.group(getEventLoopGroup()).channel(NioSocketChannel.class);
         // 设置该选项以后，如果在两小时内没有数据的通信时，TCP会自动发送一个活动探测数据报文
         bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
         // 设置禁用nagle算法
@@ -566,10 +592,6 @@ public class NettyTcpClient implements IMSClientInterface {
                         channel.close();
                     } catch (Exception ex) {
                     }
-                    try {
-                        channel.eventLoop().shutdownGracefully();
-                    } catch (Exception ex) {
-                    }
 
                     channel = null;
                 }
@@ -674,10 +696,8 @@ public class NettyTcpClient implements IMSClientInterface {
             // 未关闭才去连接
             if (!isClosed) {
                 try {
-                    // 先释放EventLoop线程组
-                    if (bootstrap != null) {
-                        bootstrap.group().shutdownGracefully();
-                    }
+                    // 先关闭旧的channel，EventLoop线程组保留
+                    closeChannel();
                 } finally {
                     bootstrap = null;
                 }
@@ -0,0 +1,60 @@
+package jdi.concurrent;
+
+/**
+ * Creates threads of the long-running loops of a debug session: packet
+ * readers and writers, timers and background workers. This class is built
+ * into a multi-release JAR. This version, used up to JDK 20 and on Android,
+ * creates platform threads; the one in META-INF/versions/21 creates virtual
+ * threads, so mostly blocked loops of many sessions do not pin platform
+ * threads.
+ */
+public final class ThreadSupport {
+
+    private ThreadSupport() {
+    }
+
+    /**
+     * Checks whether threads created by this class are virtual.
+     * 
+     * @return false for this version
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Creates unstarted thread running the task.
+     * 
+     * @param name
+     *            name of the thread
+     * @param daemon
+     *            whether the thread is daemon; virtual threads are always
+     *            daemon
+     * @param task
+     *            task to run
+     * @return the thread
+     */
+    public static Thread newThread(String name, boolean daemon, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(daemon);
+        return thread;
+    }
+
+    /**
+     * Creates unstarted daemon thread with given priority running the task.
+     * Priority of virtual threads cannot be changed.
+     * 
+     * @param name
+     *            name of the thread
+     * @param priority
+     *            priority of the thread
+     * @param task
+     *            task to run
+     * @return the thread
+     */
+    public static Thread newThread(String name, int priority, Runnable task) {
+        Thread thread = newThread(name, true, task);
+        thread.setPriority(priority);
+        return thread;
+    }
+}
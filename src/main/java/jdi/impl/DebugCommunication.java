@@ -4,22 +4,31 @@ import com.freddy.chat.bean.SingleMessage;
 import com.freddy.chat.im.MessageType;
 import com.freddy.chat.utils.StringUtil;
 import com.freddy.im.protobuf.MessageProtobuf;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.EventLoop;
+import jdi.concurrent.ThreadSupport;
+import jdi.jdwp.NioTransportWrapper;
 import jdi.jdwp.SocketTransportWrapper;
 import jdi.jdwp.TransportWrapper;
+import jdi.jdwp.UnixDomainSockets;
+import jdi.jdwp.netty.NettyTransportWrapper;
 import jdi.log.Log;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
+import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 abstract class DebugCommunication {
     public static final String serverId = "server";
     private static final String TAG = "DebugCommunication";
-    private final TransportWrapper transportWrapper = new SocketTransportWrapper();
+    private volatile TransportWrapper transportWrapper = new SocketTransportWrapper();
 
     protected final String myId;
 
@@ -37,6 +46,12 @@ abstract class DebugCommunication {
 
     protected abstract MessageProtobuf.Msg getHandshakeMsg();
 
+    // IM连接所在的EventLoop。不为null时JDWP连接注册到它上面，收到的包由该线程直接转发，
+    // 不再需要阻塞读线程
+    protected EventLoop getRelayEventLoop() {
+        return null;
+    }
+
     protected MessageProtobuf.Msg getHeartbeatMsg() {
         MessageProtobuf.Msg.Builder builder = MessageProtobuf.Msg.newBuilder();
         MessageProtobuf.Head.Builder headBuilder = MessageProtobuf.Head.newBuilder();
@@ -52,40 +67,6 @@ abstract class DebugCommunication {
     private volatile boolean running = false;
     protected volatile String theOtherSideId = "";
 
-    private static final int MAX_OVERTIME_IN_SECONDS = 60;
-
-    private final Map<String, Long> queue = new ConcurrentHashMap<>();
-
-    private void enqueueMessage(String id, long nanoTime) {
-        queue.put(id, nanoTime);
-    }
-
-    private void dequeueMessage(String id) {
-        queue.remove(id);
-    }
-
-    private void checkOvertime() {
-        new Thread(() -> {
-            while (running) {
-                Set<Map.Entry<String, Long>> set = queue.entrySet();
-                for (Map.Entry<String, Long> entry : set) {
-                    if (TimeUnit.NANOSECONDS.toSeconds(
-                            entry.getValue() - System.nanoTime())
-                            > MAX_OVERTIME_IN_SECONDS) {
-                        onError(entry.getKey() + " overtime");
-                        stop();
-                        break;
-                    }
-                }
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
-    }
-
     protected abstract void onError(String msg);
 
     public void start() {
@@ -124,13 +105,15 @@ abstract class DebugCommunication {
     public final void attachToJVM(String address) {
         // address = "127.0.0.1:8011";
         try {
+            replaceTransportWrapper(address);
             transportWrapper.attach(address, 0, 0);
         } catch (IOException e) {
             Log.e(TAG, "attachToJVM error", e);
         }
         running = true;
-        new Thread(this::loopReceivingMessageFromJVMAndSendToRemote).start();
-        checkOvertime();
+        if (!(transportWrapper instanceof NettyTransportWrapper)) {
+            ThreadSupport.newThread("JVM receiver", false, this::loopReceivingMessageFromJVMAndSendToRemote).start();
+        }
     }
 
     // 实现一个简单的发送接收队列，并在不可靠通信的全链路引入较为严格的超时机制
@@ -143,12 +126,7 @@ abstract class DebugCommunication {
         while (running) {
             try {
                 byte[] bytes = transportWrapper.readPacket();
-                SingleMessage message = new SingleMessage();
-                message.setMsgId(UUID.randomUUID().toString());
-                message.setFromId(myId);
-                message.setToId(theOtherSideId);
-                message.setContent(bytes);
-                sendMessageToRemote(message);
+                relayPacketToRemote(bytes);
                 Log.d(TAG, String.format("loopReceivingMessageFromJVMAndSendToRemote myId=%s, toId=%s",
                         myId, theOtherSideId));
             } catch (Exception e) {
@@ -158,13 +136,74 @@ abstract class DebugCommunication {
         }
     }
 
+    private void relayPacketToRemote(byte[] bytes) {
+        SingleMessage message = new SingleMessage();
+        message.setMsgId(UUID.randomUUID().toString());
+        message.setFromId(myId);
+        message.setToId(theOtherSideId);
+        message.setContent(bytes);
+        sendMessageToRemote(message);
+    }
+
+    // JDWP连接注册在IM连接的EventLoop上时，收到的包在该线程上以ByteBuf交给这里转发。
+    // protobuf消息的content是bytes字段，所以转发时仍要复制一次
+    private volatile CountDownLatch jvmClosed = new CountDownLatch(0);
+
+    // 每个连接用自己的latch，旧连接关闭时不会影响新连接
+    private NettyTransportWrapper.PacketHandler newJvmPacketHandler(final CountDownLatch closed) {
+        return new NettyTransportWrapper.PacketHandler() {
+            @Override
+            public void onPacket(ByteBuf packet) {
+                byte[] bytes;
+                try {
+                    bytes = ByteBufUtil.getBytes(packet);
+                } finally {
+                    packet.release();
+                }
+                relayPacketToRemote(bytes);
+            }
+
+            @Override
+            public void onClosed(Throwable cause) {
+                if (cause != null) {
+                    Log.e(TAG, "JVM connection error", cause);
+                    onError("JVM connection error");
+                }
+                closed.countDown();
+            }
+        };
+    }
+
     public final void sendMessageToRemote(SingleMessage message) {
-        enqueueMessage(message.getMsgId(), System.nanoTime());
         doSendMessageToRemote(message);
     }
 
     private static final byte[] MSG_RECEIVED_VALUE = "~OK~".getBytes();
 
+    // 待写入JVM的jdwp包。消息由线程池并发转发，同一时刻只有一个线程写入，
+    // 它把其间到达的包一起取出，用writePackets()一次写入
+    private final Queue<byte[]> pendingToJVM = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writingToJVM = new AtomicBoolean();
+
+    private void writePendingToJVM() throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        // 释放写入权后再检查一次，以免漏掉刚入队的包
+        while (!pendingToJVM.isEmpty() && writingToJVM.compareAndSet(false, true)) {
+            try {
+                byte[] packet;
+                while ((packet = pendingToJVM.poll()) != null) {
+                    packets.add(packet);
+                }
+                if (!packets.isEmpty()) {
+                    transportWrapper.writePackets(packets);
+                }
+            } finally {
+                packets.clear();
+                writingToJVM.set(false);
+            }
+        }
+    }
+
     protected abstract void onPeerHandshake();
 
     protected abstract void onPeerGoodbye();
@@ -175,11 +214,20 @@ abstract class DebugCommunication {
     }
 
     public final void startListening(String address) throws IOException {
+        replaceTransportWrapper(address);
         transportWrapper.startListening(address);
         transportWrapper.accept(0, 0);
         running = true;
-        checkOvertime();
-        loopReceivingMessageFromJVMAndSendToRemote();
+        if (transportWrapper instanceof NettyTransportWrapper) {
+            // 包由EventLoop转发，这里和读循环一样等到连接关闭
+            try {
+                jvmClosed.await();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "startListening interrupted", e);
+            }
+        } else {
+            loopReceivingMessageFromJVMAndSendToRemote();
+        }
     }
 
     public final void stopListening() throws IOException {
@@ -187,14 +235,40 @@ abstract class DebugCommunication {
         transportWrapper.stopListening();
     }
 
+    // 换成新地址对应的连接，旧连接先关闭，避免泄漏socket和监听端口
+    private void replaceTransportWrapper(String address) throws IOException {
+        TransportWrapper old = transportWrapper;
+        transportWrapper = newTransportWrapper(address);
+        try {
+            old.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close old transport error", e);
+        }
+    }
+
+    // 本机地址"unix:/path"使用Unix domain socket，不经过TCP协议栈；
+    // 其他地址在有IM连接的EventLoop时与之共用线程
+    private TransportWrapper newTransportWrapper(String address) throws IOException {
+        if (UnixDomainSockets.isUnixAddress(address)) {
+            return new NioTransportWrapper();
+        }
+        EventLoop eventLoop = getRelayEventLoop();
+        if (eventLoop != null) {
+            NettyTransportWrapper wrapper = new NettyTransportWrapper(eventLoop);
+            CountDownLatch closed = new CountDownLatch(1);
+            wrapper.setPacketHandler(newJvmPacketHandler(closed));
+            jvmClosed = closed;
+            return wrapper;
+        }
+        return new SocketTransportWrapper();
+    }
+
     protected final void sendMessageToJVM(@org.jetbrains.annotations.NotNull SingleMessage message) {
         byte[] bytes = message.getContent();
-        String id = message.getMsgId();
         try {
             if (null != bytes) {
-                if (Arrays.equals(bytes, MSG_RECEIVED_VALUE)) {
-                    dequeueMessage(id);
-                } else {
+                // 对方的确认消息不转发给JVM
+                if (!Arrays.equals(bytes, MSG_RECEIVED_VALUE)) {
                     assert !StringUtil.isEmpty(theOtherSideId);
 
                     message.setFromId(myId);
@@ -202,7 +276,8 @@ abstract class DebugCommunication {
                     message.setContent(MSG_RECEIVED_VALUE);
                     doSendMessageToRemote(message);
 
-                    transportWrapper.writePacket(bytes);
+                    pendingToJVM.add(bytes);
+                    writePendingToJVM();
                 }
             }
         } catch (Exception e) {
@@ -12,6 +12,7 @@ import com.freddy.chat.im.IMSEventListener;
 import com.freddy.chat.im.MessageProcessor;
 import com.freddy.chat.utils.StringUtil;
 import com.freddy.im.protobuf.MessageProtobuf;
+import io.netty.channel.EventLoop;
 import jdi.log.Log;
 
 import java.util.Arrays;
@@ -74,6 +75,11 @@ public abstract class NettyImpl extends DebugCommunication {
                 + Arrays.toString(message.getContent()));
     }
 
+    @Override
+    protected EventLoop getRelayEventLoop() {
+        return IMSClientBootstrap.getInstance().getEventLoop();
+    }
+
     @Override
     protected void linkToRemote() {
         CEventCenter.registerEventListener(eventListener, EVENTS);
@@ -38,6 +38,15 @@ public class ArrayRegion {
         this.length = length;
         values = new Value[length];
     }
+
+    /**
+     * Constructor for subclasses which keep values in their own storage.
+     */
+    protected ArrayRegion(byte tag, int length, Value[] values) {
+        this.tag = tag;
+        this.length = length;
+        this.values = values;
+    }
     
     /**
      * @param index Index of value to return
@@ -0,0 +1,176 @@
+package jdi.jdwp;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+/**
+ * This class walks replies listing classes, like VirtualMachine.AllClasses,
+ * class by class. The reader itself holds the current class and is reused
+ * for each of them, and signatures are decoded only on demand, so consumers
+ * looking for a few classes among tens of thousands do not materialize the
+ * rest. The reader does not change the reading position of the reply; it
+ * must not be used after a pooled reply is released.
+ * 
+ * <pre>
+ * ClassesReader classes = ClassesReader.forAllClasses(reply);
+ * while (classes.next()) {
+ *     if (classes.getSignature().startsWith(&quot;Lcom/example/&quot;)) {
+ *         found(classes.getTypeID(), classes.getSignature().toString());
+ *     }
+ * }
+ * </pre>
+ */
+public final class ClassesReader {
+
+    private final Packet packet;
+
+    private final boolean hasSignature;
+
+    private final boolean hasGenericSignature;
+
+    private final boolean hasStatus;
+
+    private final int classesCount;
+
+    private int classIndex = -1;
+
+    private byte refTypeTag;
+
+    private long typeID;
+
+    private final EncodedString signature = new EncodedString();
+
+    private final EncodedString genericSignature = new EncodedString();
+
+    private int status;
+
+    private ClassesReader(Packet reply, boolean hasSignature,
+            boolean hasGenericSignature, boolean hasStatus) {
+        this.packet = reply.duplicate();
+        this.hasSignature = hasSignature;
+        this.hasGenericSignature = hasGenericSignature;
+        this.hasStatus = hasStatus;
+        this.classesCount = packet.getNextValueAsInt();
+    }
+
+    /**
+     * Creates reader of reply to VirtualMachine.AllClasses command.
+     */
+    public static ClassesReader forAllClasses(ReplyPacket reply) {
+        return new ClassesReader(reply, true, false, true);
+    }
+
+    /**
+     * Creates reader of reply to VirtualMachine.AllClassesWithGeneric
+     * command.
+     */
+    public static ClassesReader forAllClassesWithGeneric(ReplyPacket reply) {
+        return new ClassesReader(reply, true, true, true);
+    }
+
+    /**
+     * Creates reader of reply to VirtualMachine.ClassesBySignature command.
+     */
+    public static ClassesReader forClassesBySignature(ReplyPacket reply) {
+        return new ClassesReader(reply, false, false, true);
+    }
+
+    /**
+     * Creates reader of reply to ClassLoaderReference.VisibleClasses command.
+     */
+    public static ClassesReader forVisibleClasses(ReplyPacket reply) {
+        return new ClassesReader(reply, false, false, false);
+    }
+
+    /**
+     * Returns number of classes in the reply.
+     * 
+     * @return number of classes
+     */
+    public int getClassesCount() {
+        return classesCount;
+    }
+
+    /**
+     * Moves reader to the next class.
+     * 
+     * @return false if there are no more classes
+     */
+    public boolean next() {
+        if (classIndex >= classesCount) {
+            return false;
+        }
+        classIndex++;
+        if (classIndex >= classesCount) {
+            return false;
+        }
+        refTypeTag = packet.getNextValueAsByte();
+        typeID = packet.getNextValueAsReferenceTypeID();
+        if (hasSignature) {
+            packet.getNextValueAsEncodedString(signature);
+        }
+        if (hasGenericSignature) {
+            packet.getNextValueAsEncodedString(genericSignature);
+        }
+        if (hasStatus) {
+            status = packet.getNextValueAsInt();
+        }
+        return true;
+    }
+
+    /**
+     * @return Returns the kind of the current class.
+     */
+    public byte getRefTypeTag() {
+        checkClass();
+        return refTypeTag;
+    }
+
+    /**
+     * @return Returns the ReferenceTypeID of the current class.
+     */
+    public long getTypeID() {
+        checkClass();
+        return typeID;
+    }
+
+    /**
+     * @return Returns the signature of the current class.
+     */
+    public EncodedString getSignature() {
+        checkClass();
+        if (!hasSignature) {
+            throw new TestErrorException("Reply has no signatures");
+        }
+        return signature;
+    }
+
+    /**
+     * @return Returns the generic signature of the current class, empty if
+     *         there is none.
+     */
+    public EncodedString getGenericSignature() {
+        checkClass();
+        if (!hasGenericSignature) {
+            throw new TestErrorException("Reply has no generic signatures");
+        }
+        return genericSignature;
+    }
+
+    /**
+     * @return Returns the status of the current class.
+     */
+    public int getStatus() {
+        checkClass();
+        if (!hasStatus) {
+            throw new TestErrorException("Reply has no class status");
+        }
+        return status;
+    }
+
+    private void checkClass() {
+        if (classIndex < 0 || classIndex >= classesCount) {
+            throw new TestErrorException("No current class, index = "
+                    + classIndex + ", classes count = " + classesCount);
+        }
+    }
+}
@@ -25,6 +25,8 @@
  */
 package jdi.jdwp;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class represents JDWP command packet.
  */
@@ -32,9 +34,6 @@ public class CommandPacket extends Packet {
     private final int COMMAND_SET_INDEX = 9;
     private final int COMMAND_INDEX     = 10;
 
-    private byte      command_set;
-    private byte      command;
-
     /**
      * Creates an empty CommandPacket with empty header and no data.
      */
@@ -47,8 +46,18 @@ public class CommandPacket extends Packet {
      */
     public CommandPacket(byte commandSet, byte command) {
         super();
-        this.command_set = commandSet;
-        this.command = command;
+        setCommand(commandSet, command);
+    }
+
+    /**
+     * Creates an empty CommandPacket for specific JDWP command with no data,
+     * reserving space for dataCapacity bytes of data.
+     * 
+     * @param dataCapacity expected size of the command data in bytes.
+     */
+    public CommandPacket(byte commandSet, byte command, int dataCapacity) {
+        super(dataCapacity);
+        setCommand(commandSet, command);
     }
 
     /**
@@ -58,8 +67,36 @@ public class CommandPacket extends Packet {
      */
     public CommandPacket(byte[] bytes_array) {
         super(bytes_array);
-        command_set = bytes_array[COMMAND_SET_INDEX];
-        command = bytes_array[COMMAND_INDEX];
+    }
+
+    /**
+     * Creates CommandPacket reading size bytes of the array from given offset without copying them, see wrap().
+     */
+    CommandPacket(byte[] bytes_array, int offset, int size) {
+        super(bytes_array, offset, size);
+    }
+
+    /**
+     * Creates CommandPacket reading size bytes of the array from given offset, including header and data sections,
+     * without copying them. See Packet.wrap().
+     * 
+     * @param bytes_array array of bytes holding the JDWP packet.
+     * @param offset index of the packet in the array.
+     * @param size number of bytes of the packet in the array.
+     * @return CommandPacket reading the array.
+     */
+    public static CommandPacket wrap(byte[] bytes_array, int offset, int size) {
+        return new CommandPacket(bytes_array, offset, size);
+    }
+
+    /**
+     * Creates CommandPacket from remaining bytes of given buffer including
+     * header and data sections.
+     * 
+     * @param buffer the JDWP packet, given as buffer.
+     */
+    public CommandPacket(ByteBuffer buffer) {
+        super(buffer);
     }
 
     /**
@@ -68,7 +105,7 @@ public class CommandPacket extends Packet {
      * @param val the command set.
      */
     public void setCommandSet(byte val) {
-        command_set = val;
+        writeHeader(val, COMMAND_SET_INDEX, BYTE_SIZE);
     }
 
     /**
@@ -77,7 +114,7 @@ public class CommandPacket extends Packet {
      * @return the command set value of the header of the CommandPacket as byte.
      */
     public byte getCommandSet() {
-        return command_set;
+        return (byte) readHeader(COMMAND_SET_INDEX, BYTE_SIZE);
     }
 
     /**
@@ -86,7 +123,7 @@ public class CommandPacket extends Packet {
      * @param val the command.
      */
     public void setCommand(byte val) {
-        command = val;
+        writeHeader(val, COMMAND_INDEX, BYTE_SIZE);
     }
 
     /**
@@ -96,8 +133,8 @@ public class CommandPacket extends Packet {
      * @param command number of the command.
      */
     public void setCommand(byte commandSet, byte command) {
-        this.command_set = commandSet;
-        this.command = command;
+        setCommandSet(commandSet);
+        setCommand(command);
     }
 
     /**
@@ -106,22 +143,7 @@ public class CommandPacket extends Packet {
      * @return the command value of the header of the CommandPacket as byte.
      */
     public byte getCommand() {
-        return command;
-    }
-
-    /**
-     * Gets the representation of the CommandPacket as array of bytes in the
-     * JDWP format including header and data sections.
-     * 
-     * @return the representation of the CommandPacket as array of bytes in the
-     *         JDWP format.
-     */
-    @Override
-    public byte[] toBytesArray() {
-        byte res[] = super.toBytesArray();
-        res[COMMAND_SET_INDEX] = command_set;
-        res[COMMAND_INDEX] = command;
-        return res;
+        return (byte) readHeader(COMMAND_INDEX, BYTE_SIZE);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package jdi.jdwp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records metrics of PacketDispatcher: latency histograms of
+ * commands, keyed by command set and command, and counters of traffic and
+ * timeouts. Recording does not allocate, except for the histogram created the
+ * first time a command is seen, and does not take locks.
+ */
+class DispatcherMetrics {
+
+    /**
+     * Latency histogram of one command. Bucket i counts latencies less than
+     * 2^i nanoseconds and at least 2^(i-1).
+     */
+    static final class Histogram {
+
+        final AtomicLongArray buckets = new AtomicLongArray(
+                DispatcherStatistics.BUCKETS_COUNT);
+
+        final LongAdder count = new LongAdder();
+
+        final LongAdder totalNanos = new LongAdder();
+
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get())
+                    && !maxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+    }
+
+    /**
+     * Histograms indexed by command set and command.
+     */
+    private final AtomicReferenceArray<Histogram> histograms = new AtomicReferenceArray<Histogram>(
+            1 << 16);
+
+    final LongAdder bytesReceived = new LongAdder();
+
+    final LongAdder bytesSent = new LongAdder();
+
+    final LongAdder packetsReceived = new LongAdder();
+
+    final LongAdder packetsSent = new LongAdder();
+
+    final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Records latency of command.
+     *
+     * @param commandSet
+     *            command set of the command
+     * @param command
+     *            the command
+     * @param nanos
+     *            time from sending the command to receiving its reply
+     */
+    void recordLatency(byte commandSet, byte command, long nanos) {
+        int index = (commandSet & 0xFF) << 8 | (command & 0xFF);
+        Histogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new Histogram());
+            histogram = histograms.get(index);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Takes snapshot of the metrics.
+     *
+     * @param commandsInFlight
+     *            number of pending commands
+     * @return the snapshot
+     */
+    DispatcherStatistics snapshot(int commandsInFlight) {
+        List<DispatcherStatistics.CommandLatency> latencies = new ArrayList<DispatcherStatistics.CommandLatency>();
+        for (int i = 0; i < histograms.length(); i++) {
+            Histogram histogram = histograms.get(i);
+            if (histogram != null) {
+                long[] buckets = new long[DispatcherStatistics.BUCKETS_COUNT];
+                for (int j = 0; j < buckets.length; j++) {
+                    buckets[j] = histogram.buckets.get(j);
+                }
+                latencies.add(new DispatcherStatistics.CommandLatency(
+                        (byte) (i >> 8), (byte) i, histogram.count.sum(),
+                        histogram.totalNanos.sum(), histogram.maxNanos.get(),
+                        buckets));
+            }
+        }
+        return new DispatcherStatistics(bytesReceived.sum(), bytesSent.sum(),
+                packetsReceived.sum(), packetsSent.sum(), commandsInFlight,
+                timeouts.sum(), latencies);
+    }
+}
@@ -0,0 +1,248 @@
+package jdi.jdwp;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is a snapshot of statistics of PacketDispatcher, taken by
+ * PacketDispatcher.getStatistics(): traffic counters, number of pending
+ * commands and timeouts, and latency histograms of commands keyed by command
+ * set and command.
+ */
+public final class DispatcherStatistics {
+
+    /**
+     * Number of buckets of latency histograms.
+     */
+    static final int BUCKETS_COUNT = 64;
+
+    /**
+     * Latency histogram of one command. Latencies are measured from queueing
+     * the command to receiving its reply, in nanoseconds, and counted in
+     * buckets of powers of two.
+     */
+    public static final class CommandLatency {
+
+        private final byte commandSet;
+
+        private final byte command;
+
+        private final long count;
+
+        private final long totalNanos;
+
+        private final long maxNanos;
+
+        private final long[] buckets;
+
+        CommandLatency(byte commandSet, byte command, long count,
+                long totalNanos, long maxNanos, long[] buckets) {
+            this.commandSet = commandSet;
+            this.command = command;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        /**
+         * Returns command set of the command.
+         *
+         * @return command set
+         */
+        public byte getCommandSet() {
+            return commandSet;
+        }
+
+        /**
+         * Returns the command.
+         *
+         * @return command
+         */
+        public byte getCommand() {
+            return command;
+        }
+
+        /**
+         * Returns number of received replies.
+         *
+         * @return number of replies
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns sum of latencies.
+         *
+         * @return total latency in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Returns mean latency.
+         *
+         * @return mean latency in nanoseconds, or 0 if there were no replies
+         */
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * Returns maximum latency.
+         *
+         * @return maximum latency in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Returns upper bound of latency of given percentile of replies,
+         * which is at most twice the exact value.
+         *
+         * @param percentile
+         *            percentile from 0 to 100
+         * @return latency in nanoseconds
+         */
+        public long getPercentileNanos(double percentile) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : Math.min(1L << i, maxNanos);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns counts of latencies. Bucket i counts latencies less than
+         * 2^i nanoseconds and at least 2^(i-1).
+         *
+         * @return copy of bucket counts
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "CommandSet=" + commandSet + " Command=" + command
+                    + " count=" + count + " mean=" + getMeanNanos() / 1000
+                    + "us p99=" + getPercentileNanos(99) / 1000 + "us max="
+                    + maxNanos / 1000 + "us";
+        }
+    }
+
+    private final long bytesReceived;
+
+    private final long bytesSent;
+
+    private final long packetsReceived;
+
+    private final long packetsSent;
+
+    private final int commandsInFlight;
+
+    private final long timeouts;
+
+    private final List<CommandLatency> commandLatencies;
+
+    DispatcherStatistics(long bytesReceived, long bytesSent,
+            long packetsReceived, long packetsSent, int commandsInFlight,
+            long timeouts, List<CommandLatency> commandLatencies) {
+        this.bytesReceived = bytesReceived;
+        this.bytesSent = bytesSent;
+        this.packetsReceived = packetsReceived;
+        this.packetsSent = packetsSent;
+        this.commandsInFlight = commandsInFlight;
+        this.timeouts = timeouts;
+        this.commandLatencies = Collections.unmodifiableList(commandLatencies);
+    }
+
+    /**
+     * Returns number of bytes of received packets.
+     *
+     * @return bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns number of bytes of written command packets.
+     *
+     * @return bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns number of received reply and event packets.
+     *
+     * @return packets received
+     */
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * Returns number of written command packets.
+     *
+     * @return packets sent
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * Returns number of commands waiting for replies.
+     *
+     * @return commands in flight
+     */
+    public int getCommandsInFlight() {
+        return commandsInFlight;
+    }
+
+    /**
+     * Returns number of commands which had no reply during their timeout.
+     *
+     * @return number of timeouts
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Returns latency histograms of the commands which had replies.
+     *
+     * @return list of histograms ordered by command set and command
+     */
+    public List<CommandLatency> getCommandLatencies() {
+        return commandLatencies;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("bytesReceived=").append(bytesReceived)
+                .append(" bytesSent=").append(bytesSent)
+                .append(" packetsReceived=").append(packetsReceived)
+                .append(" packetsSent=").append(packetsSent)
+                .append(" commandsInFlight=").append(commandsInFlight)
+                .append(" timeouts=").append(timeouts);
+        for (CommandLatency latency : commandLatencies) {
+            buffer.append('\n').append(latency);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package jdi.jdwp;
+
+/**
+ * This class is a reusable reference to a string encoded in a packet, see
+ * Packet.getNextValueAsEncodedString(). The string may be compared with
+ * other strings without decoding it, and is decoded only by toString(). It
+ * allows to walk big replies, like AllClasses, and to decode only the few
+ * strings a consumer needs.
+ */
+public final class EncodedString {
+
+    private byte data[];
+
+    private int from;
+
+    private int length;
+
+    /**
+     * Decoded string, or null if toString() was not called yet.
+     */
+    private String decoded;
+
+    /**
+     * Creates empty string.
+     */
+    public EncodedString() {
+        set(Packet.EMPTY_DATA, 0, 0);
+    }
+
+    void set(byte ar[], int from, int length) {
+        this.data = ar;
+        this.from = from;
+        this.length = length;
+        this.decoded = null;
+    }
+
+    /**
+     * @return Returns the length of the string in bytes of modified UTF-8.
+     */
+    public int getEncodedLength() {
+        return length;
+    }
+
+    /**
+     * Tells whether the string equals to given one.
+     * 
+     * @param val
+     *            string to compare with
+     * @return true if the strings are equal
+     */
+    public boolean contentEquals(String val) {
+        if (decoded != null) {
+            return decoded.equals(val);
+        }
+        return StringCodec.regionMatches(data, from, length, val, false);
+    }
+
+    /**
+     * Tells whether the string starts with given prefix.
+     * 
+     * @param prefix
+     *            prefix to look for
+     * @return true if the string starts with the prefix
+     */
+    public boolean startsWith(String prefix) {
+        if (decoded != null) {
+            return decoded.startsWith(prefix);
+        }
+        return StringCodec.regionMatches(data, from, length, prefix, true);
+    }
+
+    /**
+     * Decodes the string, taking it from the given intern table if it is
+     * there.
+     * 
+     * @param cache
+     *            intern table for decoded strings
+     * @return decoded string
+     */
+    public String toString(StringCache cache) {
+        if (decoded == null) {
+            decoded = cache.get(data, from, length);
+        }
+        return decoded;
+    }
+
+    /**
+     * Decodes the string.
+     * 
+     * @return decoded string
+     */
+    @Override
+    public String toString() {
+        if (decoded == null) {
+            decoded = StringCodec.decode(data, from, length);
+        }
+        return decoded;
+    }
+}
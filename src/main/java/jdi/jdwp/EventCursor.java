@@ -0,0 +1,274 @@
+package jdi.jdwp;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+/**
+ * This class is a cursor over the events of a composite EventPacket. It reads
+ * the bytes of the packet in place, without copying them and without creating
+ * ParsedEvent objects: kind, RequestID and thread of the current event are
+ * decoded on demand, and the whole event is parsed only by parse().
+ * 
+ * The cursor does not change the reading position of the packet. It may be
+ * reused for other packets with reset(). For pooled packets the cursor must
+ * not be used after the packet is released.
+ */
+public final class EventCursor {
+
+    private Packet packet;
+
+    private byte suspendPolicy;
+
+    private int eventsCount;
+
+    private int eventIndex;
+
+    /**
+     * Reading index of the kind of the current event.
+     */
+    private int eventStart;
+
+    /**
+     * Reading index after the current event, or -1 if it is not known yet.
+     */
+    private int eventEnd;
+
+    private byte eventKind;
+
+    private int requestID;
+
+    /**
+     * Creates cursor over events of given EventPacket.
+     * 
+     * @param packet
+     *            EventPacket to read events from
+     */
+    public EventCursor(Packet packet) {
+        reset(packet);
+    }
+
+    /**
+     * Moves cursor to the beginning of given EventPacket.
+     * 
+     * @param packet
+     *            EventPacket to read events from
+     * @return this cursor
+     */
+    public EventCursor reset(Packet packet) {
+        if (this.packet == null) {
+            this.packet = packet.duplicate();
+        } else {
+            this.packet.share(packet);
+        }
+        suspendPolicy = this.packet.getNextValueAsByte();
+        eventsCount = this.packet.getNextValueAsInt();
+        eventIndex = -1;
+        eventStart = -1;
+        eventEnd = this.packet.getReadingIndex();
+        return this;
+    }
+
+    /**
+     * Returns suspend policy of the event set.
+     * 
+     * @return suspend policy of the event set
+     */
+    public byte getSuspendPolicy() {
+        return suspendPolicy;
+    }
+
+    /**
+     * Returns number of events in the event set.
+     * 
+     * @return number of events
+     */
+    public int getEventsCount() {
+        return eventsCount;
+    }
+
+    /**
+     * Returns index of the current event in the event set.
+     * 
+     * @return index of the current event or -1 before the first next() call
+     */
+    public int getEventIndex() {
+        return eventIndex;
+    }
+
+    /**
+     * Moves cursor to the next event.
+     * 
+     * @return false if there are no more events
+     */
+    public boolean next() {
+        if (eventIndex >= eventsCount) {
+            return false;
+        }
+        if (eventEnd < 0) {
+            skipEvent();
+        }
+        eventIndex++;
+        if (eventIndex >= eventsCount) {
+            return false;
+        }
+        packet.setReadingIndex(eventEnd);
+        eventStart = eventEnd;
+        eventEnd = -1;
+        eventKind = packet.getNextValueAsByte();
+        requestID = packet.getNextValueAsInt();
+        return true;
+    }
+
+    /**
+     * Returns kind of the current event.
+     * 
+     * @return kind of the current event
+     */
+    public byte getEventKind() {
+        checkEvent();
+        return eventKind;
+    }
+
+    /**
+     * Returns RequestID of the current event.
+     * 
+     * @return RequestID of the current event
+     */
+    public int getRequestID() {
+        checkEvent();
+        return requestID;
+    }
+
+    /**
+     * Tells whether the current event is associated with a thread.
+     * 
+     * @return true if the current event has thread ID
+     */
+    public boolean hasThreadID() {
+        checkEvent();
+        return eventKind != JDWPConstants.EventKind.CLASS_UNLOAD
+                && eventKind != JDWPConstants.EventKind.VM_DEATH;
+    }
+
+    /**
+     * Returns ID of the thread of the current event.
+     * 
+     * @return thread ID of the current event
+     */
+    public long getThreadID() {
+        if (!hasThreadID()) {
+            throw new TestErrorException("Event has no thread: "
+                    + JDWPConstants.EventKind.getName(eventKind));
+        }
+        packet.setReadingIndex(eventStart + 1 + 4);
+        return packet.getNextValueAsThreadID();
+    }
+
+    /**
+     * Parses the current event.
+     * 
+     * @return new ParsedEvent for the current event
+     */
+    public ParsedEvent parse() {
+        checkEvent();
+        packet.setReadingIndex(eventStart + 1);
+        ParsedEvent event = ParsedEvent.parseEvent(suspendPolicy, eventKind,
+                packet);
+        eventEnd = packet.getReadingIndex();
+        return event;
+    }
+
+    private void checkEvent() {
+        if (eventIndex < 0 || eventIndex >= eventsCount) {
+            throw new TestErrorException("No current event, index = "
+                    + eventIndex + ", events count = " + eventsCount);
+        }
+    }
+
+    /**
+     * Finds the end of the current event reading only sizes of its values.
+     */
+    private void skipEvent() {
+        IDSizes sizes = packet.getIDSizes();
+        packet.setReadingIndex(eventStart + 1 + 4);
+        switch (eventKind) {
+        case JDWPConstants.EventKind.VM_START:
+        case JDWPConstants.EventKind.THREAD_START:
+        case JDWPConstants.EventKind.THREAD_DEATH:
+            packet.skipNextValues(sizes.objectID.getSize());
+            break;
+        case JDWPConstants.EventKind.SINGLE_STEP:
+        case JDWPConstants.EventKind.BREAKPOINT:
+        case JDWPConstants.EventKind.METHOD_ENTRY:
+        case JDWPConstants.EventKind.METHOD_EXIT:
+            packet.skipNextValues(sizes.objectID.getSize());
+            skipLocation(sizes);
+            break;
+        case JDWPConstants.EventKind.METHOD_EXIT_WITH_RETURN_VALUE:
+            packet.skipNextValues(sizes.objectID.getSize());
+            skipLocation(sizes);
+            skipValue(sizes);
+            break;
+        case JDWPConstants.EventKind.MONITOR_CONTENDED_ENTER:
+        case JDWPConstants.EventKind.MONITOR_CONTENDED_ENTERED:
+            packet.skipNextValues(sizes.objectID.getSize() + 1
+                    + sizes.objectID.getSize());
+            skipLocation(sizes);
+            break;
+        case JDWPConstants.EventKind.MONITOR_WAIT:
+            packet.skipNextValues(sizes.objectID.getSize() + 1
+                    + sizes.objectID.getSize());
+            skipLocation(sizes);
+            packet.skipNextValues(8);
+            break;
+        case JDWPConstants.EventKind.MONITOR_WAITED:
+            packet.skipNextValues(sizes.objectID.getSize() + 1
+                    + sizes.objectID.getSize());
+            skipLocation(sizes);
+            packet.skipNextValues(1);
+            break;
+        case JDWPConstants.EventKind.EXCEPTION:
+            packet.skipNextValues(sizes.objectID.getSize());
+            skipLocation(sizes);
+            packet.skipNextValues(1 + sizes.objectID.getSize());
+            skipLocation(sizes);
+            break;
+        case JDWPConstants.EventKind.CLASS_PREPARE:
+            packet.skipNextValues(sizes.objectID.getSize() + 1
+                    + sizes.referenceTypeID.getSize());
+            packet.skipNextValues(packet.getNextValueAsInt());
+            packet.skipNextValues(4);
+            break;
+        case JDWPConstants.EventKind.CLASS_UNLOAD:
+            packet.skipNextValues(packet.getNextValueAsInt());
+            break;
+        case JDWPConstants.EventKind.FIELD_ACCESS:
+            packet.skipNextValues(sizes.objectID.getSize());
+            skipLocation(sizes);
+            packet.skipNextValues(1 + sizes.referenceTypeID.getSize()
+                    + sizes.fieldID.getSize() + 1 + sizes.objectID.getSize());
+            break;
+        case JDWPConstants.EventKind.FIELD_MODIFICATION:
+            packet.skipNextValues(sizes.objectID.getSize());
+            skipLocation(sizes);
+            packet.skipNextValues(1 + sizes.referenceTypeID.getSize()
+                    + sizes.fieldID.getSize() + 1 + sizes.objectID.getSize());
+            skipValue(sizes);
+            break;
+        case JDWPConstants.EventKind.VM_DEATH:
+            break;
+        default:
+            throw new TestErrorException("Unexpected kind of event: "
+                    + eventKind);
+        }
+        eventEnd = packet.getReadingIndex();
+    }
+
+    private void skipLocation(IDSizes sizes) {
+        packet.skipNextValues(sizes.getLocationSize());
+    }
+
+    private void skipValue(IDSizes sizes) {
+        byte tag = packet.getNextValueAsByte();
+        packet.skipNextValues(sizes.getUntaggedValueSize(tag));
+    }
+}
@@ -25,11 +25,20 @@
  */
 package jdi.jdwp;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class represents JDWP event packet, which is special kind of command packet.
  */
 public class EventPacket extends CommandPacket {
     
+    /**
+     * Creates empty EventPacket to be filled by PacketPool.
+     */
+    EventPacket() {
+        super();
+    }
+
     /**
      * Creates EventPacket from array of bytes including header and data sections.
      * 
@@ -38,4 +47,33 @@ public class EventPacket extends CommandPacket {
     public EventPacket(byte[] p) {
         super(p);
     }
+
+    /**
+     * Creates EventPacket reading size bytes of the array from given offset without copying them, see wrap().
+     */
+    EventPacket(byte[] p, int offset, int size) {
+        super(p, offset, size);
+    }
+
+    /**
+     * Creates EventPacket reading size bytes of the array from given offset, including header and data sections,
+     * without copying them. See Packet.wrap().
+     * 
+     * @param p array of bytes holding the JDWP packet.
+     * @param offset index of the packet in the array.
+     * @param size number of bytes of the packet in the array.
+     * @return EventPacket reading the array.
+     */
+    public static EventPacket wrap(byte[] p, int offset, int size) {
+        return new EventPacket(p, offset, size);
+    }
+
+    /**
+     * Creates EventPacket from remaining bytes of given buffer including header and data sections.
+     * 
+     * @param buffer the JDWP packet, given as buffer.
+     */
+    public EventPacket(ByteBuffer buffer) {
+        super(buffer);
+    }
 }
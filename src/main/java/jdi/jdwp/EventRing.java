@@ -0,0 +1,275 @@
+package jdi.jdwp;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a bounded queue of received events, either event packets or
+ * events parsed for a subscription. Events are put and taken
+ * without locks, each cell of the ring having a sequence number telling
+ * whether it may be written or read at the current lap. A lock is used only
+ * to park a reader while the ring is empty, or a writer while it is full. It
+ * is a ReentrantLock rather than a monitor, so a parked virtual thread does
+ * not pin its carrier thread.
+ */
+class EventRing<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Numbers of parked readers and writers, changed only under the lock.
+     */
+    private volatile int readersWaiting;
+
+    private volatile int writersWaiting;
+
+    private volatile boolean terminated;
+
+    /**
+     * Creates ring holding at most capacity events.
+     *
+     * @param capacity
+     *            maximum number of events, rounded up to power of two
+     */
+    EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        buffer = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Gets maximum number of events in the ring.
+     *
+     * @return capacity of the ring
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Gets number of events in the ring, which may be outdated as soon as it
+     * is returned.
+     *
+     * @return number of events
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, mask + 1);
+    }
+
+    /**
+     * Checks whether there is no event to take.
+     *
+     * @return true if the ring is empty
+     */
+    boolean isEmpty() {
+        long pos = head.get();
+        return sequences.get((int) pos & mask) - (pos + 1) < 0;
+    }
+
+    /**
+     * Puts event in the ring unless it is full or terminated.
+     *
+     * @param event
+     *            event to put
+     * @return false if the ring is full or terminated
+     */
+    boolean offer(E event) {
+        if (terminated) {
+            return false;
+        }
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        buffer.set(index, event);
+        sequences.set(index, pos + 1);
+        if (readersWaiting > 0) {
+            signalAll(notEmpty);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the oldest event from the ring.
+     *
+     * @return the event or null if the ring is empty
+     */
+    E poll() {
+        long pos = head.get();
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+        E event = buffer.get(index);
+        buffer.set(index, null);
+        sequences.set(index, pos + mask + 1);
+        if (writersWaiting > 0) {
+            signalAll(notFull);
+        }
+        return event;
+    }
+
+    /**
+     * Takes at most maxEvents events from the ring without waiting.
+     *
+     * @param events
+     *            list to add the events to
+     * @param maxEvents
+     *            maximum number of events to take
+     * @return number of events taken
+     */
+    int drainTo(List<? super E> events, int maxEvents) {
+        int count = 0;
+        E event;
+        while (count < maxEvents && (event = poll()) != null) {
+            events.add(event);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Waits during timeout until the ring is not empty, or it is terminated.
+     * Timeout 0 means to wait without time limit, as in Object.wait().
+     *
+     * @return false if the ring is still empty
+     */
+    boolean awaitNotEmpty(long timeout) throws InterruptedException {
+        if (!isEmpty()) {
+            return true;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try {
+            readersWaiting++;
+            try {
+                while (isEmpty() && !terminated) {
+                    if (timeout == 0) {
+                        notEmpty.await();
+                    } else {
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        remaining = notEmpty.awaitNanos(remaining);
+                    }
+                }
+            } finally {
+                readersWaiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return !isEmpty();
+    }
+
+    /**
+     * Puts event in the ring, waiting while it is full.
+     *
+     * @param event
+     *            event to put
+     * @return false if the ring was terminated before the event was put
+     */
+    boolean put(E event) throws InterruptedException {
+        if (offer(event)) {
+            return true;
+        }
+        lock.lock();
+        try {
+            writersWaiting++;
+            try {
+                while (!offer(event)) {
+                    if (terminated) {
+                        return false;
+                    }
+                    notFull.await();
+                }
+            } finally {
+                writersWaiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the ring refuses new events.
+     *
+     * @return true if terminate() was called
+     */
+    boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Wakes up all the waiting threads when the connection is closed or the
+     * subscription is cancelled. Events are refused from then on, those
+     * already in the ring may still be taken.
+     */
+    void terminate() {
+        terminated = true;
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalAll(Condition condition) {
+        lock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
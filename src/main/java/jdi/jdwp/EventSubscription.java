@@ -0,0 +1,179 @@
+package jdi.jdwp;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class represents subscription to received events of given event
+ * request and/or kind, made by PacketDispatcher.subscribe(). Events of the
+ * subscription are handed to its listener by its own executor, one at a time
+ * and in the order they were received, so subscriptions with different
+ * executors are served in parallel. Events waiting for the listener are kept
+ * in a bounded queue, with the overflow policy of the event queue of the
+ * dispatcher.
+ */
+public final class EventSubscription {
+
+    /**
+     * Listener of events of a subscription.
+     */
+    public interface Listener {
+
+        /**
+         * Handles received event.
+         *
+         * @param event
+         *            received event
+         */
+        void onEvent(ParsedEvent event);
+    }
+
+    private final int requestID;
+
+    private final byte eventKind;
+
+    private final Executor executor;
+
+    private final Listener listener;
+
+    private final List<EventSubscription> subscriptions;
+
+    /**
+     * Events waiting to be handed to the listener.
+     */
+    private final EventRing<ParsedEvent> events;
+
+    private final PacketDispatcher dispatcher;
+
+    private final LogWriter logWriter;
+
+    /**
+     * Whether a task handing events to the listener is running or submitted.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private volatile boolean cancelled;
+
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            drainEvents();
+        }
+    };
+
+    EventSubscription(int requestID, byte eventKind, Executor executor,
+            Listener listener, List<EventSubscription> subscriptions,
+            EventRing<ParsedEvent> events, PacketDispatcher dispatcher,
+            LogWriter logWriter) {
+        this.requestID = requestID;
+        this.eventKind = eventKind;
+        this.executor = executor;
+        this.listener = listener;
+        this.subscriptions = subscriptions;
+        this.events = events;
+        this.dispatcher = dispatcher;
+        this.logWriter = logWriter;
+    }
+
+    /**
+     * Returns RequestID of events of this subscription.
+     *
+     * @return RequestID, or PacketDispatcher.ANY_REQUEST_ID
+     */
+    public int getRequestID() {
+        return requestID;
+    }
+
+    /**
+     * Returns kind of events of this subscription.
+     *
+     * @return event kind, or PacketDispatcher.ANY_EVENT_KIND
+     */
+    public byte getEventKind() {
+        return eventKind;
+    }
+
+    /**
+     * Cancels the subscription. Events not yet handed to the listener are
+     * dropped.
+     */
+    public void cancel() {
+        cancelled = true;
+        subscriptions.remove(this);
+        // wake up the dispatcher thread if it waits for room in the queue
+        events.terminate();
+        while (events.poll() != null) {
+        }
+        dispatcher.subscriptionEventsTaken();
+    }
+
+    /**
+     * Checks whether the subscription is cancelled.
+     *
+     * @return true if cancel() was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Checks whether the event belongs to this subscription.
+     */
+    boolean matches(byte kind, int id) {
+        return (eventKind == PacketDispatcher.ANY_EVENT_KIND || eventKind == kind)
+                && (requestID == PacketDispatcher.ANY_REQUEST_ID || requestID == id);
+    }
+
+    /**
+     * Gets queue of events waiting to be handed to the listener.
+     */
+    EventRing<ParsedEvent> getEventRing() {
+        return events;
+    }
+
+    /**
+     * Queues the event to be handed to the listener, unless the subscription
+     * is cancelled.
+     */
+    void deliver(ParsedEvent event) throws InterruptedException {
+        if (cancelled) {
+            return;
+        }
+        dispatcher.enqueueSubscriptionEvent(events, event);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                logWriter.printError("Event listener executor rejected events",
+                        e);
+            }
+        }
+    }
+
+    private void drainEvents() {
+        ParsedEvent event;
+        while ((event = events.poll()) != null) {
+            if (cancelled) {
+                break;
+            }
+            dispatcher.subscriptionEventsTaken();
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException e) {
+                logWriter.printError("Event listener failed", e);
+            }
+        }
+        scheduled.set(false);
+
+        // event may have been queued after the last poll
+        if (!events.isEmpty() && !cancelled) {
+            schedule();
+        }
+    }
+}
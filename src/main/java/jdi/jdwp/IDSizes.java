@@ -0,0 +1,293 @@
+package jdi.jdwp;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+/**
+ * This class holds sizes of VM-dependent IDs of one JDWP connection, as
+ * returned by VirtualMachine.IDSizes command. Instances are immutable and
+ * choose a reader/writer specialized for each ID size once, so packets of
+ * different connections may use different sizes in the same process.
+ */
+public final class IDSizes {
+
+    /**
+     * Reads and writes big-endian IDs of fixed size.
+     */
+    public static abstract class IDCodec {
+
+        private final int size;
+
+        IDCodec(int size) {
+            this.size = size;
+        }
+
+        /**
+         * @return Returns the size of ID in bytes.
+         */
+        public final int getSize() {
+            return size;
+        }
+
+        /**
+         * Reads ID from array of bytes starting from given index.
+         */
+        public abstract long read(byte ar[], int from);
+
+        /**
+         * Writes ID to array of bytes starting from given index. If the size is
+         * less than 8 bytes, the appropriate high bits of val are ignored.
+         */
+        public abstract void write(long val, byte ar[], int to);
+
+        /**
+         * Returns codec for ObjectIDs or ReferenceTypeIDs of given size.
+         * 4-byte IDs are sign extended, other IDs are zero extended.
+         */
+        static IDCodec forObjectSize(int size, String name) {
+            return size == 4 ? SIGNED_FOUR_BYTES : forSize(size, name);
+        }
+
+        /**
+         * Returns codec for IDs of given size, which are zero extended.
+         */
+        static IDCodec forSize(int size, String name) {
+            switch (size) {
+            case 4:
+                return FOUR_BYTES;
+            case 8:
+                return EIGHT_BYTES;
+            default:
+                if (size < 0 || size > 8) {
+                    throw new TestErrorException("Improper " + name
+                            + " value length = " + size);
+                }
+                return new AnySizeCodec(size);
+            }
+        }
+    }
+
+    private static final IDCodec FOUR_BYTES = new IDCodec(4) {
+        @Override
+        public long read(byte ar[], int from) {
+            return ((ar[from] & 0xFFL) << 24) | ((ar[from + 1] & 0xFFL) << 16)
+                    | ((ar[from + 2] & 0xFFL) << 8) | (ar[from + 3] & 0xFFL);
+        }
+
+        @Override
+        public void write(long val, byte ar[], int to) {
+            ar[to] = (byte) (val >> 24);
+            ar[to + 1] = (byte) (val >> 16);
+            ar[to + 2] = (byte) (val >> 8);
+            ar[to + 3] = (byte) val;
+        }
+    };
+
+    /**
+     * Reads 4-byte IDs sign extended, as ObjectIDs were always read.
+     */
+    private static final IDCodec SIGNED_FOUR_BYTES = new IDCodec(4) {
+        @Override
+        public long read(byte ar[], int from) {
+            return (ar[from] << 24) | ((ar[from + 1] & 0xFF) << 16)
+                    | ((ar[from + 2] & 0xFF) << 8) | (ar[from + 3] & 0xFF);
+        }
+
+        @Override
+        public void write(long val, byte ar[], int to) {
+            FOUR_BYTES.write(val, ar, to);
+        }
+    };
+
+    private static final IDCodec EIGHT_BYTES = new IDCodec(8) {
+        @Override
+        public long read(byte ar[], int from) {
+            return (FOUR_BYTES.read(ar, from) << 32)
+                    | FOUR_BYTES.read(ar, from + 4);
+        }
+
+        @Override
+        public void write(long val, byte ar[], int to) {
+            FOUR_BYTES.write(val >> 32, ar, to);
+            FOUR_BYTES.write(val, ar, to + 4);
+        }
+    };
+
+    private static final class AnySizeCodec extends IDCodec {
+        AnySizeCodec(int size) {
+            super(size);
+        }
+
+        @Override
+        public long read(byte ar[], int from) {
+            return Packet.readFromByteArray(ar, from, getSize());
+        }
+
+        @Override
+        public void write(long val, byte ar[], int to) {
+            for (int i = 0; i < getSize(); i++) {
+                ar[to + i] = (byte) (val >> 8 * (getSize() - 1 - i));
+            }
+        }
+    }
+
+    /**
+     * Sizes taken from TypesLengths, used by packets not bound to a
+     * connection. Reset whenever TypesLengths changes.
+     */
+    private static volatile IDSizes defaultSizes;
+
+    final IDCodec fieldID;
+
+    final IDCodec methodID;
+
+    final IDCodec objectID;
+
+    final IDCodec referenceTypeID;
+
+    final IDCodec frameID;
+
+    /**
+     * Creates new instance with specified ID sizes in bytes.
+     */
+    public IDSizes(int fieldIDSize, int methodIDSize, int objectIDSize,
+            int referenceTypeIDSize, int frameIDSize) {
+        fieldID = IDCodec.forSize(fieldIDSize, "FieldID");
+        methodID = IDCodec.forSize(methodIDSize, "MethodID");
+        objectID = IDCodec.forObjectSize(objectIDSize, "ObjectID");
+        referenceTypeID = IDCodec.forObjectSize(referenceTypeIDSize,
+                "ReferenceTypeID");
+        frameID = IDCodec.forSize(frameIDSize, "FrameID");
+    }
+
+    /**
+     * Creates new instance from reply to VirtualMachine.IDSizes command,
+     * read from the current read position of the reply, which is restored
+     * afterwards.
+     * 
+     * @param reply
+     *            reply to VirtualMachine.IDSizes command
+     * @return sizes of IDs
+     */
+    public static IDSizes fromReply(ReplyPacket reply) {
+        int index = reply.getReadingIndex();
+        try {
+            int fieldIDSize = reply.getNextValueAsInt();
+            int methodIDSize = reply.getNextValueAsInt();
+            int objectIDSize = reply.getNextValueAsInt();
+            int referenceTypeIDSize = reply.getNextValueAsInt();
+            int frameIDSize = reply.getNextValueAsInt();
+            return new IDSizes(fieldIDSize, methodIDSize, objectIDSize,
+                    referenceTypeIDSize, frameIDSize);
+        } finally {
+            reply.setReadingIndex(index);
+        }
+    }
+
+    /**
+     * Returns sizes set globally in TypesLengths. Reference type IDs have the
+     * size of ObjectID there, as packets always used it for them.
+     * 
+     * @return sizes of IDs
+     */
+    public static IDSizes getDefault() {
+        IDSizes sizes = defaultSizes;
+        if (sizes == null) {
+            int objectIDSize = TypesLengths
+                    .getTypeLength(TypesLengths.OBJECT_ID);
+            sizes = new IDSizes(
+                    TypesLengths.getTypeLength(TypesLengths.FIELD_ID),
+                    TypesLengths.getTypeLength(TypesLengths.METHOD_ID),
+                    objectIDSize, objectIDSize,
+                    TypesLengths.getTypeLength(TypesLengths.FRAME_ID));
+            defaultSizes = sizes;
+        }
+        return sizes;
+    }
+
+    /**
+     * Drops cached default sizes after TypesLengths is changed.
+     */
+    static void resetDefault() {
+        defaultSizes = null;
+    }
+
+    /**
+     * @return Returns the size of FieldID in bytes.
+     */
+    public int getFieldIDSize() {
+        return fieldID.getSize();
+    }
+
+    /**
+     * @return Returns the size of MethodID in bytes.
+     */
+    public int getMethodIDSize() {
+        return methodID.getSize();
+    }
+
+    /**
+     * @return Returns the size of ObjectID in bytes.
+     */
+    public int getObjectIDSize() {
+        return objectID.getSize();
+    }
+
+    /**
+     * @return Returns the size of ReferenceTypeID in bytes.
+     */
+    public int getReferenceTypeIDSize() {
+        return referenceTypeID.getSize();
+    }
+
+    /**
+     * @return Returns the size of FrameID in bytes.
+     */
+    public int getFrameIDSize() {
+        return frameID.getSize();
+    }
+
+    /**
+     * @return Returns the size of Location in bytes.
+     */
+    public int getLocationSize() {
+        return 1 + referenceTypeID.getSize() + methodID.getSize() + 8;
+    }
+
+    /**
+     * Returns the size of untagged value with given tag in bytes.
+     * 
+     * @param tag
+     *            JDWP tag of the value
+     * @return size of the value in bytes
+     */
+    public int getUntaggedValueSize(byte tag) {
+        switch (tag) {
+        case JDWPConstants.Tag.VOID_TAG:
+            return 0;
+        case JDWPConstants.Tag.STRING_TAG:
+        case JDWPConstants.Tag.ARRAY_TAG:
+        case JDWPConstants.Tag.CLASS_LOADER_TAG:
+        case JDWPConstants.Tag.CLASS_OBJECT_TAG:
+        case JDWPConstants.Tag.OBJECT_TAG:
+        case JDWPConstants.Tag.THREAD_GROUP_TAG:
+        case JDWPConstants.Tag.THREAD_TAG:
+            return objectID.getSize();
+        default:
+            if (!PrimitiveArrayRegion.isPrimitiveArrayTag(tag)) {
+                throw new TestErrorException("Illegal tag value = " + tag);
+            }
+            return PrimitiveArrayRegion.getValueSize(tag);
+        }
+    }
+
+    /**
+     * Converts IDSizes to string format for printing.
+     */
+    @Override
+    public String toString() {
+        return "IDSizes: fieldID=" + getFieldIDSize() + ", methodID="
+                + getMethodIDSize() + ", objectID=" + getObjectIDSize()
+                + ", referenceTypeID=" + getReferenceTypeIDSize()
+                + ", frameID=" + getFrameIDSize();
+    }
+}
@@ -0,0 +1,755 @@
+package jdi.jdwp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jdi.log.Log;
+
+/**
+ * This class provides TransportWrapper for TCP/IP connection on non-blocking
+ * SocketChannel. Packets are read and written by the I/O thread of a
+ * SelectorLoop, which serves many connections. They are read through a direct
+ * buffer of the connection, and the queued ones are written with one
+ * gathering write of the channel. Addresses "unix:path" stand for Unix domain sockets, which
+ * skip the TCP stack for local connections on JDK 16 and later.
+ *
+ * Received packets are handed to the PacketListener, if one is set, by the
+ * I/O thread. Otherwise they are queued for readPacket(), which keeps the
+ * blocking contract of TransportWrapper; reading from the channel is then
+ * suspended while MAX_RECEIVED_PACKETS packets are queued. writePacket()
+ * queues the packet and returns, unless MAX_QUEUED_BYTES bytes are waiting to
+ * be written.
+ */
+public class NioTransportWrapper implements TransportWrapper,
+        SelectorLoop.Handler {
+
+    private static final String TAG = "NioTransportWrapper";
+
+    /**
+     * Listener of packets received by the I/O thread. It must not block, as
+     * it delays all the connections of the loop.
+     */
+    public interface PacketListener {
+
+        /**
+         * Handles received packet.
+         *
+         * @param packet
+         *            packet as byte array
+         */
+        void onPacket(byte[] packet);
+
+        /**
+         * Handles closing of the connection.
+         *
+         * @param cause
+         *            error which closed the connection, or null if it was
+         *            closed by either side
+         */
+        void onClosed(IOException cause);
+    }
+
+    /**
+     * Size of the direct read buffer of a connection.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of buffers given to one gathering write.
+     */
+    public static final int MAX_GATHERED_BUFFERS = 256;
+
+    /**
+     * Number of received packets queued for readPacket() at which reading is
+     * suspended. It is resumed when half of them are read.
+     */
+    public static final int MAX_RECEIVED_PACKETS = 1024;
+
+    /**
+     * Number of queued bytes at which writePacket() waits for them to be
+     * written.
+     */
+    public static final long MAX_QUEUED_BYTES = 1024 * 1024;
+
+    /**
+     * Delay between attempts to attach, in milliseconds.
+     */
+    private static final long ATTACH_RETRY_DELAY = 4 * 1000;
+
+    /**
+     * Marker queued for readPacket() when the connection is closed.
+     */
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final SelectorLoop loop;
+
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Unix domain socket address listened to, whose file is deleted when
+     * listening stops.
+     */
+    private String unixAddress;
+
+    private volatile SocketChannel channel;
+
+    private SelectionKey key;
+
+    private volatile PacketListener listener;
+
+    private final LinkedBlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+
+    private volatile boolean readSuspended;
+
+    private ByteBuffer readBuffer;
+
+    /**
+     * Packet being read, and number of its bytes read.
+     */
+    private byte[] readPacket;
+
+    private int readOffset;
+
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * Buffers taken from the queue and not completely written yet, from
+     * index 0 to gatheredCount.
+     */
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+    private int gatheredCount;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final Condition writable = writeLock.newCondition();
+
+    private volatile int writersWaiting;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile IOException failure;
+
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            try {
+                flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    };
+
+    private final Runnable resumeTask = new Runnable() {
+        public void run() {
+            if (readSuspended && key != null && key.isValid()) {
+                readSuspended = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+    };
+
+    /**
+     * Creates transport served by the shared SelectorLoop.
+     */
+    public NioTransportWrapper() throws IOException {
+        this(SelectorLoop.getDefault());
+    }
+
+    /**
+     * Creates transport served by given SelectorLoop.
+     *
+     * @param loop
+     *            loop reading and writing packets of the connection
+     */
+    public NioTransportWrapper(SelectorLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Sets listener of received packets. Must be set before the connection
+     * is attached or accepted; readPacket() must not be used then.
+     *
+     * @param listener
+     *            listener of packets, or null to queue them for readPacket()
+     */
+    public void setPacketListener(PacketListener listener) {
+        if (channel != null) {
+            throw new IllegalStateException(
+                    "Packet listener must be set before connecting");
+        }
+        this.listener = listener;
+    }
+
+    /**
+     * Starts listening for connection on given or default address.
+     *
+     * @param address
+     *            address to listen to or null for default address, parsed as
+     *            "unix:path", "hostname:port" or "port", if it contains no
+     *            semi-colon.
+     * @return string representation of listening address
+     */
+    @Override
+    public String startListening(String address) throws IOException {
+        if (UnixDomainSockets.isUnixAddress(address)) {
+            serverChannel = UnixDomainSockets.bind(address);
+            unixAddress = address;
+            return address;
+        }
+
+        String hostName = null;
+        int port = 0;
+        if (address != null) {
+            int i = address.indexOf(':');
+            if (i >= 0) {
+                hostName = address.substring(0, i);
+            }
+            port = parsePort(address, address.substring(i + 1));
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        if (hostName != null) {
+            serverChannel.socket().bind(
+                    new InetSocketAddress(InetAddress.getByName(hostName),
+                            port));
+        } else {
+            serverChannel.socket().bind(new InetSocketAddress(port));
+        }
+
+        InetAddress iAddress;
+        if (hostName != null) {
+            iAddress = serverChannel.socket().getInetAddress();
+        } else {
+            iAddress = InetAddress.getLocalHost();
+        }
+        String hostNameOrAddress = iAddress.isLoopbackAddress() ? iAddress
+                .getHostAddress() : iAddress.getHostName();
+        return hostNameOrAddress + ":" + serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops listening for connection on current address.
+     */
+    @Override
+    public void stopListening() throws IOException {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (unixAddress != null) {
+            UnixDomainSockets.unlink(unixAddress);
+            unixAddress = null;
+        }
+    }
+
+    /**
+     * Accepts transport connection for currently listened address and
+     * performs handshaking for specified timeout.
+     *
+     * @param acceptTimeout
+     *            timeout for accepting in milliseconds
+     * @param handshakeTimeout
+     *            timeout for handshaking in milliseconds
+     */
+    @Override
+    public void accept(long acceptTimeout, long handshakeTimeout)
+            throws IOException {
+        SocketChannel accepted;
+        synchronized (serverChannel) {
+            serverChannel.configureBlocking(false);
+            Selector selector = Selector.open();
+            try {
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+                accepted = serverChannel.accept();
+                if (accepted == null && selector.select(acceptTimeout) > 0) {
+                    accepted = serverChannel.accept();
+                }
+            } finally {
+                selector.close();
+                serverChannel.configureBlocking(true);
+            }
+        }
+        if (accepted == null) {
+            throw new SocketTimeoutException("Timeout exceeded in accepting");
+        }
+        connect(accepted, handshakeTimeout);
+    }
+
+    /**
+     * Attaches transport connection to given address and performs
+     * handshaking for specified timeout.
+     *
+     * @param address
+     *            address for attaching, as "unix:path" or "hostname:port"
+     * @param attachTimeout
+     *            timeout for attaching in milliseconds
+     * @param handshakeTimeout
+     *            timeout for handshaking in milliseconds
+     */
+    @Override
+    public void attach(String address, long attachTimeout,
+            long handshakeTimeout) throws IOException {
+        boolean unix = UnixDomainSockets.isUnixAddress(address);
+        InetSocketAddress socketAddress = null;
+        if (unix) {
+            if (!UnixDomainSockets.isSupported()) {
+                throw new IOException(
+                        "Unix domain sockets are not supported by this runtime: "
+                                + address);
+            }
+        } else {
+            int i = address == null ? -1 : address.indexOf(':');
+            if (i < 0) {
+                throw new IOException("Illegal socket address: " + address);
+            }
+            socketAddress = new InetSocketAddress(address.substring(0, i),
+                    parsePort(address, address.substring(i + 1)));
+        }
+
+        long finishTime = System.currentTimeMillis() + attachTimeout;
+        SocketChannel attached;
+        try {
+            while (true) {
+                try {
+                    attached = unix ? UnixDomainSockets.connect(address)
+                            : SocketChannel.open(socketAddress);
+                    break;
+                } catch (IOException e) {
+                    long remaining = finishTime - System.currentTimeMillis();
+                    if (attachTimeout != 0 && remaining <= 0) {
+                        throw new SocketTimeoutException(
+                                "Timeout exceeded in attaching to " + address);
+                    }
+                    Thread.sleep(attachTimeout == 0 ? ATTACH_RETRY_DELAY
+                            : Math.min(ATTACH_RETRY_DELAY, remaining));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interruption in attaching to "
+                    + address);
+        }
+        connect(attached, handshakeTimeout);
+    }
+
+    /**
+     * Closes transport connection. Packets queued by writePacket() which are
+     * not written yet are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            stopListening();
+            SocketChannel socketChannel = channel;
+            if (socketChannel != null) {
+                socketChannel.close();
+            }
+        } finally {
+            terminate(null);
+        }
+    }
+
+    /**
+     * Checks if transport connection is open.
+     *
+     * @return true if transport connection is open
+     */
+    @Override
+    public boolean isOpen() {
+        SocketChannel socketChannel = channel;
+        return socketChannel != null && socketChannel.isOpen() && !closed.get();
+    }
+
+    /**
+     * Takes packet received by the I/O thread, waiting until there is one.
+     *
+     * @return packet as byte array or null if connection was closed
+     */
+    @Override
+    public byte[] readPacket() throws IOException {
+        if (listener != null) {
+            throw new IllegalStateException(
+                    "Packets are handed to the packet listener");
+        }
+        byte[] packet;
+        try {
+            packet = received.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interruption in reading packet");
+        }
+        if (packet == END_OF_STREAM) {
+            // keep the marker for other readers
+            received.add(END_OF_STREAM);
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        if (readSuspended && received.size() <= MAX_RECEIVED_PACKETS / 2) {
+            loop.execute(resumeTask);
+        }
+        return packet;
+    }
+
+    /**
+     * Queues packet bytes to be written by the I/O thread, waiting while
+     * MAX_QUEUED_BYTES bytes are queued.
+     *
+     * @param packet
+     *            packet as byte array
+     */
+    @Override
+    public void writePacket(byte[] packet) throws IOException {
+        checkOpen();
+        if (queuedBytes.get() >= MAX_QUEUED_BYTES) {
+            awaitWritable();
+        }
+        outbound.add(ByteBuffer.wrap(packet));
+        queuedBytes.addAndGet(packet.length);
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushTask);
+        }
+    }
+
+    /**
+     * Queues buffers to be written by the I/O thread, waiting while
+     * MAX_QUEUED_BYTES bytes are queued. The I/O thread writes the queued
+     * buffers with gathering writes of the channel, without copying them.
+     *
+     * @param buffers
+     *            buffers holding packets
+     * @param offset
+     *            index of the first buffer to write
+     * @param length
+     *            number of buffers to write
+     */
+    @Override
+    public void writePackets(ByteBuffer[] buffers, int offset, int length)
+            throws IOException {
+        checkOpen();
+        if (queuedBytes.get() >= MAX_QUEUED_BYTES) {
+            awaitWritable();
+        }
+        long size = 0;
+        for (int i = offset; i < offset + length; i++) {
+            outbound.add(buffers[i]);
+            size += buffers[i].remaining();
+        }
+        queuedBytes.addAndGet(size);
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushTask);
+        }
+    }
+
+    /**
+     * Handles the channel which is ready for reading or writing. Called by
+     * the I/O thread.
+     */
+    public void ready(SelectionKey key) {
+        try {
+            if (key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Performs handshaking on the connected channel and registers it with the
+     * loop.
+     */
+    private void connect(SocketChannel socketChannel, long handshakeTimeout)
+            throws IOException {
+        try {
+            socketChannel.configureBlocking(false);
+            if (socketChannel.supportedOptions().contains(
+                    StandardSocketOptions.TCP_NODELAY)) {
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            handshake(socketChannel, handshakeTimeout);
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+        readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        channel = socketChannel;
+        loop.execute(new Runnable() {
+            public void run() {
+                try {
+                    key = loop.register(channel, SelectionKey.OP_READ,
+                            NioTransportWrapper.this);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Performs handshaking for given timeout. Only the handshake bytes are
+     * read, so packets sent right after them stay in the channel.
+     *
+     * @param handshakeTimeout
+     *            timeout for handshaking in milliseconds
+     */
+    private void handshake(SocketChannel socketChannel, long handshakeTimeout)
+            throws IOException {
+        byte[] handshake = SocketTransportWrapper.HANDSHAKE_STRING.getBytes();
+        ByteBuffer output = ByteBuffer.wrap(handshake);
+        ByteBuffer input = ByteBuffer.allocate(handshake.length);
+        long finishTime = System.currentTimeMillis() + handshakeTimeout;
+        Selector selector = Selector.open();
+        try {
+            SelectionKey handshakeKey = socketChannel.register(selector,
+                    SelectionKey.OP_WRITE);
+            while (input.hasRemaining()) {
+                if (output.hasRemaining()) {
+                    socketChannel.write(output);
+                    if (!output.hasRemaining()) {
+                        handshakeKey.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (socketChannel.read(input) < 0) {
+                    break;
+                }
+                if (!input.hasRemaining()) {
+                    break;
+                }
+                long remaining = finishTime - System.currentTimeMillis();
+                if (handshakeTimeout != 0 && remaining <= 0) {
+                    throw new SocketTimeoutException(
+                            "Timeout exceeded in handshaking");
+                }
+                selector.select(handshakeTimeout == 0 ? 0 : remaining);
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            selector.close();
+        }
+        String response = new String(input.array(), 0, input.position());
+        Log.d(TAG, "handshake response is " + response);
+        if (!response.equals(SocketTransportWrapper.HANDSHAKE_STRING)) {
+            throw new IOException("Unexpected handshake response: "
+                    + response);
+        }
+    }
+
+    /**
+     * Reads available bytes and hands complete packets on. Called by the I/O
+     * thread.
+     */
+    private void read() throws IOException {
+        int bytesRead = channel.read(readBuffer);
+        if (bytesRead < 0) {
+            if (readPacket != null || readBuffer.position() > 0) {
+                throw new IOException("Connection closed in reading packet");
+            }
+            channel.close();
+            terminate(null);
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            if (readPacket == null) {
+                if (readBuffer.remaining() < Packet.HEADER_SIZE) {
+                    break;
+                }
+                int len = readBuffer.getInt(readBuffer.position());
+                if (len < Packet.HEADER_SIZE) {
+                    throw new IOException("Wrong packet size detected: " + len);
+                }
+                readPacket = new byte[len];
+                readOffset = 0;
+            }
+            int count = Math.min(readBuffer.remaining(), readPacket.length
+                    - readOffset);
+            readBuffer.get(readPacket, readOffset, count);
+            readOffset += count;
+            if (readOffset == readPacket.length) {
+                byte[] packet = readPacket;
+                readPacket = null;
+                deliver(packet);
+            }
+        }
+        readBuffer.compact();
+    }
+
+    private void deliver(byte[] packet) {
+        PacketListener packetListener = listener;
+        if (packetListener != null) {
+            try {
+                packetListener.onPacket(packet);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Packet listener failed", e);
+            }
+            return;
+        }
+        if (!readSuspended && received.size() + 1 >= MAX_RECEIVED_PACKETS) {
+            // suspend before queueing, so the reader taking this packet sees it
+            readSuspended = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        received.add(packet);
+    }
+
+    /**
+     * Writes queued buffers with gathering writes until they are all written
+     * or the channel is not writable. Called by the I/O thread.
+     */
+    private void flush() throws IOException {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        while (true) {
+            // take queued buffers
+            while (gatheredCount < gathered.length) {
+                ByteBuffer buffer = outbound.poll();
+                if (buffer == null) {
+                    break;
+                }
+                if (buffer.hasRemaining()) {
+                    gathered[gatheredCount++] = buffer;
+                }
+            }
+            if (gatheredCount == 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                break;
+            }
+
+            long bytesWritten = channel.write(gathered, 0, gatheredCount);
+            queuedBytes.addAndGet(-bytesWritten);
+
+            // drop written buffers
+            int written = 0;
+            while (written < gatheredCount && !gathered[written].hasRemaining()) {
+                written++;
+            }
+            System.arraycopy(gathered, written, gathered, 0, gatheredCount
+                    - written);
+            Arrays.fill(gathered, gatheredCount - written, gatheredCount, null);
+            gatheredCount -= written;
+            if (gatheredCount > 0) {
+                // the channel took what it could
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                break;
+            }
+        }
+        if (writersWaiting > 0 && queuedBytes.get() < MAX_QUEUED_BYTES) {
+            signalWriters();
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        writeLock.lock();
+        try {
+            writersWaiting++;
+            try {
+                while (queuedBytes.get() >= MAX_QUEUED_BYTES) {
+                    checkOpen();
+                    writable.await();
+                }
+            } finally {
+                writersWaiting--;
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interruption in writing packet");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void signalWriters() {
+        writeLock.lock();
+        try {
+            writable.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed.get() || channel == null) {
+            throw new IOException("Connection is closed");
+        }
+    }
+
+    /**
+     * Closes the connection after I/O error.
+     */
+    private void fail(IOException cause) {
+        // a channel closed by close() is not an error, close() terminates
+        // the connection itself
+        if (closed.get() || !channel.isOpen()) {
+            return;
+        }
+        failure = cause;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already failed
+        }
+        terminate(cause);
+    }
+
+    /**
+     * Wakes up readers and writers, and notifies the listener, when the
+     * connection is closed.
+     */
+    private void terminate(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        received.add(END_OF_STREAM);
+        outbound.clear();
+        signalWriters();
+        if (!loop.inLoop()) {
+            // let the selector drop the cancelled key
+            loop.execute(flushTask);
+        }
+        PacketListener packetListener = listener;
+        if (packetListener != null) {
+            try {
+                packetListener.onClosed(cause);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Packet listener failed", e);
+            }
+        }
+    }
+
+    private static int parsePort(String address, String portName)
+            throws IOException {
+        try {
+            return Integer.parseInt(portName);
+        } catch (NumberFormatException e) {
+            throw new IOException("Illegal port number in socket address: "
+                    + address);
+        }
+    }
+}
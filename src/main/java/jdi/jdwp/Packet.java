@@ -26,6 +26,8 @@
 package jdi.jdwp;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import jdi.jdwp.exceptions.TestErrorException;
 
@@ -64,52 +66,274 @@ public class Packet {
 
     private static final int ID_INDEX = 4;
 
-    private int id;
-
-    private byte flags;
+    /**
+     * Initial capacity in bytes of the data section of an empty packet.
+     */
+    private static final int DEFAULT_DATA_CAPACITY = 32;
 
-    private int length;
+    static final byte EMPTY_DATA[] = new byte[0];
 
+    /**
+     * Packet bytes: the header followed by the data section, starting at
+     * data_offset. Only bytes up to data_end are valid; bytes up to data_limit
+     * are spare capacity for the next setNextValueAs* calls. Header fields are
+     * kept in the buffer itself and read on demand.
+     */
     private byte data[];
 
+    private int data_offset;
+
+    private int data_end;
+
+    private int data_limit;
+
     private int reading_data_index;
 
+    /**
+     * Sizes of VM-dependent IDs, or null for sizes set in TypesLengths.
+     */
+    private IDSizes id_sizes;
+
+    /**
+     * Tells whether the bytes of the Packet may be read by others too, so
+     * they must be copied before the header is changed.
+     */
+    private boolean shared;
+
+    /**
+     * Pool this Packet was leased from, or null if it is not pooled.
+     */
+    PacketPool pool;
+
+    /**
+     * Tells whether pooled Packet is leased and not released yet.
+     */
+    boolean leased;
+
+    /**
+     * Leak tracking reference of leased Packet, if leak detection is on.
+     */
+    Object leak_ref;
+
     /**
      * A constructor that creates an empty CommandPacket with empty header
      * fields and no data.
      */
     public Packet() {
-        reading_data_index = 0;
-        data = new byte[0];
+        this(DEFAULT_DATA_CAPACITY);
+    }
+
+    /**
+     * A constructor that creates an empty Packet with empty header fields and
+     * no data, reserving space for dataCapacity bytes of data. If the exact
+     * size of the data is known, the buffer is never grown.
+     * 
+     * @param dataCapacity
+     *            expected size of the data section in bytes.
+     */
+    public Packet(int dataCapacity) {
+        if (dataCapacity < 0) {
+            throw new TestErrorException("Illegal packet data capacity = "
+                    + dataCapacity);
+        }
+        data = new byte[HEADER_SIZE + dataCapacity];
+        data_offset = 0;
+        data_end = HEADER_SIZE;
+        data_limit = data.length;
+        reading_data_index = HEADER_SIZE;
     }
 
     /**
      * A constructor that creates Packet from array of bytes including header
-     * and data sections.
+     * and data sections. The array is copied, see wrap() to read it without
+     * copying.
      * 
      * @param p array of bytes for new packet.
      */
     public Packet(byte p[]) {
-        length = (int) readFromByteArray(p, LENGTH_INDEX, INT_SIZE);
+        attachBuffer(Arrays.copyOf(p, p.length), 0, p.length);
+    }
+
+    /**
+     * A constructor that creates Packet reading size bytes of the array from
+     * given offset without copying them, see wrap().
+     */
+    Packet(byte p[], int offset, int size) {
+        attachBuffer(p, offset, size);
+        shared = true;
+    }
+
+    /**
+     * A constructor that creates Packet from remaining bytes of the buffer
+     * including header and data sections. If the buffer is backed by an
+     * accessible array, its content is not copied, the Packet reads its header
+     * and data directly from it, as for wrap(). Direct and read-only buffers
+     * have no accessible array, so their remaining bytes are copied. The
+     * position of the buffer is not changed.
+     * 
+     * @param buffer buffer holding the packet.
+     */
+    public Packet(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            attachBuffer(buffer.array(), buffer.arrayOffset()
+                    + buffer.position(), buffer.remaining());
+            shared = true;
+        } else {
+            byte p[] = new byte[buffer.remaining()];
+            buffer.duplicate().get(p);
+            attachBuffer(p, 0, p.length);
+        }
+    }
+
+    /**
+     * Creates Packet reading size bytes of the array from given offset,
+     * including header and data sections. The bytes are not copied, so they
+     * must not be modified while the Packet is in use. The Packet does not
+     * write to the array either: it copies the bytes before any header field
+     * is changed or any value is written to it.
+     * 
+     * @param p
+     *            array of bytes holding the packet.
+     * @param offset
+     *            index of the packet in the array.
+     * @param size
+     *            number of bytes of the packet in the array.
+     * @return Packet reading the array.
+     */
+    public static Packet wrap(byte p[], int offset, int size) {
+        return new Packet(p, offset, size);
+    }
+
+    /**
+     * Returns this Packet and its bytes to the pool it was leased from, see
+     * PacketPool. The Packet must not be used after that. Does nothing for
+     * Packets which are not pooled.
+     */
+    public void release() {
+        PacketPool p = pool;
+        if (p != null) {
+            p.recycle(this);
+        }
+    }
+
+    /**
+     * Makes pooled Packet read given array of bytes, see wrap().
+     */
+    void reuse(byte p[], int size) {
+        attachBuffer(p, 0, size);
+        shared = false;
+        id_sizes = null;
+    }
+
+    /**
+     * Takes the array of bytes away from released Packet.
+     * 
+     * @return the array the Packet was reading.
+     */
+    byte[] detachBuffer() {
+        byte res[] = data;
+        data = EMPTY_DATA;
+        data_offset = 0;
+        data_end = 0;
+        data_limit = 0;
+        reading_data_index = 0;
+        shared = false;
+        return res;
+    }
+
+    /**
+     * Creates Packet reading the same bytes as this one from the beginning of
+     * the data, without copying them. Either Packet copies the bytes before
+     * any header field is changed or any value is written to it.
+     *
+     * @return Packet sharing the bytes of this Packet.
+     */
+    Packet duplicate() {
+        Packet res = new Packet(0);
+        res.share(this);
+        return res;
+    }
+
+    /**
+     * Makes this Packet read the same bytes as given one from the beginning
+     * of the data, see duplicate().
+     *
+     * @param source
+     *            Packet to share the bytes of.
+     */
+    void share(Packet source) {
+        data = source.data;
+        data_offset = source.data_offset;
+        data_end = source.data_end;
+        data_limit = source.data_end;
+        reading_data_index = source.data_offset + HEADER_SIZE;
+        id_sizes = source.id_sizes;
+        shared = true;
+        source.shared = true;
+    }
+
+    /**
+     * Gets the current reading position of the Packet, to be restored later
+     * with setReadingIndex().
+     */
+    int getReadingIndex() {
+        return reading_data_index;
+    }
+
+    /**
+     * Restores the reading position of the Packet returned by
+     * getReadingIndex().
+     */
+    void setReadingIndex(int index) {
+        reading_data_index = index;
+    }
+
+    /**
+     * Skips next size bytes of the data of the Packet.
+     *
+     * @param size
+     *            number of bytes to skip.
+     */
+    void skipNextValues(int size) {
+        if (size < 0 || size > data_end - reading_data_index) {
+            throw new TestErrorException("Illegal number of bytes to skip = "
+                    + size + ", remaining bytes = "
+                    + (data_end - reading_data_index));
+        }
+        reading_data_index += size;
+    }
+
+    private void attachBuffer(byte p[], int offset, int size) {
+        if (size < HEADER_SIZE) {
+            throw new TestErrorException(
+                    "Packet creation error: size of packet = " + size
+                            + "is less than header size = " + HEADER_SIZE);
+        }
+        int length = (int) readFromByteArray(p, offset + LENGTH_INDEX,
+                INT_SIZE);
         if (length < HEADER_SIZE) {
             throw new TestErrorException(
                     "Packet creation error: size of packet = " + length
                             + "is less than header size = " + HEADER_SIZE);
         }
-        id = (int) readFromByteArray(p, ID_INDEX, INT_SIZE);
-        flags = p[FLAGS_INDEX];
-        data = new byte[p.length - HEADER_SIZE];
-        System.arraycopy(p, HEADER_SIZE, data, 0, p.length - HEADER_SIZE);
-        reading_data_index = 0;
+        data = p;
+        data_offset = offset;
+        // bytes after the length given in the header, e.g. the rest of a
+        // pooled array, do not belong to this packet
+        data_end = offset + Math.min(size, length);
+        data_limit = data_end;
+        reading_data_index = offset + HEADER_SIZE;
     }
 
     /**
-     * Gets the length value of the header of the Packet.
+     * Gets the length of the Packet including header and data sections, which
+     * is written to the length field of the header by asByteBuffer() and
+     * toBytesArray().
      * 
-     * @return the length value of the header of the Packet.
+     * @return the length of the Packet.
      */
     public int getLength() {
-        return length;
+        return data_end - data_offset;
     }
 
     /**
@@ -119,7 +343,7 @@ public class Packet {
      *            the id value of the header of the Packet.
      */
     public void setId(int i) {
-        id = i;
+        writeHeader(i, ID_INDEX, INT_SIZE);
     }
 
     /**
@@ -128,7 +352,7 @@ public class Packet {
      * @return the id value of the header of the Packet.
      */
     public int getId() {
-        return id;
+        return (int) readHeader(ID_INDEX, INT_SIZE);
     }
 
     /**
@@ -138,7 +362,7 @@ public class Packet {
      *            the flags value of the header of the Packet.
      */
     public void setFlags(byte f) {
-        flags = f;
+        writeHeader(f, FLAGS_INDEX, BYTE_SIZE);
     }
 
     /**
@@ -147,7 +371,62 @@ public class Packet {
      * @return the flags value of the header of the Packet.
      */
     public byte getFlags() {
-        return flags;
+        return data[data_offset + FLAGS_INDEX];
+    }
+
+    /**
+     * Sets sizes of VM-dependent IDs in the data of the Packet. By default
+     * sizes set globally in TypesLengths are used.
+     * 
+     * @param idSizes
+     *            sizes of IDs of the connection the Packet belongs to.
+     */
+    public void setIDSizes(IDSizes idSizes) {
+        id_sizes = idSizes;
+    }
+
+    /**
+     * Gets sizes of VM-dependent IDs in the data of the Packet.
+     * 
+     * @return sizes of IDs.
+     */
+    public IDSizes getIDSizes() {
+        IDSizes sizes = id_sizes;
+        return sizes != null ? sizes : IDSizes.getDefault();
+    }
+
+    /**
+     * Reads value of size bytes from the header of the Packet.
+     * 
+     * @param index
+     *            index of the value in the header.
+     * @param size
+     *            size of the value in bytes.
+     */
+    protected long readHeader(int index, int size) {
+        return readFromByteArray(data, data_offset + index, size);
+    }
+
+    /**
+     * Writes value of size bytes to the header of the Packet.
+     * 
+     * @param val
+     *            the value to write.
+     * @param index
+     *            index of the value in the header.
+     * @param size
+     *            size of the value in bytes.
+     */
+    protected void writeHeader(long val, int index, int size) {
+        if (shared) {
+            long mask = size < LONG_SIZE ? (1L << 8 * size) - 1 : -1L;
+            if (((readHeader(index, size) ^ val) & mask) == 0) {
+                // nothing to change, the bytes may stay shared
+                return;
+            }
+            rebase(data_end - data_offset);
+        }
+        writeAtByteArray(val, data, data_offset + index, size);
     }
 
     /**
@@ -223,11 +502,8 @@ public class Packet {
      *            the byte value.
      */
     public void setNextValueAsByte(byte val) {
-        int new_data_size = data.length + BYTE_SIZE;
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size - BYTE_SIZE);
-        data[new_data_size - BYTE_SIZE] = val;
+        int to = reserve(BYTE_SIZE);
+        data[to] = val;
     }
 
     /**
@@ -247,16 +523,11 @@ public class Packet {
      *            the boolean value.
      */
     public void setNextValueAsBoolean(boolean val) {
-        int old_data_size = data.length;
-        int new_data_size = old_data_size
-                + TypesLengths.getTypeLength(TypesLengths.BOOLEAN_ID);
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, old_data_size);
+        int to = reserve(TypesLengths.getTypeLength(TypesLengths.BOOLEAN_ID));
         if (val) {
-            data[old_data_size] = 1;
+            data[to] = 1;
         } else {
-            data[old_data_size] = 0;
+            data[to] = 0;
         }
     }
 
@@ -279,15 +550,9 @@ public class Packet {
      *            the short value.
      */
     public void setNextValueAsShort(short val) {
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.SHORT_ID);
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.SHORT_ID));
-        this.writeAtByteArray((long) val, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.SHORT_ID),
-                TypesLengths.getTypeLength(TypesLengths.SHORT_ID));
+        int size = TypesLengths.getTypeLength(TypesLengths.SHORT_ID);
+        int to = reserve(size);
+        this.writeAtByteArray((long) val, data, to, size);
     }
 
     /**
@@ -310,15 +575,9 @@ public class Packet {
      *            the int value.
      */
     public void setNextValueAsInt(int val) {
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.INT_ID);
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.INT_ID));
-        this.writeAtByteArray((long) val, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.INT_ID), TypesLengths
-                .getTypeLength(TypesLengths.INT_ID));
+        int size = TypesLengths.getTypeLength(TypesLengths.INT_ID);
+        int to = reserve(size);
+        this.writeAtByteArray((long) val, data, to, size);
     }
 
     /**
@@ -341,16 +600,10 @@ public class Packet {
      *            the double value.
      */
     public void setNextValueAsDouble(double dval) {
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.DOUBLE_ID);
-        byte data_temp[] = data;
+        int size = TypesLengths.getTypeLength(TypesLengths.DOUBLE_ID);
         long val = Double.doubleToLongBits(dval);
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.DOUBLE_ID));
-        this.writeAtByteArray((long) val, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.DOUBLE_ID),
-                TypesLengths.getTypeLength(TypesLengths.DOUBLE_ID));
+        int to = reserve(size);
+        this.writeAtByteArray(val, data, to, size);
     }
 
     /**
@@ -375,16 +628,10 @@ public class Packet {
      *            the float value.
      */
     public void setNextValueAsFloat(float fval) {
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.FLOAT_ID);
-        byte data_temp[] = data;
+        int size = TypesLengths.getTypeLength(TypesLengths.FLOAT_ID);
         long val = Float.floatToIntBits(fval);
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.FLOAT_ID));
-        this.writeAtByteArray((long) val, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.FLOAT_ID),
-                TypesLengths.getTypeLength(TypesLengths.FLOAT_ID));
+        int to = reserve(size);
+        this.writeAtByteArray(val, data, to, size);
     }
 
     /**
@@ -409,15 +656,9 @@ public class Packet {
      *            the char value.
      */
     public void setNextValueAsChar(char val) {
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.CHAR_ID);
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.CHAR_ID));
-        this.writeAtByteArray((long) val, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.CHAR_ID),
-                TypesLengths.getTypeLength(TypesLengths.CHAR_ID));
+        int size = TypesLengths.getTypeLength(TypesLengths.CHAR_ID);
+        int to = reserve(size);
+        this.writeAtByteArray((long) val, data, to, size);
     }
 
     /**
@@ -440,15 +681,9 @@ public class Packet {
      *            the long value.
      */
     public void setNextValueAsLong(long val) {
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.LONG_ID);
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.LONG_ID));
-        this.writeAtByteArray(val, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.LONG_ID),
-                TypesLengths.getTypeLength(TypesLengths.LONG_ID));
+        int size = TypesLengths.getTypeLength(TypesLengths.LONG_ID);
+        int to = reserve(size);
+        this.writeAtByteArray(val, data, to, size);
     }
 
     /**
@@ -465,53 +700,142 @@ public class Packet {
     }
 
     /**
-     * Sets the next value of the data of the Packet as String in the "UTF-8"
-     * Charset.
+     * Gets the next 4 bytes of the data of the Packet as int. Unlike
+     * getNextValueAsInt() the length is fixed, as JDWP defines it, and is not
+     * looked up in TypesLengths.
+     * 
+     * @return the next value of the data of the Packet as int.
+     */
+    public int getNextInt() {
+        int from = reading_data_index;
+        reading_data_index = from + INT_SIZE;
+        return (data[from] & 0xFF) << 24 | (data[from + 1] & 0xFF) << 16
+                | (data[from + 2] & 0xFF) << 8 | data[from + 3] & 0xFF;
+    }
+
+    /**
+     * Gets the next 8 bytes of the data of the Packet as long. Unlike
+     * getNextValueAsLong() the length is fixed, as JDWP defines it, and is not
+     * looked up in TypesLengths.
+     * 
+     * @return the next value of the data of the Packet as long.
+     */
+    public long getNextLong() {
+        long high = getNextInt();
+        return high << 32 | getNextInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Gets the next 4 bytes of the data of the Packet as number of elements
+     * which follow, checking that the rest of the data can hold that many
+     * elements before an array is allocated for them.
+     *
+     * @param elementSize
+     *            least size of one element in bytes; elements of size 0 are
+     *            counted as 1 byte.
+     * @return the number of elements.
+     */
+    public int getNextCount(int elementSize) {
+        int count = getNextInt();
+        int remaining = data_end - reading_data_index;
+        if (count < 0 || count > remaining / Math.max(elementSize, 1)) {
+            throw new TestErrorException("Illegal number of elements = "
+                    + count + ", remaining bytes = " + remaining);
+        }
+        return count;
+    }
+
+    /**
+     * Sets the next value of the data of the Packet as String in the modified
+     * UTF-8 encoding used by JDWP.
      * 
      * @param val
-     *            the String in the "UTF-8" Charset.
+     *            the String value.
      */
     public void setNextValueAsString(String val) {
-        byte data_temp[] = data;
-        byte val_as_bytes[];
-        try {
-            val_as_bytes = val.getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new TestErrorException(e);
-        }
-        int new_data_size = data.length + val_as_bytes.length
-                + TypesLengths.getTypeLength(TypesLengths.INT_ID);
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - val_as_bytes.length
-                - TypesLengths.getTypeLength(TypesLengths.INT_ID));
-        this.writeAtByteArray((long) val_as_bytes.length, data, new_data_size
-                - val_as_bytes.length
-                - TypesLengths.getTypeLength(TypesLengths.INT_ID), TypesLengths
-                .getTypeLength(TypesLengths.INT_ID));
-        System.arraycopy(val_as_bytes, 0, data, new_data_size
-                - val_as_bytes.length, val_as_bytes.length);
+        int length = StringCodec.encodedLength(val);
+        this.setNextValueAsInt(length);
+        int to = reserve(length);
+        StringCodec.encode(val, data, to);
     }
 
     /**
-     * Gets the next value of the data of the Packet as String in the "UTF-8"
-     * Charset.
+     * Gets the next value of the data of the Packet as String in the modified
+     * UTF-8 encoding used by JDWP.
      * 
-     * @return the next value of the data of the Packet as String in the "UTF-8"
-     *         Charset.
+     * @return the next value of the data of the Packet as String.
      */
     public String getNextValueAsString() {
-        int string_length = this.getNextValueAsInt();
-        String res = null;
-        try {
-            res = new String(data, reading_data_index, string_length, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new TestErrorException(e);
+        int string_length = this.getNextStringLength();
+        String res = StringCodec.decode(data, reading_data_index,
+                string_length);
+        reading_data_index = reading_data_index + string_length;
+        return res;
+    }
+
+    /**
+     * Gets the next value of the data of the Packet as String in the modified
+     * UTF-8 encoding used by JDWP, taking it from the given intern table if it
+     * is there. Intended for strings which repeat a lot, like type signatures.
+     * 
+     * @param cache
+     *            intern table for decoded strings.
+     * @return the next value of the data of the Packet as String.
+     */
+    public String getNextValueAsString(StringCache cache) {
+        int string_length = this.getNextStringLength();
+        String res = cache.get(data, reading_data_index, string_length);
+        reading_data_index = reading_data_index + string_length;
+        return res;
+    }
+
+    /**
+     * Reads length of the next string and checks it against remaining bytes
+     * of the data of the Packet.
+     */
+    private int getNextStringLength() {
+        int string_length = this.getNextInt();
+        if (string_length < 0
+                || string_length > data_end - reading_data_index) {
+            throw new TestErrorException("Illegal string length = "
+                    + string_length + ", remaining bytes = "
+                    + (data_end - reading_data_index));
         }
+        return string_length;
+    }
+
+    /**
+     * Gets the next value of the data of the Packet as String without decoding
+     * it: the given reusable object is pointed at the encoded bytes, which are
+     * decoded only on demand. It stays valid as long as the Packet bytes, and
+     * must not be used after a pooled Packet is released.
+     * 
+     * @param res
+     *            object to point at the string.
+     * @return the res object.
+     */
+    public EncodedString getNextValueAsEncodedString(EncodedString res) {
+        int string_length = this.getNextStringLength();
+        res.set(data, reading_data_index, string_length);
         reading_data_index = reading_data_index + string_length;
         return res;
     }
 
+    /**
+     * Gets the next size bytes of the data of the Packet as read-only buffer
+     * sharing the Packet bytes, without copying them. Intended for big opaque
+     * values, like constant pool bytes of ReferenceType.ConstantPool reply.
+     * 
+     * @param size
+     *            number of bytes.
+     * @return buffer holding the next size bytes.
+     */
+    public ByteBuffer getNextValueAsByteBuffer(int size) {
+        int from = reading_data_index;
+        skipNextValues(size);
+        return ByteBuffer.wrap(data, from, size).slice().asReadOnlyBuffer();
+    }
+
     /**
      * Sets the next value of the data of the Packet as objectID VM-sensitive
      * value. If length is less than 8 bytes, the appropriate high bits in the
@@ -521,20 +845,7 @@ public class Packet {
      *            the ObjectID value.
      */
     public void setNextValueAsObjectID(long val) {
-        if (TypesLengths.getTypeLength(TypesLengths.OBJECT_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.OBJECT_ID) > 8) {
-            throw new TestErrorException("Improper ObjectID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.OBJECT_ID));
-        }
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.OBJECT_ID);
-        byte[] data_temp = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.OBJECT_ID));
-        this.writeAtByteArray(val, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.OBJECT_ID),
-                TypesLengths.getTypeLength(TypesLengths.OBJECT_ID));
+        this.setNextValueAsID(getIDSizes().objectID, val);
     }
 
     /**
@@ -545,16 +856,7 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public long getNextValueAsObjectID() {
-        if (TypesLengths.getTypeLength(TypesLengths.OBJECT_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.OBJECT_ID) > 8) {
-            throw new TestErrorException("Improper ObjectID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.OBJECT_ID) + "!");
-        }
-        reading_data_index = reading_data_index
-                + TypesLengths.getTypeLength(TypesLengths.OBJECT_ID);
-        return (int) readFromByteArray(data, reading_data_index
-                - TypesLengths.getTypeLength(TypesLengths.OBJECT_ID),
-                TypesLengths.getTypeLength(TypesLengths.OBJECT_ID));
+        return this.getNextValueAsID(getIDSizes().objectID);
     }
 
     /**
@@ -704,7 +1006,7 @@ public class Packet {
      *            the ReferenceTypeID value.
      */
     public void setNextValueAsReferenceTypeID(long val) {
-        this.setNextValueAsObjectID(val);
+        this.setNextValueAsID(getIDSizes().referenceTypeID, val);
     }
 
     /**
@@ -715,7 +1017,7 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public long getNextValueAsReferenceTypeID() {
-        return this.getNextValueAsObjectID();
+        return this.getNextValueAsID(getIDSizes().referenceTypeID);
     }
 
     /**
@@ -727,7 +1029,7 @@ public class Packet {
      *            the ClassID value.
      */
     public void setNextValueAsClassID(long val) {
-        this.setNextValueAsObjectID(val);
+        this.setNextValueAsID(getIDSizes().referenceTypeID, val);
     }
 
     /**
@@ -738,7 +1040,7 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public long getNextValueAsClassID() {
-        return this.getNextValueAsObjectID();
+        return this.getNextValueAsID(getIDSizes().referenceTypeID);
     }
 
     /**
@@ -750,7 +1052,7 @@ public class Packet {
      *            the InterfaceID value.
      */
     public void setNextValueAsInterfaceID(long val) {
-        this.setNextValueAsObjectID(val);
+        this.setNextValueAsID(getIDSizes().referenceTypeID, val);
     }
 
     /**
@@ -761,7 +1063,7 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public long getNextValueAsInterfaceID() {
-        return this.getNextValueAsObjectID();
+        return this.getNextValueAsID(getIDSizes().referenceTypeID);
     }
 
     /**
@@ -773,7 +1075,7 @@ public class Packet {
      *            the ArrayTypeID value.
      */
     public void setNextValueAsArrayTypeID(long val) {
-        this.setNextValueAsObjectID(val);
+        this.setNextValueAsID(getIDSizes().referenceTypeID, val);
     }
 
     /**
@@ -784,7 +1086,7 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public long getNextValueAsArrayTypeID() {
-        return this.getNextValueAsObjectID();
+        return this.getNextValueAsID(getIDSizes().referenceTypeID);
     }
 
     /**
@@ -808,11 +1110,6 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public TaggedObject getNextValueAsTaggedObject() {
-        if (TypesLengths.getTypeLength(TypesLengths.OBJECT_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.OBJECT_ID) > 8) {
-            throw new TestErrorException("Improper ObjectID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.OBJECT_ID));
-        }
         TaggedObject taggedObject = new TaggedObject();
         taggedObject.tag = this.getNextValueAsByte();
         taggedObject.objectID = this.getNextValueAsObjectID();
@@ -828,20 +1125,7 @@ public class Packet {
      *            MethodID value.
      */
     public void setNextValueAsMethodID(long methodID) {
-        if (TypesLengths.getTypeLength(TypesLengths.METHOD_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.METHOD_ID) > 8) {
-            throw new TestErrorException("Improper MethodID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.METHOD_ID));
-        }
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.METHOD_ID);
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.METHOD_ID));
-        this.writeAtByteArray(methodID, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.METHOD_ID),
-                TypesLengths.getTypeLength(TypesLengths.METHOD_ID));
+        this.setNextValueAsID(getIDSizes().methodID, methodID);
     }
 
     /**
@@ -852,17 +1136,7 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public long getNextValueAsMethodID() {
-        if (TypesLengths.getTypeLength(TypesLengths.METHOD_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.METHOD_ID) > 8) {
-            throw new TestErrorException("Improper MethodID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.METHOD_ID));
-        }
-        reading_data_index = reading_data_index
-                + TypesLengths.getTypeLength(TypesLengths.METHOD_ID);
-        long result = readFromByteArray(data, reading_data_index
-                - TypesLengths.getTypeLength(TypesLengths.METHOD_ID),
-                TypesLengths.getTypeLength(TypesLengths.METHOD_ID));
-        return result;
+        return this.getNextValueAsID(getIDSizes().methodID);
     }
 
     /**
@@ -874,20 +1148,7 @@ public class Packet {
      *            FieldID value.
      */
     public void setNextValueAsFieldID(long fieldID) {
-        if (TypesLengths.getTypeLength(TypesLengths.FIELD_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.FIELD_ID) > 8) {
-            throw new TestErrorException("Improper FieldID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.FIELD_ID));
-        }
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.FIELD_ID);
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.FIELD_ID));
-        this.writeAtByteArray(fieldID, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.FIELD_ID),
-                TypesLengths.getTypeLength(TypesLengths.FIELD_ID));
+        this.setNextValueAsID(getIDSizes().fieldID, fieldID);
     }
 
     /**
@@ -898,17 +1159,7 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public long getNextValueAsFieldID() {
-        if (TypesLengths.getTypeLength(TypesLengths.FIELD_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.FIELD_ID) > 8) {
-            throw new TestErrorException("Improper FieldID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.FIELD_ID));
-        }
-        reading_data_index = reading_data_index
-                + TypesLengths.getTypeLength(TypesLengths.FIELD_ID);
-        long result = readFromByteArray(data, reading_data_index
-                - TypesLengths.getTypeLength(TypesLengths.FIELD_ID),
-                TypesLengths.getTypeLength(TypesLengths.FIELD_ID));
-        return result;
+        return this.getNextValueAsID(getIDSizes().fieldID);
     }
 
     /**
@@ -920,20 +1171,7 @@ public class Packet {
      *            FrameID value.
      */
     public void setNextValueAsFrameID(long frameID) {
-        if (TypesLengths.getTypeLength(TypesLengths.FRAME_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.FRAME_ID) > 8) {
-            throw new TestErrorException("Improper FrameID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.FRAME_ID));
-        }
-        int new_data_size = data.length
-                + TypesLengths.getTypeLength(TypesLengths.FRAME_ID);
-        byte data_temp[] = data;
-        data = new byte[new_data_size];
-        System.arraycopy(data_temp, 0, data, 0, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.FRAME_ID));
-        this.writeAtByteArray(frameID, data, new_data_size
-                - TypesLengths.getTypeLength(TypesLengths.FRAME_ID),
-                TypesLengths.getTypeLength(TypesLengths.FRAME_ID));
+        this.setNextValueAsID(getIDSizes().frameID, frameID);
     }
 
     /**
@@ -944,17 +1182,26 @@ public class Packet {
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
     public long getNextValueAsFrameID() {
-        if (TypesLengths.getTypeLength(TypesLengths.FRAME_ID) < 0
-                || TypesLengths.getTypeLength(TypesLengths.FRAME_ID) > 8) {
-            throw new TestErrorException("Improper FrameID value length = "
-                    + TypesLengths.getTypeLength(TypesLengths.FRAME_ID));
-        }
-        reading_data_index = reading_data_index
-                + TypesLengths.getTypeLength(TypesLengths.FRAME_ID);
-        long result = readFromByteArray(data, reading_data_index
-                - TypesLengths.getTypeLength(TypesLengths.FRAME_ID),
-                TypesLengths.getTypeLength(TypesLengths.FRAME_ID));
-        return result;
+        return this.getNextValueAsID(getIDSizes().frameID);
+    }
+
+    /**
+     * Sets the next value of the data of the Packet as ID of the size given by
+     * codec.
+     */
+    private void setNextValueAsID(IDSizes.IDCodec codec, long val) {
+        int to = reserve(codec.getSize());
+        codec.write(val, data, to);
+    }
+
+    /**
+     * Gets the next value of the data of the Packet as ID of the size given by
+     * codec.
+     */
+    private long getNextValueAsID(IDSizes.IDCodec codec) {
+        int from = reading_data_index;
+        reading_data_index = from + codec.getSize();
+        return codec.read(data, from);
     }
 
     /**
@@ -984,7 +1231,7 @@ public class Packet {
         location.tag = this.getNextValueAsByte();
         location.classID = this.getNextValueAsClassID();
         location.methodID = this.getNextValueAsMethodID();
-        location.index = this.getNextValueAsLong();
+        location.index = this.getNextLong();
         return location;
     }
 
@@ -1121,8 +1368,13 @@ public class Packet {
     public void setNextValueAsArrayRegion(ArrayRegion array) {
         this.setNextValueAsByte(array.getTag());
         this.setNextValueAsInt(array.getLength());
+        if (array instanceof PrimitiveArrayRegion) {
+            setNextValuesAsPrimitiveArray((PrimitiveArrayRegion) array);
+            return;
+        }
+        boolean primitive = isValuePrimitiveType(array.getTag());
         for (int i = 0; i < array.getLength(); i++) {
-            if (isValuePrimitiveType(array.getTag())) {
+            if (primitive) {
                 switch (array.getTag()) {
                 case JDWPConstants.Tag.BOOLEAN_TAG:
                     this.setNextValueAsBoolean(array.getValue(i)
@@ -1131,6 +1383,9 @@ public class Packet {
                 case JDWPConstants.Tag.BYTE_TAG:
                     this.setNextValueAsByte(array.getValue(i).getByteValue());
                     break;
+                case JDWPConstants.Tag.CHAR_TAG:
+                    this.setNextValueAsChar(array.getValue(i).getCharValue());
+                    break;
                 case JDWPConstants.Tag.DOUBLE_TAG:
                     this.setNextValueAsDouble(array.getValue(i)
                             .getDoubleValue());
@@ -1160,7 +1415,8 @@ public class Packet {
     /**
      * Gets the next value of the data of the Packet as ArrayRegion VM-sensitive
      * value. If length is less than 8 bytes, the appropriate high bits in the
-     * returned value can be ignored.
+     * returned value can be ignored. Regions of primitive values are returned
+     * as PrimitiveArrayRegion decoded in bulk.
      * 
      * @return the next value of the data of the Packet as VM-sensitive value.
      */
@@ -1168,10 +1424,25 @@ public class Packet {
         byte array_tag = this.getNextValueAsByte();
         int array_length = this.getNextValueAsInt();
 
+        if (PrimitiveArrayRegion.isPrimitiveArrayTag(array_tag)) {
+            // check the length before the array is allocated for it
+            if (array_length < 0
+                    || array_length > (data_end - reading_data_index)
+                            / PrimitiveArrayRegion.getValueSize(array_tag)) {
+                throw new TestErrorException("Illegal array region length = "
+                        + array_length);
+            }
+            PrimitiveArrayRegion array = PrimitiveArrayRegion.create(array_tag,
+                    array_length);
+            getNextValuesAsPrimitiveArray(array);
+            return array;
+        }
+
         ArrayRegion array = new ArrayRegion(array_tag, array_length);
 
+        boolean primitive = isValuePrimitiveType(array_tag);
         for (int i = 0; i < array_length; i++) {
-            if (isValuePrimitiveType(array_tag))
+            if (primitive)
                 array.setValue(i, this.getNextValueAsUntaggedValue(array_tag));
             else
                 array.setValue(i, this.getNextValueAsValue());
@@ -1179,21 +1450,138 @@ public class Packet {
         return array;
     }
 
+    /**
+     * Writes all values of the primitive array region at once as the next
+     * data of the Packet.
+     * 
+     * @param array
+     *            PrimitiveArrayRegion value.
+     */
+    private void setNextValuesAsPrimitiveArray(PrimitiveArrayRegion array) {
+        int length = array.getLength();
+        int size = length * PrimitiveArrayRegion.getValueSize(array.getTag());
+        int to = reserve(size);
+        // ByteBuffer views are big-endian, as JDWP requires
+        ByteBuffer buffer = ByteBuffer.wrap(data, to, size);
+        switch (array.getTag()) {
+        case JDWPConstants.Tag.BOOLEAN_TAG: {
+            boolean values[] = array.getBooleanArray();
+            for (int i = 0; i < length; i++) {
+                data[to + i] = (byte) (values[i] ? 1 : 0);
+            }
+            break;
+        }
+        case JDWPConstants.Tag.BYTE_TAG:
+            System.arraycopy(array.getByteArray(), 0, data, to, length);
+            break;
+        case JDWPConstants.Tag.CHAR_TAG:
+            buffer.asCharBuffer().put(array.getCharArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.SHORT_TAG:
+            buffer.asShortBuffer().put(array.getShortArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.INT_TAG:
+            buffer.asIntBuffer().put(array.getIntArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.LONG_TAG:
+            buffer.asLongBuffer().put(array.getLongArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.FLOAT_TAG:
+            buffer.asFloatBuffer().put(array.getFloatArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.DOUBLE_TAG:
+            buffer.asDoubleBuffer().put(array.getDoubleArray(), 0, length);
+            break;
+        default:
+            throw new TestErrorException("Illegal tag value = "
+                    + array.getTag());
+        }
+    }
+
+    /**
+     * Reads values of the primitive array region at once from the next data
+     * of the Packet.
+     * 
+     * @param array
+     *            PrimitiveArrayRegion to fill.
+     */
+    private void getNextValuesAsPrimitiveArray(PrimitiveArrayRegion array) {
+        int length = array.getLength();
+        int value_size = PrimitiveArrayRegion.getValueSize(array.getTag());
+        if (length > (data_end - reading_data_index) / value_size) {
+            throw new TestErrorException("Illegal array region length = "
+                    + length);
+        }
+        int size = length * value_size;
+        int from = reading_data_index;
+        reading_data_index += size;
+        ByteBuffer buffer = ByteBuffer.wrap(data, from, size);
+        switch (array.getTag()) {
+        case JDWPConstants.Tag.BOOLEAN_TAG: {
+            boolean values[] = array.getBooleanArray();
+            for (int i = 0; i < length; i++) {
+                values[i] = data[from + i] != 0;
+            }
+            break;
+        }
+        case JDWPConstants.Tag.BYTE_TAG:
+            System.arraycopy(data, from, array.getByteArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.CHAR_TAG:
+            buffer.asCharBuffer().get(array.getCharArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.SHORT_TAG:
+            buffer.asShortBuffer().get(array.getShortArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.INT_TAG:
+            buffer.asIntBuffer().get(array.getIntArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.LONG_TAG:
+            buffer.asLongBuffer().get(array.getLongArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.FLOAT_TAG:
+            buffer.asFloatBuffer().get(array.getFloatArray(), 0, length);
+            break;
+        case JDWPConstants.Tag.DOUBLE_TAG:
+            buffer.asDoubleBuffer().get(array.getDoubleArray(), 0, length);
+            break;
+        default:
+            throw new TestErrorException("Illegal tag value = "
+                    + array.getTag());
+        }
+    }
+
     /**
      * Gets the representation of the Packet as array of bytes in the JDWP
-     * format including header and data sections.
+     * format including header and data sections. The array is a copy, which
+     * later changes of the Packet do not affect; see asByteBuffer() for the
+     * bytes without copying.
      * 
      * @return bytes representation of this packet
      */
     public byte[] toBytesArray() {
-        byte res[] = new byte[data.length + HEADER_SIZE];
-        writeAtByteArray(data.length + HEADER_SIZE, res, LENGTH_INDEX, INT_SIZE);
-        writeAtByteArray(id, res, ID_INDEX, INT_SIZE);
-        res[FLAGS_INDEX] = flags;
-        System.arraycopy(data, 0, res, HEADER_SIZE, data.length);
+        int size = data_end - data_offset;
+        byte res[] = new byte[size];
+        System.arraycopy(data, data_offset, res, 0, size);
+        writeAtByteArray(size, res, LENGTH_INDEX, INT_SIZE);
         return res;
     }
 
+    /**
+     * Gets the Packet as buffer in the JDWP format including header and data
+     * sections, without copying: the buffer shares the packet's own bytes,
+     * which must not be modified through it. Values set to the Packet later
+     * do not change the bytes in the buffer, as they are added after them or
+     * to a new array, but header fields set later do.
+     * 
+     * @return buffer view of this packet
+     */
+    public ByteBuffer asByteBuffer() {
+        writeHeader(data_end - data_offset, LENGTH_INDEX, INT_SIZE);
+        return ByteBuffer.wrap(data, data_offset, data_end - data_offset)
+                .slice();
+    }
+
     /**
      * Reads value from array of bytes ar[] starting form index and reading size
      * bytes. If size is less than 8, the appropriate high bits in the resulting
@@ -1222,7 +1610,7 @@ public class Packet {
      * @return true if this packet is reply, false if it is command
      */
     public boolean isReply() {
-        return (flags & REPLY_PACKET_FLAG) != 0;
+        return (getFlags() & REPLY_PACKET_FLAG) != 0;
     }
 
     /**
@@ -1231,9 +1619,44 @@ public class Packet {
      * @return boolean
      */
     public boolean isAllDataRead() {
-        return reading_data_index == data.length;
+        return reading_data_index == data_end;
     }
 
+    /**
+     * Reserves size bytes at the end of the data of the Packet, growing the
+     * buffer by doubling its capacity if needed.
+     * 
+     * @param size
+     *            number of bytes to reserve.
+     * @return index in the buffer where reserved bytes start.
+     */
+    private int reserve(int size) {
+        if (data_end + size > data_limit) {
+            int packet_size = data_end - data_offset;
+            rebase(Math.max(packet_size << 1, packet_size + size));
+        }
+        int to = data_end;
+        data_end += size;
+        return to;
+    }
+
+    /**
+     * Moves the packet bytes to the beginning of a new buffer of given
+     * capacity, which is owned by this packet only.
+     * 
+     * @param capacity
+     *            capacity of the new buffer in bytes.
+     */
+    private void rebase(int capacity) {
+        byte new_data[] = new byte[capacity];
+        System.arraycopy(data, data_offset, new_data, 0, data_end - data_offset);
+        reading_data_index -= data_offset;
+        data_end -= data_offset;
+        data_offset = 0;
+        data_limit = capacity;
+        data = new_data;
+        shared = false;
+    }
     /**
      * Writes value - val to the array of bytes ar[], beginning from index - to,
      * size of value is - size bytes. If size is less than 8, the appropriate
@@ -1293,4 +1716,21 @@ public class Packet {
             return new ReplyPacket(p);
         return new EventPacket(p);
     }
+
+    /**
+     * Enwraps remaining bytes of this buffer either to ReplyPacket or
+     * EventPacket instance, according to its reply flag. The bytes are not
+     * copied if the buffer is backed by an accessible array.
+     * 
+     * @param buffer
+     *            buffer to enwrap into packet
+     * @return new created ReplyPacket or CommandPacket
+     */
+    public static Packet interpretPacket(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE)
+            throw new TestErrorException("Wrong packet");
+        if ((buffer.get(buffer.position() + FLAGS_INDEX) & REPLY_PACKET_FLAG) != 0)
+            return new ReplyPacket(buffer);
+        return new EventPacket(buffer);
+    }
 }
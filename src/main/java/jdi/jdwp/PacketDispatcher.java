@@ -28,9 +28,20 @@ package jdi.jdwp;
 import java.util.List;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Hashtable;
-
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdi.concurrent.ThreadSupport;
+
+import jdi.jdwp.exceptions.TestErrorException;
 import jdi.jdwp.exceptions.TestOptions;
 import jdi.jdwp.exceptions.TimeoutException;
 
@@ -38,6 +49,11 @@ import jdi.jdwp.exceptions.TimeoutException;
  * This class provides asynchronous sending JDWP commands and receiving JDWP
  * events through established JDWP connection and supports timeout for these
  * operations.
+ * 
+ * Where ThreadSupport provides virtual threads, start() runs the dispatcher
+ * loop in a virtual thread instead of this one, and interrupt() and
+ * isInterrupted() are delegated to it. Use isStarted() rather than isAlive()
+ * then, and do not join() the dispatcher.
  */
 public class PacketDispatcher extends Thread {
 
@@ -75,24 +91,81 @@ public class PacketDispatcher extends Thread {
 
     byte eventKindForTrace = 0;
 
+    /**
+     * Policy applied when the queue of received events, or the queue of a
+     * subscription, is full.
+     */
+    public enum EventOverflowPolicy {
+
+        /**
+         * The dispatcher thread waits until events are taken, so nothing more
+         * is read from the connection meanwhile.
+         */
+        BLOCK,
+
+        /**
+         * The oldest event in the queue is dropped to make room for the new
+         * one.
+         */
+        DROP_OLDEST,
+
+        /**
+         * VirtualMachine.HoldEvents command is sent when the queue gets three
+         * quarters full, and VirtualMachine.ReleaseEvents when it is drained
+         * to one quarter, so replies keep coming while events are held by the
+         * debuggee VM. If the queue still gets full, the dispatcher thread
+         * waits as with BLOCK.
+         */
+        HOLD_EVENTS
+    }
+
+    /**
+     * Default maximum number of received events waiting to be taken.
+     */
+    public static final int DEFAULT_EVENT_QUEUE_CAPACITY = 8192;
+
+    /**
+     * RequestID of subscription to events of any request.
+     */
+    public static final int ANY_REQUEST_ID = -1;
+
+    /**
+     * Kind of subscription to events of any kind.
+     */
+    public static final byte ANY_EVENT_KIND = 0;
+
     /**
      * Internal class to synchronize jdwp events. When an event is received it
-     * is stored in eventQueue. If there are any thread that waits for event it
-     * is notified.
+     * is stored in bounded eventRing. If there are any thread that waits for
+     * event it is notified.
      */
     private class EventsSynchronyzer {
 
         /**
-         * List of received events.
+         * Ring of received events.
          */
-        private List<EventPacket> eventQueue;
+        private final EventRing<EventPacket> eventRing;
+
+        private final EventOverflowPolicy overflowPolicy;
 
         /**
-         * A default constructor.
+         * Whether events are held by HoldEvents command.
          */
-        EventsSynchronyzer() {
-            // initialize eventQueue
-            eventQueue = new ArrayList<EventPacket>();
+        private final AtomicBoolean eventsHeld = new AtomicBoolean();
+
+        private final AtomicLong droppedEvents = new AtomicLong();
+
+        /**
+         * Creates EventsSynchronyzer with the given queue capacity.
+         * 
+         * @param capacity
+         *            maximum number of events in queue
+         * @param overflowPolicy
+         *            policy applied when the queue is full
+         */
+        EventsSynchronyzer(int capacity, EventOverflowPolicy overflowPolicy) {
+            eventRing = new EventRing<EventPacket>(capacity);
+            this.overflowPolicy = overflowPolicy;
         }
 
         /**
@@ -104,17 +177,105 @@ public class PacketDispatcher extends Thread {
          */
         public void notifyThread(EventPacket eventPacket)
                 throws InterruptedException {
+            enqueue(eventRing, eventPacket, true);
+        }
+
+        /**
+         * Creates queue of a subscription, of the same capacity as the queue
+         * of received events.
+         */
+        EventRing<ParsedEvent> newSubscriptionRing() {
+            return new EventRing<ParsedEvent>(eventRing.capacity());
+        }
+
+        /**
+         * Puts event in the queue applying the overflow policy. Events of
+         * subscriptions are parsed and need not be released.
+         * 
+         * @param ring
+         *            queue of received events or of a subscription
+         * @param event
+         *            event to put
+         * @param release
+         *            whether events dropped from the queue are packets to
+         *            release
+         */
+        <E> void enqueue(EventRing<E> ring, E event, boolean release)
+                throws InterruptedException {
+            switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!ring.offer(event)) {
+                    if (ring.isTerminated()) {
+                        if (release) {
+                            ((Packet) event).release();
+                        }
+                        break;
+                    }
+                    E oldest = ring.poll();
+                    if (oldest != null) {
+                        if (release) {
+                            ((Packet) oldest).release();
+                        }
+                        droppedEvents.incrementAndGet();
+                    }
+                }
+                break;
+            case HOLD_EVENTS:
+                if (ring.size() >= ring.capacity() / 4 * 3
+                        && eventsHeld.compareAndSet(false, true)) {
+                    sendEventsControl(JDWPCommands.VirtualMachineCommandSet.HoldEventsCommand);
+                }
+                // and wait if the queue is still full
+                putWaiting(ring, event, release);
+                break;
+            default:
+                putWaiting(ring, event, release);
+            }
+        }
 
-            // use this object as lock
-            synchronized (this) {
-                // add the event to eventQueue
-                eventQueue.add(eventPacket);
+        /**
+         * Puts event in the queue, waiting while it is full. The event is
+         * released if the queue is terminated meanwhile.
+         */
+        private <E> void putWaiting(EventRing<E> ring, E event,
+                boolean release) throws InterruptedException {
+            if (!ring.put(event) && release) {
+                ((Packet) event).release();
+            }
+        }
 
-                // notify next waiting thread
-                this.notify();
+        /**
+         * Sends HoldEvents or ReleaseEvents command without waiting for the
+         * reply.
+         */
+        private void sendEventsControl(byte command) {
+            commandsSynchronyzer.sendAsync(
+                    new CommandPacket(
+                            JDWPCommands.VirtualMachineCommandSet.CommandSetID,
+                            command), 0).thenAccept(ReplyPacket::release);
+        }
+
+        /**
+         * Releases held events when the queue of received events and the
+         * queues of all the subscriptions are drained enough.
+         */
+        void eventsTaken() {
+            if (eventsHeld.get() && isDrained(eventRing)) {
+                for (EventSubscription subscription : subscriptions) {
+                    if (!isDrained(subscription.getEventRing())) {
+                        return;
+                    }
+                }
+                if (eventsHeld.compareAndSet(true, false)) {
+                    sendEventsControl(JDWPCommands.VirtualMachineCommandSet.ReleaseEventsCommand);
+                }
             }
         }
 
+        private boolean isDrained(EventRing<?> ring) {
+            return ring.size() <= ring.capacity() / 4;
+        }
+
         /**
          * Waits for new event during timeout.
          * 
@@ -129,89 +290,156 @@ public class PacketDispatcher extends Thread {
         public EventPacket waitForNextEvent(long timeout)
                 throws InterruptedException, IOException {
 
-            // use this object as lock
-            synchronized (this) {
-
-                // if there is already received event in eventQueue,
-                // then return it
-                synchronized (eventQueue) {
-                    if (!eventQueue.isEmpty()) {
-                        return eventQueue.remove(0);
-                    }
+            // if there is already received event, then return it
+            EventPacket event = eventRing.poll();
+            if (event == null) {
+                // if there are no events and connection is already closed
+                // reraise the exception
+                if (connectionException != null)
+                    throw connectionException;
 
-                    // if eventQueue is empty and connection is already closed
-                    // reraise the exception
-                    if (connectionException != null)
-                        throw connectionException;
+                // wait for the next event
+                if (eventRing.awaitNotEmpty(timeout)) {
+                    event = eventRing.poll();
                 }
+            }
 
-                // wait for the next event
-                this.wait(timeout);
-
-                // We have the following opportunities here -
-                // next event was received, exception in main cyrcle or timeout
-                // happens
-                synchronized (eventQueue) {
-                    if (!eventQueue.isEmpty()) {
-                        // event received
-                        EventPacket event = eventQueue.remove(0);
-                        return event;
-                    }
+            // event received
+            if (event != null) {
+                eventsTaken();
+                return event;
+            }
 
-                    if (connectionException != null) {
-                        // if eventQueue is empty and connection is already
-                        // closed
-                        // reraise the exception
-                        throw connectionException;
-                    }
+            // if there are no events and connection is already closed
+            // reraise the exception
+            if (connectionException != null)
+                throw connectionException;
+
+            // no events were occurred during timeout
+            throw new TimeoutException(false);
+        }
+
+        /**
+         * Waits for new events during timeout, and takes all the received
+         * events up to maxEvents.
+         * 
+         * @param maxEvents
+         *            maximum number of events to take
+         * @param timeout
+         *            wait timeout
+         * @return list of events, not empty
+         * @throws InterruptedException
+         * @throws IOException
+         * @throws TimeoutException
+         *             if no event was received
+         */
+        public List<EventPacket> waitForEvents(int maxEvents, long timeout)
+                throws InterruptedException, IOException {
+
+            if (maxEvents <= 0) {
+                throw new IllegalArgumentException("Wrong maxEvents: "
+                        + maxEvents);
+            }
+            List<EventPacket> events = new ArrayList<EventPacket>(Math.min(
+                    maxEvents, eventRing.capacity()));
+
+            // take already received events
+            if (eventRing.drainTo(events, maxEvents) == 0) {
+                if (connectionException != null)
+                    throw connectionException;
+
+                // wait for the next events
+                if (eventRing.awaitNotEmpty(timeout)) {
+                    eventRing.drainTo(events, maxEvents);
                 }
             }
 
+            // events received
+            if (!events.isEmpty()) {
+                eventsTaken();
+                return events;
+            }
+
+            if (connectionException != null)
+                throw connectionException;
+
             // no events were occurred during timeout
             throw new TimeoutException(false);
         }
 
+        /**
+         * Gets number of events dropped from the full queues.
+         * 
+         * @return number of dropped events
+         */
+        public long getDroppedCount() {
+            return droppedEvents.get();
+        }
+
         /**
          * This method is called when connection is closed. It notifies all the
          * waiting threads.
          */
         public void terminate() {
-            synchronized (this) {
-                this.notifyAll();
-            }
+            eventRing.terminate();
         }
     }
 
     /**
      * Internal class to synchronize jdwp commands. It sends command packets
-     * through connection and returns replies.
+     * through connection and returns replies. Pending commands are kept in
+     * lock-free table, and each reply is handed directly to the thread waiting
+     * for its command. Command packets are written by a single writer thread,
+     * which writes all the queued packets at once.
      */
     class CommandsSynchronyzer {
 
-        private int commandId;
+        /**
+         * Maximum number of packets written at once, unless more commands are
+         * queued together by sendAllAsync().
+         */
+        private static final int MAX_BATCH_PACKETS = 256;
 
-        private Hashtable<Integer, CommandPacket> commands;
+        private final PendingCommands pending;
 
-        private Hashtable<Integer, ReplyPacket> replies;
+        /**
+         * Commands waiting to be written to the connection.
+         */
+        private final LinkedBlockingQueue<PendingCommands.Slot> outbound = new LinkedBlockingQueue<PendingCommands.Slot>();
 
         /**
-         * A default constructor.
+         * Queued to stop the writer thread.
          */
-        CommandsSynchronyzer() {
-            commands = new Hashtable<Integer, CommandPacket>();
-            replies = new Hashtable<Integer, ReplyPacket>();
+        private final PendingCommands.Slot stopWriter;
 
-            // set first command id to 1
-            commandId = 1;
-        }
+        /**
+         * Thread writing command packets, started when the first command is
+         * sent.
+         */
+        private volatile Thread writer;
 
         /**
-         * Gets the next new id for a command.
-         * 
-         * @return int
+         * Duration of one tick of timer wheel in milliseconds.
+         */
+        private static final long TIMER_TICK = 10;
+
+        /**
+         * Number of buckets of timer wheel.
+         */
+        private static final int TIMER_WHEEL_SIZE = 512;
+
+        /**
+         * Timer wheel owning deadlines of pending commands.
          */
-        private synchronized int getNextId() {
-            return commandId++;
+        private final TimerWheel timerWheel = new TimerWheel(TIMER_TICK,
+                TIMER_WHEEL_SIZE, "PacketDispatcher timer");
+
+        /**
+         * A default constructor.
+         */
+        CommandsSynchronyzer() {
+            pending = new PendingCommands(PendingCommands.DEFAULT_CAPACITY);
+            stopWriter = pending.new Slot(null, null);
         }
 
         /**
@@ -225,30 +453,287 @@ public class PacketDispatcher extends Thread {
         public void notifyThread(ReplyPacket replyPacket) throws IOException,
                 InterruptedException {
 
-            synchronized (commands) {
+            // obtain the current command id
+            int id = replyPacket.getId();
+
+            // obtain the current command slot by command id
+            PendingCommands.Slot slot = pending.get(id);
+            if (slot == null) {
+                // we received reply's id that does not correspond to any
+                // command, it may be late reply of purged command
+                logWriter
+                        .println(">>>>>>>>>> PacketDispatcher WARNING: Reply id is corresponded to no command. Id = "
+                                + id);
+                replyPacket.release();
+                return;
+            }
+
+            // record latency of the command
+            CommandPacket command = slot.command;
+            metrics.recordLatency(command.getCommandSet(), command.getCommand(),
+                    System.nanoTime() - slot.sentTime);
+
+            // remember ID sizes of this connection
+            if (command.getCommandSet() == JDWPCommands.VirtualMachineCommandSet.CommandSetID
+                    && command.getCommand() == JDWPCommands.VirtualMachineCommandSet.IDSizesCommand
+                    && replyPacket.getErrorCode() == JDWPConstants.Error.NONE) {
+                idSizes = IDSizes.fromReply(replyPacket);
+            }
+
+            // future does not remove its slot itself
+            if (slot.future != null) {
+                pending.remove(slot);
+                cancelDeadline(slot);
+            }
+
+            // hand the reply to the waiting thread or future
+            if (!slot.complete(replyPacket)) {
+                // nobody waits for this reply any more
+                pending.remove(slot);
+                cancelDeadline(slot);
+                replyPacket.release();
+            }
+        }
+
+        /**
+         * Gets timeout of commands sent without timeout.
+         * 
+         * @return timeout in milliseconds
+         */
+        private long getDefaultTimeout() {
+            return config != null ? config.getTimeout()
+                    : TestOptions.DEFAULT_TIMEOUT;
+        }
+
+        /**
+         * Sets deadline of the slot in timer wheel.
+         * 
+         * @param slot
+         *            slot of pending command
+         * @param delay
+         *            delay in milliseconds
+         * @param task
+         *            task run at the deadline
+         */
+        private void setDeadline(PendingCommands.Slot slot, long delay,
+                Runnable task) {
+            slot.timeout = timerWheel.schedule(task, delay);
+        }
+
+        /**
+         * Cancels deadline of the slot.
+         * 
+         * @param slot
+         *            slot of pending command
+         */
+        private void cancelDeadline(PendingCommands.Slot slot) {
+            TimerWheel.Timeout timeout = slot.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        /**
+         * Fails the command sent by sendCommand() if there is no reply yet,
+         * and purges it if neither its reply nor the failure is received
+         * during one more default timeout.
+         * 
+         * @param slot
+         *            slot of pending command
+         */
+        private void expireReply(final PendingCommands.Slot slot) {
+            if (slot.getReply() == null) {
+                metrics.timeouts.increment();
+            }
+            slot.fail(new TimeoutException(false));
+            setDeadline(slot, getDefaultTimeout(), () -> purge(slot));
+        }
+
+        /**
+         * Removes slot of the command nobody waits for from pending commands,
+         * releasing its reply if any.
+         * 
+         * @param slot
+         *            slot of pending command
+         */
+        private void purge(PendingCommands.Slot slot) {
+            if (pending.remove(slot)) {
+                ReplyPacket reply = slot.getReply();
+                if (reply != null) {
+                    reply.release();
+                }
+            }
+        }
+
+        /**
+         * Adds command to pending commands and queues it for the writer
+         * thread. If the command cannot be written, its slot is failed.
+         * 
+         * @param command
+         *            instance of CommandPacket
+         * @param future
+         *            future to complete with the reply, or null if a thread
+         *            will wait for the reply
+         * @return slot of the command
+         * @throws IOException
+         */
+        private PendingCommands.Slot send(CommandPacket command,
+                CompletableFuture<ReplyPacket> future) throws IOException {
+
+            PendingCommands.Slot slot = prepare(command, future);
+            enqueue(slot);
+
+            // if connection is already closed reraise the exception
+            if (connectionException != null) {
+                pending.remove(slot);
+                throw connectionException;
+            }
+            return slot;
+        }
+
+        /**
+         * Adds command to pending commands and makes its packet ready for the
+         * writer thread, without queuing it.
+         * 
+         * @param command
+         *            instance of CommandPacket
+         * @param future
+         *            future to complete with the reply, or null if a thread
+         *            will wait for the reply
+         * @return slot of the command
+         * @throws IOException
+         */
+        private PendingCommands.Slot prepare(CommandPacket command,
+                CompletableFuture<ReplyPacket> future) throws IOException {
 
-                // obtain the current command id
-                Integer Id = new Integer(replyPacket.getId());
+            // if connection is already closed reraise the exception
+            if (connectionException != null)
+                throw connectionException;
 
-                // obtain the current command packet by command id
-                CommandPacket command = commands.remove(Id);
-                if (command == null) {
-                    // we received reply's id that does not correspond to any
-                    // command
-                    throw new IOException(
-                            "Reply id is corresponded to no command. Id = "
-                                    + Id);
+            // obtain new command id
+            PendingCommands.Slot slot = pending.add(command, future);
+            int id = slot.id;
+            command.setId(id);
+
+            // below is trace for sent coomasnds
+            if (commandsNumberForTrace > 0) {
+                int begCommandId = begCommandIdForTrace > 1 ? begCommandIdForTrace
+                        : 1;
+                if (id >= begCommandId) {
+                    if ((id - begCommandId) < commandsNumberForTrace) {
+                        logWriter
+                                .println(">>>>>>>>>> PacketDispatcher: PERFORM command: ID = "
+                                        + id
+                                        + "; CommandSet = "
+                                        + command.getCommandSet()
+                                        + "; Command = "
+                                        + command.getCommand() + "...");
+                    }
                 }
+            }
+
+            // queue this package for the writer thread without copying its
+            // data, which values set to the command later do not change; only
+            // the header is copied, so the command may be sent again with
+            // another ID before it is written
+            ByteBuffer packet = command.asByteBuffer();
+            byte[] header = new byte[Packet.HEADER_SIZE];
+            packet.get(header);
+            slot.header = ByteBuffer.wrap(header);
+            slot.data = packet;
+            slot.sentTime = System.nanoTime();
+            return slot;
+        }
+
+        /**
+         * Queues prepared slot for the writer thread, together with the slots
+         * linked to it.
+         * 
+         * @param slot
+         *            first slot of the commands to write
+         */
+        private void enqueue(PendingCommands.Slot slot) {
+            if (writer == null) {
+                startWriter();
+            }
+            outbound.add(slot);
+        }
+
+        /**
+         * Starts the writer thread unless it is started.
+         */
+        private synchronized void startWriter() {
+            if (writer == null) {
+                Thread thread = ThreadSupport.newThread(
+                        "PacketDispatcher writer", true, new Runnable() {
+                            public void run() {
+                                writePackets();
+                            }
+                        });
+                thread.start();
+                writer = thread;
+            }
+        }
+
+        /**
+         * Writes queued command packets until the writer is stopped. All the
+         * packets queued at once are given to the connection together, which
+         * writes them with as few writes as it can.
+         */
+        private void writePackets() {
+            List<PendingCommands.Slot> batch = new ArrayList<PendingCommands.Slot>();
+            ByteBuffer[] buffers = new ByteBuffer[2 * MAX_BATCH_PACKETS];
+            try {
+                writing: while (true) {
+                    PendingCommands.Slot queued = outbound.take();
+                    while (true) {
+                        if (queued == stopWriter) {
+                            break writing;
+                        }
+                        // commands queued together are never split
+                        for (; queued != null; queued = queued.next) {
+                            batch.add(queued);
+                        }
+                        if (batch.size() >= MAX_BATCH_PACKETS
+                                || (queued = outbound.poll()) == null) {
+                            break;
+                        }
+                    }
+                    if (buffers.length < 2 * batch.size()) {
+                        buffers = new ByteBuffer[2 * batch.size()];
+                    }
 
-                synchronized (command) {
-                    // put the reply in replies queue
-                    synchronized (replies) {
-                        replies.put(new Integer(replyPacket.getId()),
-                                replyPacket);
+                    // write them to connection
+                    int count = 0;
+                    int length = 0;
+                    for (PendingCommands.Slot slot : batch) {
+                        buffers[count++] = slot.header;
+                        buffers[count++] = slot.data;
+                        length += Packet.HEADER_SIZE + slot.data.remaining();
                     }
-                    // notify waiting thread
-                    command.notifyAll();
+                    try {
+                        connection.writePackets(buffers, 0, count);
+                        metrics.packetsSent.add(batch.size());
+                        metrics.bytesSent.add(length);
+                    } catch (IOException e) {
+                        for (PendingCommands.Slot slot : batch) {
+                            if (slot.future != null) {
+                                pending.remove(slot);
+                                cancelDeadline(slot);
+                            }
+                            slot.fail(e);
+                        }
+                    }
+                    for (PendingCommands.Slot slot : batch) {
+                        slot.header = null;
+                        slot.data = null;
+                        slot.next = null;
+                    }
+                    Arrays.fill(buffers, 0, count, null);
+                    batch.clear();
                 }
+            } catch (InterruptedException e) {
+                // stop writing
             }
         }
 
@@ -267,63 +752,42 @@ public class PacketDispatcher extends Thread {
         public ReplyPacket waitForReply(CommandPacket command, long timeout)
                 throws InterruptedException, IOException {
 
-            synchronized (command) {
-
-                // if connection is already closed reraise the exception
-                if (connectionException != null)
-                    throw connectionException;
-
-                // obtain new command id
-                Integer Id = new Integer(getNextId());
-                command.setId(Id.intValue());
-
-                // add command into commands hashtable
-                synchronized (commands) {
-                    commands.put(Id, command);
-
-                    // below is trace for sent coomasnds
-                    if (commandsNumberForTrace > 0) {
-                        int begCommandId = begCommandIdForTrace > 1 ? begCommandIdForTrace
-                                : 1;
-                        if (Id.intValue() >= begCommandId) {
-                            if ((Id.intValue() - begCommandId) < commandsNumberForTrace) {
-                                logWriter
-                                        .println(">>>>>>>>>> PacketDispatcher: PERFORM command: ID = "
-                                                + Id.intValue()
-                                                + "; CommandSet = "
-                                                + command.getCommandSet()
-                                                + "; Command = "
-                                                + command.getCommand() + "...");
-                            }
-                        }
-                    }
-
-                    // write this package to connection
-                    connection.writePacket(command.toBytesArray());
+            final PendingCommands.Slot slot = send(command, null);
+
+            // wait for reply
+            ReplyPacket currentReply;
+            try {
+                currentReply = slot.awaitReply(timeout);
+            } catch (InterruptedException e) {
+                if (slot.abandon()) {
+                    // purge the slot if the late reply does not come
+                    setDeadline(slot, getDefaultTimeout(), () -> purge(slot));
+                    throw e;
                 }
+                currentReply = slot.getReply();
+            }
 
-                // if connection is already closed reraise the exception
-                if (connectionException != null)
-                    throw connectionException;
-
-                // wait for reply
-                command.wait(timeout);
+            // if command could not be sent reraise the exception
+            IOException failure = slot.getFailure();
+            if (failure != null) {
+                pending.remove(slot);
+                throw failure;
+            }
 
-                // receive the reply
-                ReplyPacket currentReply = null;
-                synchronized (replies) {
-                    currentReply = replies.remove(Id);
-                }
+            // if reply is ok, return it
+            if (currentReply != null || !slot.abandon()) {
+                pending.remove(slot);
+                return slot.getReply();
+            }
 
-                // if reply is ok, return it
-                if (currentReply != null) {
-                    return currentReply;
-                }
+            // purge the slot if the late reply does not come
+            setDeadline(slot, timeout > 0 ? timeout : getDefaultTimeout(),
+                    () -> purge(slot));
+            metrics.timeouts.increment();
 
-                // if connection is already closed reraise the exception
-                if (connectionException != null)
-                    throw connectionException;
-            }
+            // if connection is already closed reraise the exception
+            if (connectionException != null)
+                throw connectionException;
 
             // no event was occurred during timeout
             throw new TimeoutException(false);
@@ -331,7 +795,9 @@ public class PacketDispatcher extends Thread {
 
         /**
          * Sends command without waiting for the reply and returns id of the
-         * sent command.
+         * sent command. If there is no reply during default timeout, the
+         * command is failed with TimeoutException, and if nobody receives the
+         * reply during one more default timeout, it is purged.
          * 
          * @param command
          *            instance of CommandPacket
@@ -339,47 +805,128 @@ public class PacketDispatcher extends Thread {
          * @throws IOException
          */
         public int sendCommand(CommandPacket command) throws IOException {
+            final PendingCommands.Slot slot = send(command, null);
+            setDeadline(slot, getDefaultTimeout(), () -> expireReply(slot));
+            return slot.id;
+        }
 
-            // if connection is already closed reraise the exception
-            if (connectionException != null)
-                throw connectionException;
+        /**
+         * Sends command and returns future of its reply. The future is
+         * completed exceptionally with TimeoutException if there is no reply
+         * during timeout, or with the connection exception. Cancelling the
+         * future drops the reply.
+         * 
+         * @param command
+         *            instance of CommandPacket
+         * @param timeout
+         *            timeout in milliseconds, or 0 to wait without time limit
+         * @return future of the reply
+         */
+        public CompletableFuture<ReplyPacket> sendAsync(CommandPacket command,
+                long timeout) {
+
+            CompletableFuture<ReplyPacket> future = new CompletableFuture<ReplyPacket>();
+            final PendingCommands.Slot slot;
+            try {
+                slot = send(command, future);
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+                return future;
+            }
+            watch(slot, timeout);
+            return future;
+        }
 
-            // obtain new command id
-            Integer Id = new Integer(getNextId());
-            command.setId(Id.intValue());
-
-            // add command into commands hashtable
-            synchronized (commands) {
-                commands.put(Id, command);
-
-                // below is trace for sent coomasnds
-                if (commandsNumberForTrace > 0) {
-                    int begCommandId = begCommandIdForTrace > 1 ? begCommandIdForTrace
-                            : 1;
-                    if (Id.intValue() >= begCommandId) {
-                        if ((Id.intValue() - begCommandId) < commandsNumberForTrace) {
-                            logWriter
-                                    .println(">>>>>>>>>> PacketDispatcher: PERFORM command: ID = "
-                                            + Id.intValue()
-                                            + "; CommandSet = "
-                                            + command.getCommandSet()
-                                            + "; Command = "
-                                            + command.getCommand() + "...");
-                        }
+        /**
+         * Sends commands without waiting for replies and returns futures of
+         * their replies, as sendAsync() does. The commands are queued as one
+         * unit, so the writer thread writes all of them at once, whatever
+         * their number.
+         * 
+         * @param commands
+         *            command packets to send
+         * @param timeout
+         *            timeout of each reply in milliseconds, or 0 to wait
+         *            without time limit
+         * @return futures of the replies in the order of commands
+         */
+        public List<CompletableFuture<ReplyPacket>> sendAllAsync(
+                List<CommandPacket> commands, long timeout) {
+
+            List<CompletableFuture<ReplyPacket>> futures = new ArrayList<CompletableFuture<ReplyPacket>>(
+                    commands.size());
+            List<PendingCommands.Slot> slots = new ArrayList<PendingCommands.Slot>(
+                    commands.size());
+            PendingCommands.Slot last = null;
+            try {
+                for (CommandPacket command : commands) {
+                    CompletableFuture<ReplyPacket> future = new CompletableFuture<ReplyPacket>();
+                    futures.add(future);
+                    PendingCommands.Slot slot = prepare(command, future);
+                    slots.add(slot);
+                    if (last != null) {
+                        last.next = slot;
                     }
+                    last = slot;
+                }
+                if (last != null) {
+                    enqueue(slots.get(0));
                 }
 
-                // write this package to connection
-                connection.writePacket(command.toBytesArray());
+                // if connection is already closed reraise the exception
+                if (connectionException != null) {
+                    throw connectionException;
+                }
+            } catch (IOException e) {
+                // none of the commands is sent
+                for (PendingCommands.Slot slot : slots) {
+                    pending.remove(slot);
+                }
+                for (CompletableFuture<ReplyPacket> future : futures) {
+                    future.completeExceptionally(e);
+                }
+                while (futures.size() < commands.size()) {
+                    CompletableFuture<ReplyPacket> future = new CompletableFuture<ReplyPacket>();
+                    future.completeExceptionally(e);
+                    futures.add(future);
+                }
+                return futures;
             }
-
-            // if connection is already closed reraise the exception
-            if (connectionException != null) {
-                throw connectionException;
+            for (PendingCommands.Slot slot : slots) {
+                watch(slot, timeout);
             }
+            return futures;
+        }
 
-            return Id.intValue();
+        /**
+         * Sets deadline of the slot of a command sent by sendAsync(), and
+         * keeps the abandoned slot until its late reply comes or it is purged.
+         * 
+         * @param slot
+         *            slot of pending command
+         * @param timeout
+         *            timeout in milliseconds, or 0 to wait without time limit
+         */
+        private void watch(final PendingCommands.Slot slot, long timeout) {
+            // fail the future at the deadline, it purges the abandoned slot
+            // as well
+            if (timeout > 0) {
+                setDeadline(slot, timeout, () -> {
+                    if (pending.remove(slot)) {
+                        if (slot.getReply() == null) {
+                            metrics.timeouts.increment();
+                        }
+                        slot.fail(new TimeoutException(false));
+                    }
+                });
+            }
 
+            // keep the slot until the late reply comes or the slot is purged
+            slot.future.whenComplete((reply, e) -> {
+                if (e != null && slot.abandon() && timeout == 0) {
+                    setDeadline(slot, getDefaultTimeout(), () -> purge(slot));
+                }
+            });
         }
 
         /**
@@ -401,45 +948,54 @@ public class PacketDispatcher extends Thread {
             if (connectionException != null)
                 throw connectionException;
 
-            // receive the reply
-            long endTimeMlsecForWait = System.currentTimeMillis() + timeout;
-            synchronized (replies) {
-                while (true) {
-                    ReplyPacket currentReply = replies.remove(new Integer(commandId));
-                    // if reply is ok, return it
-                    if (currentReply != null) {
-                        return currentReply;
-                    }
-                    // if connection is already closed reraise the exception
-                    if (connectionException != null) {
-                        throw connectionException;
-                    }
-                    if (System.currentTimeMillis() >= endTimeMlsecForWait) {
-                        break;
-                    }
-                    replies.wait(100);
+            // obtain the command slot, only its waiter is woken by the reply
+            PendingCommands.Slot slot = pending.get(commandId);
+            if (slot != null && slot.future == null) {
+                // receive the reply, timeout 0 means not to wait
+                ReplyPacket currentReply = timeout > 0 ? slot
+                        .awaitReply(timeout) : slot.getReply();
+
+                // if reply is ok and not purged, return it
+                if (currentReply != null && pending.remove(slot)) {
+                    cancelDeadline(slot);
+                    return currentReply;
+                }
+
+                // if command could not be sent or timed out reraise the
+                // exception
+                IOException failure = slot.getFailure();
+                if (failure != null && pending.remove(slot)) {
+                    cancelDeadline(slot);
+                    throw failure;
                 }
             }
+
+            // if connection is already closed reraise the exception
+            if (connectionException != null)
+                throw connectionException;
+
             // no expected reply was found during timeout
             throw new TimeoutException(false);
         }
 
+        /**
+         * Gets number of commands waiting for replies.
+         * 
+         * @return number of pending commands
+         */
+        public int getPendingCount() {
+            return pending.size();
+        }
+
         /**
          * This method is called when connection is closed. It notifies all the
          * waiting threads.
          *
          */
         public void terminate() {
-
-            synchronized (commands) {
-                // enumerate all waiting commands
-                for (CommandPacket command : commands.values()) {
-                    synchronized (command) {
-                        // notify the waiting object
-                        command.notifyAll();
-                    }
-                }
-            }
+            pending.terminate(connectionException);
+            outbound.add(stopWriter);
+            timerWheel.stop();
         }
     }
 
@@ -455,7 +1011,38 @@ public class PacketDispatcher extends Thread {
 
     private LogWriter logWriter;
 
-    private IOException connectionException;
+    private volatile IOException connectionException;
+
+    /**
+     * Sizes of IDs of this connection, or null if not known yet.
+     */
+    private volatile IDSizes idSizes;
+
+    /**
+     * Pool of received packets, or null if they are not pooled.
+     */
+    private PacketPool packetPool;
+
+    /**
+     * Latency histograms and counters of this dispatcher.
+     */
+    private final DispatcherMetrics metrics = new DispatcherMetrics();
+
+    /**
+     * Subscriptions to received events.
+     */
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<EventSubscription>();
+
+    /**
+     * Thread running the dispatcher loop, which is this thread unless
+     * ThreadSupport provides virtual threads.
+     */
+    private volatile Thread runner;
+
+    /**
+     * Cursor over received events, used by the dispatcher thread.
+     */
+    private EventCursor subscriptionsCursor;
 
     /**
      * Creates new PacketDispatcher instance.
@@ -475,7 +1062,8 @@ public class PacketDispatcher extends Thread {
         this.logWriter = logWriter;
 
         commandsSynchronyzer = new CommandsSynchronyzer();
-        eventsSynchronyzer = new EventsSynchronyzer();
+        eventsSynchronyzer = new EventsSynchronyzer(
+                DEFAULT_EVENT_QUEUE_CAPACITY, EventOverflowPolicy.BLOCK);
 
         // make thread daemon
         setDaemon(true);
@@ -484,6 +1072,52 @@ public class PacketDispatcher extends Thread {
 //        start();
     }
 
+    /**
+     * Starts the dispatcher loop, in a virtual thread where ThreadSupport
+     * provides them.
+     */
+    @Override
+    public synchronized void start() {
+        if (runner != null) {
+            throw new IllegalThreadStateException("Dispatcher is started");
+        }
+        if (ThreadSupport.isVirtual()) {
+            runner = ThreadSupport.newThread(getName(), true, this);
+            runner.start();
+        } else {
+            runner = this;
+            super.start();
+        }
+    }
+
+    /**
+     * Checks whether start() was called.
+     * 
+     * @return true if the dispatcher is started
+     */
+    public boolean isStarted() {
+        return runner != null;
+    }
+
+    @Override
+    public void interrupt() {
+        Thread thread = runner;
+        if (thread != null && thread != this) {
+            thread.interrupt();
+        } else {
+            super.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isInterrupted() {
+        Thread thread = runner;
+        if (thread != null && thread != this) {
+            return thread.isInterrupted();
+        }
+        return super.isInterrupted();
+    }
+
     /**
      * Reads packets from connection and dispatches them between waiting
      * threads.
@@ -498,12 +1132,18 @@ public class PacketDispatcher extends Thread {
             while (!isInterrupted()) {
 
                 // read packet from transport
-                byte[] packet = connection.readPacket();
+                byte[] packet = packetPool != null ? connection
+                        .readPacket(packetPool) : connection.readPacket();
 
                 // break cycle if empty packet
                 if (packet == null || packet.length == 0)
                     break;
 
+                metrics.packetsReceived.increment();
+                metrics.bytesReceived
+                        .add(packet.length < Packet.HEADER_SIZE ? packet.length
+                                : Packet.getPacketLength(packet));
+
                 // check flags
                 if (packet.length < Packet.FLAGS_INDEX) {
                     logWriter
@@ -523,7 +1163,10 @@ public class PacketDispatcher extends Thread {
                 // check the reply flag
                 if (Packet.isReply(packet)) {
                     // new reply
-                    ReplyPacket replyPacket = new ReplyPacket(packet);
+                    ReplyPacket replyPacket = packetPool != null ? packetPool
+                            .leaseReply(packet) : ReplyPacket.wrap(packet, 0,
+                            packet.length);
+                    replyPacket.setIDSizes(idSizes);
 
                     // check for received reply packet length
                     int packetLength = replyPacket.getLength();
@@ -550,17 +1193,19 @@ public class PacketDispatcher extends Thread {
                     commandsSynchronyzer.notifyThread(replyPacket);
                 } else {
                     // new event
-                    EventPacket eventPacket = new EventPacket(packet);
+                    EventPacket eventPacket = packetPool != null ? packetPool
+                            .leaseEvent(packet) : EventPacket.wrap(packet, 0,
+                            packet.length);
+                    eventPacket.setIDSizes(idSizes);
                     // below is to check received events for correctness
 
                     // below is trace for received events
-                    ParsedEvent[] parsedEvents = ParsedEvent
-                            .parseEventPacket(eventPacket);
                     if ((eventRequestIDForTrace >= 0)
                             || (eventKindForTrace > 0)) {
-                        for (int i = 0; i < parsedEvents.length; i++) {
+                        EventCursor events = new EventCursor(eventPacket);
+                        while (events.next()) {
                             boolean trace = false;
-                            int eventRequestID = parsedEvents[i].getRequestID();
+                            int eventRequestID = events.getRequestID();
                             if (eventRequestIDForTrace == 0) {
                                 trace = true;
                             } else {
@@ -568,14 +1213,14 @@ public class PacketDispatcher extends Thread {
                                     trace = true;
                                 }
                             }
-                            byte eventKind = parsedEvents[i].getEventKind();
+                            byte eventKind = events.getEventKind();
                             if (eventKind == eventKindForTrace) {
                                 trace = true;
                             }
                             if (trace) {
                                 logWriter
                                         .println(">>>>>>>>>> PacketDispatcher: Received_EVENT["
-                                                + i
+                                                + events.getEventIndex()
                                                 + "]: eventRequestID= "
                                                 + eventRequestID
                                                 + "; eventKind =  "
@@ -587,7 +1232,14 @@ public class PacketDispatcher extends Thread {
                             }
                         }
                     }
-                    eventsSynchronyzer.notifyThread(eventPacket);
+
+                    // hand events to subscriptions, queue the rest
+                    if (!subscriptions.isEmpty()
+                            && deliverToSubscriptions(eventPacket)) {
+                        eventPacket.release();
+                    } else {
+                        eventsSynchronyzer.notifyThread(eventPacket);
+                    }
                 }
             }
 
@@ -613,6 +1265,210 @@ public class PacketDispatcher extends Thread {
         commandsSynchronyzer.terminate();
     }
 
+    /**
+     * Hands events of the packet to matching subscriptions.
+     * 
+     * @param eventPacket
+     *            received event packet
+     * @return true if every event of the packet was handed to a subscription
+     */
+    private boolean deliverToSubscriptions(EventPacket eventPacket)
+            throws InterruptedException {
+        if (subscriptionsCursor == null) {
+            subscriptionsCursor = new EventCursor(eventPacket);
+        } else {
+            subscriptionsCursor.reset(eventPacket);
+        }
+        EventCursor events = subscriptionsCursor;
+        boolean allDelivered = events.getEventsCount() > 0;
+        while (events.next()) {
+            byte eventKind = events.getEventKind();
+            int eventRequestID = events.getRequestID();
+            ParsedEvent event = null;
+            for (EventSubscription subscription : subscriptions) {
+                if (subscription.matches(eventKind, eventRequestID)) {
+                    if (event == null) {
+                        event = events.parse();
+                    }
+                    subscription.deliver(event);
+                }
+            }
+            if (event == null) {
+                allDelivered = false;
+            }
+        }
+        return allDelivered;
+    }
+
+    /**
+     * Subscribes to received events of given request and kind. Matching
+     * events are handed to the listener by the executor, one at a time and in
+     * the order they were received; events of other subscriptions are not
+     * delayed by a slow listener. Events of a composite packet are handed to
+     * all the matching subscriptions, and the packet is queued for
+     * receiveEvent() only if some of its events match no subscription.
+     * Events waiting for the listener are queued in a queue of the capacity
+     * and the overflow policy set by setEventQueue().
+     * 
+     * @param requestID
+     *            RequestID of events, or ANY_REQUEST_ID
+     * @param eventKind
+     *            kind of events, or ANY_EVENT_KIND
+     * @param executor
+     *            executor to run the listener
+     * @param listener
+     *            listener of events
+     * @return subscription, which may be cancelled
+     */
+    public EventSubscription subscribe(int requestID, byte eventKind,
+            Executor executor, EventSubscription.Listener listener) {
+        EventSubscription subscription = new EventSubscription(requestID,
+                eventKind, executor, listener, subscriptions,
+                eventsSynchronyzer.newSubscriptionRing(), this, logWriter);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Puts event in the queue of a subscription, applying the overflow policy
+     * of the event queue.
+     */
+    void enqueueSubscriptionEvent(EventRing<ParsedEvent> ring,
+            ParsedEvent event) throws InterruptedException {
+        eventsSynchronyzer.enqueue(ring, event, false);
+    }
+
+    /**
+     * Releases held events if events taken from the queue of a subscription
+     * drained all the queues enough.
+     */
+    void subscriptionEventsTaken() {
+        eventsSynchronyzer.eventsTaken();
+    }
+
+    /**
+     * Turns on pooling of received packets. Received ReplyPacket and
+     * EventPacket objects and their bytes are then leased from the pool, and
+     * must be returned with Packet.release() when they are processed. Must be
+     * called before the dispatcher thread is started.
+     * 
+     * @param packetPool
+     *            pool to lease received packets from, or null to turn pooling
+     *            off
+     */
+    public void setPacketPool(PacketPool packetPool) {
+        if (isStarted()) {
+            throw new IllegalStateException(
+                    "Packet pool must be set before the dispatcher is started");
+        }
+        this.packetPool = packetPool;
+    }
+
+    /**
+     * Sets capacity of the queue of received events and the policy applied
+     * when it is full. By default the queue holds
+     * DEFAULT_EVENT_QUEUE_CAPACITY events and BLOCK policy is used. Must be
+     * called before the dispatcher thread is started.
+     * 
+     * @param capacity
+     *            maximum number of events in queue, rounded up to power of two
+     * @param overflowPolicy
+     *            policy applied when the queue is full
+     */
+    public void setEventQueue(int capacity, EventOverflowPolicy overflowPolicy) {
+        if (isStarted()) {
+            throw new IllegalStateException(
+                    "Event queue must be set before the dispatcher is started");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Wrong event queue capacity: "
+                    + capacity);
+        }
+        eventsSynchronyzer = new EventsSynchronyzer(capacity, overflowPolicy);
+    }
+
+    /**
+     * Gets number of received events dropped because the event queue or the
+     * queue of a subscription was full with DROP_OLDEST policy.
+     * 
+     * @return number of dropped events
+     */
+    public long getDroppedEventsCount() {
+        return eventsSynchronyzer.getDroppedCount();
+    }
+
+    /**
+     * Takes snapshot of statistics of this dispatcher: latency histograms of
+     * commands keyed by command set and command, traffic counters, number of
+     * commands in flight and number of timeouts. Statistics are recorded
+     * without locks and allocations, so they are always on.
+     * 
+     * @return snapshot of statistics
+     */
+    public DispatcherStatistics getStatistics() {
+        return metrics.snapshot(commandsSynchronyzer.getPendingCount());
+    }
+
+    /**
+     * Gets sizes of IDs of this connection. They are taken from the reply to
+     * VirtualMachine.IDSizes command sent through this dispatcher, or set by
+     * setIDSizes(). Received packets read their IDs with these sizes, and
+     * command packets created by createCommand() write their IDs with them.
+     * 
+     * @return sizes of IDs, or sizes set in TypesLengths if not known yet
+     */
+    public IDSizes getIDSizes() {
+        IDSizes sizes = idSizes;
+        return sizes != null ? sizes : IDSizes.getDefault();
+    }
+
+    /**
+     * Sets sizes of IDs of this connection.
+     * 
+     * @param idSizes
+     *            sizes of IDs
+     */
+    public void setIDSizes(IDSizes idSizes) {
+        this.idSizes = idSizes;
+    }
+
+    /**
+     * Creates an empty CommandPacket for specific JDWP command, which writes
+     * its IDs with the sizes of this connection, see getIDSizes().
+     * 
+     * @param commandSet
+     *            number of the command set.
+     * @param command
+     *            number of the command.
+     * @return new CommandPacket.
+     */
+    public CommandPacket createCommand(byte commandSet, byte command) {
+        CommandPacket packet = new CommandPacket(commandSet, command);
+        packet.setIDSizes(getIDSizes());
+        return packet;
+    }
+
+    /**
+     * Creates an empty CommandPacket for specific JDWP command, which writes
+     * its IDs with the sizes of this connection, reserving space for
+     * dataCapacity bytes of data.
+     * 
+     * @param commandSet
+     *            number of the command set.
+     * @param command
+     *            number of the command.
+     * @param dataCapacity
+     *            expected size of the command data in bytes.
+     * @return new CommandPacket.
+     */
+    public CommandPacket createCommand(byte commandSet, byte command,
+            int dataCapacity) {
+        CommandPacket packet = new CommandPacket(commandSet, command,
+                dataCapacity);
+        packet.setIDSizes(getIDSizes());
+        return packet;
+    }
+
     /**
      * Receives event from event queue if there are any events or waits during
      * timeout for any event occurrence. This method should not be used
@@ -635,6 +1491,32 @@ public class PacketDispatcher extends Thread {
         return eventsSynchronyzer.waitForNextEvent(timeout);
     }
 
+    /**
+     * Takes received events from event queue, at most maxEvents of them,
+     * or waits during timeout for any event occurrence. All the events already
+     * in queue are taken at once, so bursts of events may be processed in
+     * batches. This method should not be used simultaneously from different
+     * threads. If there were no event during the timeout, TimeoutException is
+     * thrown.
+     * 
+     * @param maxEvents
+     *            maximum number of events to receive
+     * @param timeout
+     *            timeout in milliseconds
+     * @return list of received event packets, not empty
+     * @throws IOException
+     *             is any connection error occurred
+     * @throws InterruptedException
+     *             if reading packet was interrupted
+     * @throws TimeoutException
+     *             if timeout exceeded
+     */
+    public List<EventPacket> receiveEvents(int maxEvents, long timeout)
+            throws IOException, InterruptedException, TimeoutException {
+
+        return eventsSynchronyzer.waitForEvents(maxEvents, timeout);
+    }
+
     /**
      * Sends JDWP command packet and waits for reply packet during default
      * timeout. If there were no reply packet during the timeout,
@@ -677,6 +1559,147 @@ public class PacketDispatcher extends Thread {
         return commandsSynchronyzer.waitForReply(command, timeout);
     }
 
+    /**
+     * Sends JDWP command packet and returns future of its reply, completed
+     * exceptionally with TimeoutException if there is no reply during default
+     * timeout. Many commands may be pending on the connection at once, without
+     * a thread waiting for each of them.
+     * 
+     * @param command
+     *            command packet to send
+     * @return future of the reply packet
+     * @see #performCommandAsync(CommandPacket, long)
+     */
+    public CompletableFuture<ReplyPacket> performCommandAsync(
+            CommandPacket command) {
+
+        return performCommandAsync(command, config.getTimeout());
+    }
+
+    /**
+     * Sends JDWP command packet and returns future of its reply. The future is
+     * completed exceptionally with TimeoutException if there is no reply during
+     * timeout, or with IOException if any connection error occurred.
+     * Cancelling the future drops the reply when it comes.
+     * <p>
+     * The future is completed by the dispatcher thread, so its dependent
+     * actions that may block or take long should be run with the *Async
+     * methods of CompletableFuture.
+     * 
+     * @param command
+     *            command packet to send
+     * @param timeout
+     *            timeout in milliseconds, or 0 to wait without time limit
+     * @return future of the reply packet
+     */
+    public CompletableFuture<ReplyPacket> performCommandAsync(
+            CommandPacket command, long timeout) {
+
+        return commandsSynchronyzer.sendAsync(command, timeout);
+    }
+
+    /**
+     * Sends JDWP command packets one after another, without waiting for
+     * replies in between, and returns futures of their replies in the order
+     * of commands. The packets are queued together as one unit, so the writer
+     * thread writes all of them at once and they take one round trip. The
+     * header of each command is copied as it is queued, so the same command
+     * packet may occur more than once, and is sent each time with its own
+     * ID.
+     * 
+     * @param commands
+     *            command packets to send
+     * @param timeout
+     *            timeout of each reply in milliseconds, or 0 to wait without
+     *            time limit
+     * @return futures of the reply packets
+     * @see #performCommandAsync(CommandPacket, long)
+     */
+    public List<CompletableFuture<ReplyPacket>> performCommandsAsync(
+            List<CommandPacket> commands, long timeout) {
+
+        return commandsSynchronyzer.sendAllAsync(commands, timeout);
+    }
+
+    /**
+     * Sends JDWP command packets one after another and waits for all their
+     * replies during default timeout.
+     * 
+     * @param commands
+     *            command packets to send
+     * @return received reply packets in the order of commands
+     * @throws InterruptedException
+     *             if reply waiting was interrupted
+     * @throws IOException
+     *             if any connection error occurred
+     * @throws TimeoutException
+     *             if timeout exceeded for any reply
+     * @see #performCommands(List, long)
+     */
+    public List<ReplyPacket> performCommands(List<CommandPacket> commands)
+            throws InterruptedException, IOException, TimeoutException {
+
+        return performCommands(commands, config.getTimeout());
+    }
+
+    /**
+     * Sends JDWP command packets one after another, without waiting for
+     * replies in between, and waits for all their replies. So the whole batch
+     * takes one round trip instead of one per command. If any command fails,
+     * replies of the others are dropped and its exception is thrown.
+     * 
+     * @param commands
+     *            command packets to send
+     * @param timeout
+     *            timeout of each reply in milliseconds, or 0 to wait without
+     *            time limit
+     * @return received reply packets in the order of commands
+     * @throws InterruptedException
+     *             if reply waiting was interrupted
+     * @throws IOException
+     *             if any connection error occurred
+     * @throws TimeoutException
+     *             if timeout exceeded for any reply
+     */
+    public List<ReplyPacket> performCommands(List<CommandPacket> commands,
+            long timeout) throws InterruptedException, IOException,
+            TimeoutException {
+
+        List<CompletableFuture<ReplyPacket>> futures = performCommandsAsync(
+                commands, timeout);
+        List<ReplyPacket> replies = new ArrayList<ReplyPacket>(futures.size());
+        try {
+            for (CompletableFuture<ReplyPacket> future : futures) {
+                replies.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new TestErrorException(cause);
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            throw e;
+        }
+        return replies;
+    }
+
+    /**
+     * Cancels futures of replies, releasing the replies already received.
+     */
+    private static void cancelAll(List<CompletableFuture<ReplyPacket>> futures) {
+        for (CompletableFuture<ReplyPacket> future : futures) {
+            if (!future.cancel(false) && !future.isCompletedExceptionally()) {
+                future.join().release();
+            }
+        }
+    }
+
     /**
      * Sends CommandPacket to debuggee VM without waiting for the reply. This
      * method is intended for special cases when there is need to divide
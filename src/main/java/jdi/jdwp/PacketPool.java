@@ -0,0 +1,286 @@
+package jdi.jdwp;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+/**
+ * This class is a bounded pool of received packets and their bytes, used by
+ * PacketDispatcher in pooled mode. Leased packets must be returned with
+ * Packet.release(). If the pool is empty new objects are created, if it is
+ * full returned objects are left to the garbage collector, so the pool never
+ * holds more than capacity objects of each kind.
+ * 
+ * Arrays of bytes are kept in power-of-two size classes, from
+ * MIN_POOLED_BUFFER_SIZE to MAX_POOLED_BUFFER_SIZE, each holding up to
+ * capacity arrays. An array is leased from the smallest class which fits the
+ * packet and has arrays, and new arrays are created with the size of their
+ * class, so they can serve any packet of that class later.
+ * 
+ * With leak detection on (by default when assertions are enabled, as in debug
+ * builds), packets which were garbage collected without being released are
+ * reported to the log with the stack trace of the place they were leased.
+ */
+public class PacketPool {
+
+    /**
+     * Arrays of bytes shorter than this are not kept in the pool.
+     */
+    public static final int MIN_POOLED_BUFFER_SIZE = 64;
+
+    /**
+     * Arrays of bytes longer than this are not kept in the pool.
+     */
+    public static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MIN_BUFFER_SHIFT = Integer
+            .numberOfTrailingZeros(MIN_POOLED_BUFFER_SIZE);
+
+    private static final int SIZE_CLASSES = Integer
+            .numberOfTrailingZeros(MAX_POOLED_BUFFER_SIZE)
+            - MIN_BUFFER_SHIFT + 1;
+
+    /**
+     * Reference to leased packet keeping the place it was leased.
+     */
+    private static final class LeakReference extends WeakReference<Packet> {
+        private final Throwable leasedAt;
+
+        LeakReference(Packet packet, ReferenceQueue<Packet> queue) {
+            super(packet, queue);
+            leasedAt = new Throwable("Packet leased here");
+        }
+    }
+
+    private final ReplyPacket[] replies;
+
+    private int repliesLength;
+
+    private final EventPacket[] events;
+
+    private int eventsLength;
+
+    private final byte[][][] buffers;
+
+    private final int[] buffersLength;
+
+    private final Object lock = new Object();
+
+    private final LogWriter logWriter;
+
+    private final boolean detectLeaks;
+
+    private final ReferenceQueue<Packet> leakQueue = new ReferenceQueue<Packet>();
+
+    private final Set<LeakReference> leakReferences = new HashSet<LeakReference>();
+
+    private int leakedCount;
+
+    /**
+     * Creates pool with leak detection on if assertions are enabled.
+     * 
+     * @param capacity
+     *            maximum number of pooled objects of each kind
+     * @param logWriter
+     *            log to report leaks to
+     */
+    public PacketPool(int capacity, LogWriter logWriter) {
+        this(capacity, logWriter, areAssertionsEnabled());
+    }
+
+    /**
+     * Creates pool.
+     * 
+     * @param capacity
+     *            maximum number of pooled objects of each kind
+     * @param logWriter
+     *            log to report leaks to
+     * @param detectLeaks
+     *            whether to track packets which were never released
+     */
+    public PacketPool(int capacity, LogWriter logWriter, boolean detectLeaks) {
+        replies = new ReplyPacket[capacity];
+        events = new EventPacket[capacity];
+        buffers = new byte[SIZE_CLASSES][capacity][];
+        buffersLength = new int[SIZE_CLASSES];
+        this.logWriter = logWriter;
+        this.detectLeaks = detectLeaks;
+    }
+
+    private static boolean areAssertionsEnabled() {
+        boolean enabled = false;
+        assert enabled = true;
+        return enabled;
+    }
+
+    /**
+     * Leases array of bytes to read packet into, taken from the smallest size
+     * class which fits the packet and has arrays. If there are none, a new
+     * array of the size of the class is created.
+     * 
+     * @param size
+     *            length of the packet
+     * @return array at least size bytes long
+     */
+    public byte[] leaseBuffer(int size) {
+        if (size > MAX_POOLED_BUFFER_SIZE) {
+            return new byte[size];
+        }
+        int sizeClass = size <= MIN_POOLED_BUFFER_SIZE ? 0 : 32
+                - Integer.numberOfLeadingZeros(size - 1) - MIN_BUFFER_SHIFT;
+        synchronized (lock) {
+            for (int i = sizeClass; i < SIZE_CLASSES; i++) {
+                if (buffersLength[i] > 0) {
+                    byte[][] bucket = buffers[i];
+                    byte[] buffer = bucket[--buffersLength[i]];
+                    bucket[buffersLength[i]] = null;
+                    return buffer;
+                }
+            }
+        }
+        return new byte[MIN_POOLED_BUFFER_SIZE << sizeClass];
+    }
+
+    /**
+     * Returns array of bytes to the size class of the largest power of two
+     * not above its length.
+     * 
+     * @param buffer
+     *            array of bytes
+     */
+    public void returnBuffer(byte[] buffer) {
+        if (buffer.length < MIN_POOLED_BUFFER_SIZE
+                || buffer.length > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        int sizeClass = 31 - Integer.numberOfLeadingZeros(buffer.length)
+                - MIN_BUFFER_SHIFT;
+        synchronized (lock) {
+            if (buffersLength[sizeClass] < buffers[sizeClass].length) {
+                buffers[sizeClass][buffersLength[sizeClass]++] = buffer;
+            }
+        }
+    }
+
+    /**
+     * Leases ReplyPacket reading given bytes.
+     * 
+     * @param p
+     *            array of bytes holding the packet, may be longer than it
+     * @return leased packet
+     */
+    public ReplyPacket leaseReply(byte[] p) {
+        ReplyPacket packet = null;
+        synchronized (lock) {
+            if (repliesLength > 0) {
+                packet = replies[--repliesLength];
+                replies[repliesLength] = null;
+            }
+        }
+        if (packet == null) {
+            packet = new ReplyPacket();
+        }
+        lease(packet, p);
+        return packet;
+    }
+
+    /**
+     * Leases EventPacket reading given bytes.
+     * 
+     * @param p
+     *            array of bytes holding the packet, may be longer than it
+     * @return leased packet
+     */
+    public EventPacket leaseEvent(byte[] p) {
+        EventPacket packet = null;
+        synchronized (lock) {
+            if (eventsLength > 0) {
+                packet = events[--eventsLength];
+                events[eventsLength] = null;
+            }
+        }
+        if (packet == null) {
+            packet = new EventPacket();
+        }
+        lease(packet, p);
+        return packet;
+    }
+
+    private void lease(Packet packet, byte[] p) {
+        packet.reuse(p, Packet.getPacketLength(p));
+        packet.pool = this;
+        packet.leased = true;
+        if (detectLeaks) {
+            reportLeaks();
+            LeakReference ref = new LeakReference(packet, leakQueue);
+            synchronized (lock) {
+                leakReferences.add(ref);
+            }
+            packet.leak_ref = ref;
+        }
+    }
+
+    /**
+     * Takes back released packet and its bytes.
+     */
+    void recycle(Packet packet) {
+        synchronized (lock) {
+            if (!packet.leased) {
+                throw new TestErrorException("Packet is released twice");
+            }
+            packet.leased = false;
+            LeakReference ref = (LeakReference) packet.leak_ref;
+            if (ref != null) {
+                packet.leak_ref = null;
+                leakReferences.remove(ref);
+                ref.clear();
+            }
+        }
+        byte[] buffer = packet.detachBuffer();
+        returnBuffer(buffer);
+        synchronized (lock) {
+            if (packet instanceof ReplyPacket) {
+                if (repliesLength < replies.length) {
+                    replies[repliesLength++] = (ReplyPacket) packet;
+                }
+            } else if (packet instanceof EventPacket) {
+                if (eventsLength < events.length) {
+                    events[eventsLength++] = (EventPacket) packet;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports packets which were garbage collected without being released.
+     */
+    private void reportLeaks() {
+        LeakReference ref;
+        while ((ref = (LeakReference) leakQueue.poll()) != null) {
+            synchronized (lock) {
+                if (!leakReferences.remove(ref)) {
+                    continue;
+                }
+                leakedCount++;
+            }
+            logWriter.printError(
+                    ">>>>>>>>>> PacketPool: LEAK: packet was not released",
+                    ref.leasedAt);
+        }
+    }
+
+    /**
+     * Gets number of leaked packets detected so far. Always 0 if leak
+     * detection is off.
+     * 
+     * @return number of packets garbage collected without being released
+     */
+    public int getLeakedCount() {
+        synchronized (lock) {
+            return leakedCount;
+        }
+    }
+}
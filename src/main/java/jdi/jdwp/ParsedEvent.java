@@ -435,7 +435,7 @@ public class ParsedEvent {
             super(suspendPolicy, packet, JDWPConstants.EventKind.CLASS_PREPARE);
             refTypeTag = packet.getNextValueAsByte();
             typeID = packet.getNextValueAsReferenceTypeID();
-            signature = packet.getNextValueAsString();
+            signature = packet.getNextValueAsString(StringCache.SIGNATURES);
             status = packet.getNextValueAsInt();
         }
 
@@ -483,7 +483,7 @@ public class ParsedEvent {
          */
         private Event_CLASS_UNLOAD(byte suspendPolicy, Packet packet) {
             super(suspendPolicy, packet, JDWPConstants.EventKind.CLASS_UNLOAD);
-            signature = packet.getNextValueAsString();
+            signature = packet.getNextValueAsString(StringCache.SIGNATURES);
         }
 
         /**
@@ -631,7 +631,10 @@ public class ParsedEvent {
     }
 
     /**
-     * Returns array of ParsedEvent extracted from given EventPacket.
+     * Returns array of ParsedEvent extracted from given EventPacket. The
+     * bytes of the packet are not copied and its reading position is not
+     * changed. To read only some of the events or some of their fields use
+     * EventCursor instead.
      * 
      * @param packet
      *            EventPacket to parse events
@@ -639,100 +642,98 @@ public class ParsedEvent {
      */
     public static ParsedEvent[] parseEventPacket(Packet packet) {
 
-        Packet packetCopy = new Packet(packet.toBytesArray());
+        Packet packetView = packet.duplicate();
 
         // Suspend Policy field
-        byte suspendPolicy = packetCopy.getNextValueAsByte();
+        byte suspendPolicy = packetView.getNextValueAsByte();
 
         // Number of events
-        int eventCount = packetCopy.getNextValueAsInt();
+        int eventCount = packetView.getNextValueAsInt();
 
         ParsedEvent[] events = new ParsedEvent[eventCount];
 
         // For all events in packet
         for (int i = 0; i < eventCount; i++) {
-            byte eventKind = packetCopy.getNextValueAsByte();
-            switch (eventKind) {
-            case JDWPConstants.EventKind.VM_START: {
-                events[i] = new Event_VM_START(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.SINGLE_STEP: {
-                events[i] = new Event_SINGLE_STEP(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.BREAKPOINT: {
-                events[i] = new Event_BREAKPOINT(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.METHOD_ENTRY: {
-                events[i] = new Event_METHOD_ENTRY(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.METHOD_EXIT: {
-                events[i] = new Event_METHOD_EXIT(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.METHOD_EXIT_WITH_RETURN_VALUE: {
-                events[i] = new Event_METHOD_EXIT_WITH_RETURN_VALUE(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.MONITOR_CONTENDED_ENTER: {
-                events[i] = new Event_MONITOR_CONTENDED_ENTER(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.MONITOR_CONTENDED_ENTERED: {
-                events[i] = new Event_MONITOR_CONTENDED_ENTERED(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.MONITOR_WAIT: {
-                events[i] = new Event_MONITOR_WAIT(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.MONITOR_WAITED: {
-                events[i] = new Event_MONITOR_WAITED(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.EXCEPTION: {
-                events[i] = new Event_EXCEPTION(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.THREAD_START: {
-                events[i] = new Event_THREAD_START(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.THREAD_DEATH: {
-                events[i] = new Event_THREAD_DEATH(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.CLASS_PREPARE: {
-                events[i] = new Event_CLASS_PREPARE(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.CLASS_UNLOAD: {
-                events[i] = new Event_CLASS_UNLOAD(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.FIELD_ACCESS: {
-                events[i] = new Event_FIELD_ACCESS(suspendPolicy, packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.FIELD_MODIFICATION: {
-                events[i] = new Event_FIELD_MODIFICATION(suspendPolicy,
-                        packetCopy);
-                break;
-            }
-            case JDWPConstants.EventKind.VM_DEATH: {
-                events[i] = new Event_VM_DEATH(suspendPolicy, packetCopy);
-                break;
-            }
-            default: {
-                throw new TestErrorException("Unexpected kind of event: "
-                        + eventKind);
-            }
-            }
+            byte eventKind = packetView.getNextValueAsByte();
+            events[i] = parseEvent(suspendPolicy, eventKind, packetView);
         }
         return events;
     }
 
+    /**
+     * Parses event of given kind starting at its RequestID.
+     * 
+     * @param suspendPolicy
+     *            suspend policy of the event set
+     * @param eventKind
+     *            kind of the event
+     * @param packet
+     *            packet to read the event from
+     * @return new ParsedEvent
+     */
+    static ParsedEvent parseEvent(byte suspendPolicy, byte eventKind,
+            Packet packet) {
+        switch (eventKind) {
+        case JDWPConstants.EventKind.VM_START: {
+            return new Event_VM_START(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.SINGLE_STEP: {
+            return new Event_SINGLE_STEP(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.BREAKPOINT: {
+            return new Event_BREAKPOINT(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.METHOD_ENTRY: {
+            return new Event_METHOD_ENTRY(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.METHOD_EXIT: {
+            return new Event_METHOD_EXIT(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.METHOD_EXIT_WITH_RETURN_VALUE: {
+            return new Event_METHOD_EXIT_WITH_RETURN_VALUE(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.MONITOR_CONTENDED_ENTER: {
+            return new Event_MONITOR_CONTENDED_ENTER(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.MONITOR_CONTENDED_ENTERED: {
+            return new Event_MONITOR_CONTENDED_ENTERED(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.MONITOR_WAIT: {
+            return new Event_MONITOR_WAIT(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.MONITOR_WAITED: {
+            return new Event_MONITOR_WAITED(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.EXCEPTION: {
+            return new Event_EXCEPTION(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.THREAD_START: {
+            return new Event_THREAD_START(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.THREAD_DEATH: {
+            return new Event_THREAD_DEATH(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.CLASS_PREPARE: {
+            return new Event_CLASS_PREPARE(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.CLASS_UNLOAD: {
+            return new Event_CLASS_UNLOAD(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.FIELD_ACCESS: {
+            return new Event_FIELD_ACCESS(suspendPolicy, packet);
+        }
+        case JDWPConstants.EventKind.FIELD_MODIFICATION: {
+            return new Event_FIELD_MODIFICATION(suspendPolicy,
+                    packet);
+        }
+        case JDWPConstants.EventKind.VM_DEATH: {
+            return new Event_VM_DEATH(suspendPolicy, packet);
+        }
+        default: {
+            throw new TestErrorException("Unexpected kind of event: "
+                    + eventKind);
+        }
+        }
+    }
+
 }
@@ -0,0 +1,310 @@
+package jdi.jdwp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is a table of commands waiting for replies, indexed by command
+ * ID without boxing. Commands are added and removed by compare-and-set of the
+ * table cells, without locks. Each pending command has a completion slot, to
+ * which the reply is handed directly, so only the thread waiting for that
+ * command is woken.
+ *
+ * A slot locks its own monitor only for a few field writes, to settle a reply
+ * coming while the waiting thread gives up on it. Waiting threads are parked
+ * with LockSupport outside of the monitor rather than with Object.wait(), so
+ * a virtual thread waiting for a reply does not pin its carrier thread.
+ *
+ * IDs are given out so that each pending command has a cell of its own: an ID
+ * whose cell is still taken by an older command is skipped. JDWP only needs
+ * IDs to be unique among pending commands.
+ */
+class PendingCommands {
+
+    /**
+     * Default maximum number of pending commands.
+     */
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Completion slot of one pending command.
+     */
+    class Slot {
+
+        final CommandPacket command;
+
+        /**
+         * Future to complete with the reply, or null if a thread waits for it.
+         */
+        final CompletableFuture<ReplyPacket> future;
+
+        /**
+         * ID of the command, set before the slot is published in the table.
+         */
+        int id;
+
+        /**
+         * Time the command was queued at, as given by System.nanoTime().
+         */
+        long sentTime;
+
+        /**
+         * Copy of the header of the command waiting to be written, with the ID
+         * of this slot, or null.
+         */
+        ByteBuffer header;
+
+        /**
+         * Data of the command waiting to be written, shared with the command,
+         * or null.
+         */
+        ByteBuffer data;
+
+        /**
+         * Next command queued together with this one, to be written in the
+         * same batch, or null.
+         */
+        Slot next;
+
+        /**
+         * Deadline of the slot in timer wheel, or null.
+         */
+        volatile TimerWheel.Timeout timeout;
+
+        private volatile ReplyPacket reply;
+
+        /**
+         * Exception the command could not be sent with, or null.
+         */
+        private volatile IOException failure;
+
+        /**
+         * Thread waiting for the reply, or null.
+         */
+        private volatile Thread waiter;
+
+        /**
+         * Whether nobody waits for the reply any more.
+         */
+        private boolean abandoned;
+
+        Slot(CommandPacket command, CompletableFuture<ReplyPacket> future) {
+            this.command = command;
+            this.future = future;
+        }
+
+        /**
+         * Hands the reply to the slot and wakes up the thread waiting for it,
+         * or completes the future of the slot. Dependent actions of the future
+         * are run by the calling thread.
+         *
+         * @return false if the slot was abandoned
+         */
+        boolean complete(ReplyPacket reply) {
+            synchronized (this) {
+                if (abandoned) {
+                    return false;
+                }
+                this.reply = reply;
+            }
+            LockSupport.unpark(waiter);
+            return future == null || future.complete(reply);
+        }
+
+        /**
+         * Fails the slot when its command could not be sent, and wakes up the
+         * thread waiting for it.
+         *
+         * @param e
+         *            exception the command could not be sent with
+         */
+        void fail(IOException e) {
+            synchronized (this) {
+                if (abandoned || reply != null) {
+                    return;
+                }
+                failure = e;
+            }
+            LockSupport.unpark(waiter);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Gets exception the command could not be sent with.
+         *
+         * @return the exception or null
+         */
+        IOException getFailure() {
+            return failure;
+        }
+
+        /**
+         * Gets the reply if it was received.
+         *
+         * @return the reply or null
+         */
+        ReplyPacket getReply() {
+            return reply;
+        }
+
+        /**
+         * Waits for the reply during timeout, or until the slot is failed or
+         * the table is terminated. Timeout 0 means to wait without time
+         * limit, as in Object.wait(). Only one thread may wait at a time.
+         *
+         * @return the reply or null
+         */
+        ReplyPacket awaitReply(long timeout) throws InterruptedException {
+            long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(timeout);
+            waiter = Thread.currentThread();
+            try {
+                while (reply == null && failure == null && !terminated) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    if (timeout == 0) {
+                        LockSupport.park(this);
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                }
+            } finally {
+                waiter = null;
+            }
+            return reply;
+        }
+
+        /**
+         * Marks the slot as abandoned unless the reply is already there. The
+         * slot is removed from the table when the late reply comes.
+         *
+         * @return false if the reply has been received or the slot is failed
+         */
+        synchronized boolean abandon() {
+            if (reply != null || failure != null) {
+                return false;
+            }
+            abandoned = true;
+            return true;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot> table;
+
+    private final int mask;
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile boolean terminated;
+
+    /**
+     * Creates table holding at most capacity pending commands.
+     *
+     * @param capacity
+     *            maximum number of pending commands, rounded up to power of
+     *            two
+     */
+    PendingCommands(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        table = new AtomicReferenceArray<Slot>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds the command to the table, giving it a new ID. The ID is not set in
+     * the command.
+     *
+     * @param command
+     *            command to add
+     * @param future
+     *            future to complete with the reply, or null if a thread will
+     *            wait for the reply
+     * @return slot of the command
+     * @throws IOException
+     *             if there are too many pending commands
+     */
+    Slot add(CommandPacket command, CompletableFuture<ReplyPacket> future)
+            throws IOException {
+        Slot slot = new Slot(command, future);
+        for (int i = 0; i <= mask; i++) {
+            int id = nextId.getAndIncrement();
+            int index = id & mask;
+            if (table.get(index) == null) {
+                slot.id = id;
+                if (table.compareAndSet(index, null, slot)) {
+                    size.incrementAndGet();
+                    return slot;
+                }
+            }
+        }
+        throw new IOException("Too many pending commands: " + (mask + 1));
+    }
+
+    /**
+     * Gets slot of the command with given ID.
+     *
+     * @param id
+     *            ID of the command
+     * @return slot of the command or null if there is no such command
+     */
+    Slot get(int id) {
+        Slot slot = table.get(id & mask);
+        return slot != null && slot.id == id ? slot : null;
+    }
+
+    /**
+     * Removes the slot from the table, freeing its ID.
+     *
+     * @return false if the slot has already been removed
+     */
+    boolean remove(Slot slot) {
+        if (table.compareAndSet(slot.id & mask, slot, null)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets number of commands in the table.
+     *
+     * @return number of pending commands
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Wakes up all the waiting threads when the connection is closed, and
+     * completes all the futures exceptionally.
+     *
+     * @param cause
+     *            exception the futures are completed with
+     */
+    void terminate(IOException cause) {
+        terminated = true;
+        for (int i = 0; i <= mask; i++) {
+            Slot slot = table.get(i);
+            if (slot != null) {
+                LockSupport.unpark(slot.waiter);
+                if (slot.future != null) {
+                    slot.future.completeExceptionally(cause);
+                }
+            }
+        }
+    }
+}
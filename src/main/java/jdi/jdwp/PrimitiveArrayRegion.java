@@ -0,0 +1,313 @@
+package jdi.jdwp;
+
+import java.lang.reflect.Array;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+/**
+ * This class represents ArrayRegion of primitive values. Values are kept in a
+ * primitive array of the region type instead of one Value per element, so
+ * they can be encoded and decoded in bulk.
+ */
+public class PrimitiveArrayRegion extends ArrayRegion {
+    private final Object array;
+
+    /**
+     * Creates region of boolean values.
+     */
+    public PrimitiveArrayRegion(boolean[] array) {
+        this(JDWPConstants.Tag.BOOLEAN_TAG, array, array.length);
+    }
+
+    /**
+     * Creates region of byte values.
+     */
+    public PrimitiveArrayRegion(byte[] array) {
+        this(JDWPConstants.Tag.BYTE_TAG, array, array.length);
+    }
+
+    /**
+     * Creates region of char values.
+     */
+    public PrimitiveArrayRegion(char[] array) {
+        this(JDWPConstants.Tag.CHAR_TAG, array, array.length);
+    }
+
+    /**
+     * Creates region of short values.
+     */
+    public PrimitiveArrayRegion(short[] array) {
+        this(JDWPConstants.Tag.SHORT_TAG, array, array.length);
+    }
+
+    /**
+     * Creates region of int values.
+     */
+    public PrimitiveArrayRegion(int[] array) {
+        this(JDWPConstants.Tag.INT_TAG, array, array.length);
+    }
+
+    /**
+     * Creates region of long values.
+     */
+    public PrimitiveArrayRegion(long[] array) {
+        this(JDWPConstants.Tag.LONG_TAG, array, array.length);
+    }
+
+    /**
+     * Creates region of float values.
+     */
+    public PrimitiveArrayRegion(float[] array) {
+        this(JDWPConstants.Tag.FLOAT_TAG, array, array.length);
+    }
+
+    /**
+     * Creates region of double values.
+     */
+    public PrimitiveArrayRegion(double[] array) {
+        this(JDWPConstants.Tag.DOUBLE_TAG, array, array.length);
+    }
+
+    private PrimitiveArrayRegion(byte tag, Object array, int length) {
+        super(tag, length, null);
+        this.array = array;
+    }
+
+    /**
+     * Creates region of given primitive type filled with default values.
+     *
+     * @param tag primitive type tag (see JDWP.tag)
+     * @param length number of values
+     * @return new region
+     */
+    public static PrimitiveArrayRegion create(byte tag, int length) {
+        switch (tag) {
+        case JDWPConstants.Tag.BOOLEAN_TAG:
+            return new PrimitiveArrayRegion(new boolean[length]);
+        case JDWPConstants.Tag.BYTE_TAG:
+            return new PrimitiveArrayRegion(new byte[length]);
+        case JDWPConstants.Tag.CHAR_TAG:
+            return new PrimitiveArrayRegion(new char[length]);
+        case JDWPConstants.Tag.SHORT_TAG:
+            return new PrimitiveArrayRegion(new short[length]);
+        case JDWPConstants.Tag.INT_TAG:
+            return new PrimitiveArrayRegion(new int[length]);
+        case JDWPConstants.Tag.LONG_TAG:
+            return new PrimitiveArrayRegion(new long[length]);
+        case JDWPConstants.Tag.FLOAT_TAG:
+            return new PrimitiveArrayRegion(new float[length]);
+        case JDWPConstants.Tag.DOUBLE_TAG:
+            return new PrimitiveArrayRegion(new double[length]);
+        default:
+            throw new TestErrorException("Illegal primitive array tag value = "
+                    + tag);
+        }
+    }
+
+    /**
+     * Tells whether array region of given tag holds primitive values.
+     *
+     * @param tag type tag (see JDWP.tag)
+     * @return true if the region can be represented by PrimitiveArrayRegion
+     */
+    public static boolean isPrimitiveArrayTag(byte tag) {
+        switch (tag) {
+        case JDWPConstants.Tag.BOOLEAN_TAG:
+        case JDWPConstants.Tag.BYTE_TAG:
+        case JDWPConstants.Tag.CHAR_TAG:
+        case JDWPConstants.Tag.SHORT_TAG:
+        case JDWPConstants.Tag.INT_TAG:
+        case JDWPConstants.Tag.LONG_TAG:
+        case JDWPConstants.Tag.FLOAT_TAG:
+        case JDWPConstants.Tag.DOUBLE_TAG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Gets size in bytes of one value of given primitive type in JDWP packet.
+     *
+     * @param tag primitive type tag (see JDWP.tag)
+     * @return size of value in bytes
+     */
+    public static int getValueSize(byte tag) {
+        switch (tag) {
+        case JDWPConstants.Tag.BOOLEAN_TAG:
+        case JDWPConstants.Tag.BYTE_TAG:
+            return 1;
+        case JDWPConstants.Tag.CHAR_TAG:
+        case JDWPConstants.Tag.SHORT_TAG:
+            return 2;
+        case JDWPConstants.Tag.INT_TAG:
+        case JDWPConstants.Tag.FLOAT_TAG:
+            return 4;
+        case JDWPConstants.Tag.LONG_TAG:
+        case JDWPConstants.Tag.DOUBLE_TAG:
+            return 8;
+        default:
+            throw new TestErrorException("Illegal primitive array tag value = "
+                    + tag);
+        }
+    }
+
+    /**
+     * @return Returns the values of boolean region.
+     */
+    public boolean[] getBooleanArray() {
+        checkTag(JDWPConstants.Tag.BOOLEAN_TAG);
+        return (boolean[]) array;
+    }
+
+    /**
+     * @return Returns the values of byte region.
+     */
+    public byte[] getByteArray() {
+        checkTag(JDWPConstants.Tag.BYTE_TAG);
+        return (byte[]) array;
+    }
+
+    /**
+     * @return Returns the values of char region.
+     */
+    public char[] getCharArray() {
+        checkTag(JDWPConstants.Tag.CHAR_TAG);
+        return (char[]) array;
+    }
+
+    /**
+     * @return Returns the values of short region.
+     */
+    public short[] getShortArray() {
+        checkTag(JDWPConstants.Tag.SHORT_TAG);
+        return (short[]) array;
+    }
+
+    /**
+     * @return Returns the values of int region.
+     */
+    public int[] getIntArray() {
+        checkTag(JDWPConstants.Tag.INT_TAG);
+        return (int[]) array;
+    }
+
+    /**
+     * @return Returns the values of long region.
+     */
+    public long[] getLongArray() {
+        checkTag(JDWPConstants.Tag.LONG_TAG);
+        return (long[]) array;
+    }
+
+    /**
+     * @return Returns the values of float region.
+     */
+    public float[] getFloatArray() {
+        checkTag(JDWPConstants.Tag.FLOAT_TAG);
+        return (float[]) array;
+    }
+
+    /**
+     * @return Returns the values of double region.
+     */
+    public double[] getDoubleArray() {
+        checkTag(JDWPConstants.Tag.DOUBLE_TAG);
+        return (double[]) array;
+    }
+
+    /**
+     * Creates Value for the value at given index.
+     *
+     * @param index Index of value to return
+     * @return Returns the value.
+     */
+    @Override
+    public Value getValue(int index) {
+        switch (getTag()) {
+        case JDWPConstants.Tag.BOOLEAN_TAG:
+            return Value.createBoolean(((boolean[]) array)[index]);
+        case JDWPConstants.Tag.BYTE_TAG:
+            return Value.createByte(((byte[]) array)[index]);
+        case JDWPConstants.Tag.CHAR_TAG:
+            return Value.createChar(((char[]) array)[index]);
+        case JDWPConstants.Tag.SHORT_TAG:
+            return Value.createShort(((short[]) array)[index]);
+        case JDWPConstants.Tag.INT_TAG:
+            return Value.createInt(((int[]) array)[index]);
+        case JDWPConstants.Tag.LONG_TAG:
+            return Value.createLong(((long[]) array)[index]);
+        case JDWPConstants.Tag.FLOAT_TAG:
+            return Value.createFloat(((float[]) array)[index]);
+        case JDWPConstants.Tag.DOUBLE_TAG:
+            return Value.createDouble(((double[]) array)[index]);
+        default:
+            throw new TestErrorException("Illegal tag value = " + getTag());
+        }
+    }
+
+    /**
+     * @param index Index of value
+     * @param value Value to set, must have the tag of this region
+     */
+    @Override
+    public void setValue(int index, Value value) {
+        checkTag(value.getTag());
+        switch (getTag()) {
+        case JDWPConstants.Tag.BOOLEAN_TAG:
+            ((boolean[]) array)[index] = value.getBooleanValue();
+            break;
+        case JDWPConstants.Tag.BYTE_TAG:
+            ((byte[]) array)[index] = value.getByteValue();
+            break;
+        case JDWPConstants.Tag.CHAR_TAG:
+            ((char[]) array)[index] = value.getCharValue();
+            break;
+        case JDWPConstants.Tag.SHORT_TAG:
+            ((short[]) array)[index] = value.getShortValue();
+            break;
+        case JDWPConstants.Tag.INT_TAG:
+            ((int[]) array)[index] = value.getIntValue();
+            break;
+        case JDWPConstants.Tag.LONG_TAG:
+            ((long[]) array)[index] = value.getLongValue();
+            break;
+        case JDWPConstants.Tag.FLOAT_TAG:
+            ((float[]) array)[index] = value.getFloatValue();
+            break;
+        case JDWPConstants.Tag.DOUBLE_TAG:
+            ((double[]) array)[index] = value.getDoubleValue();
+            break;
+        default:
+            throw new TestErrorException("Illegal tag value = " + getTag());
+        }
+    }
+
+    /**
+     * @param length The length to set, not greater than the array length.
+     */
+    @Override
+    public void setLength(int length) {
+        if (length < 0 || length > Array.getLength(array)) {
+            throw new TestErrorException("Illegal array region length = "
+                    + length);
+        }
+        super.setLength(length);
+    }
+
+    /**
+     * The tag of primitive region is defined by its array and cannot be
+     * changed.
+     */
+    @Override
+    public void setTag(byte tag) {
+        checkTag(tag);
+    }
+
+    private void checkTag(byte tag) {
+        if (tag != getTag()) {
+            throw new TestErrorException("Illegal tag value = " + tag
+                    + " for array region of tag " + getTag());
+        }
+    }
+}
@@ -25,6 +25,8 @@
  */
 package jdi.jdwp;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class represents JDWP reply packet.
  */
@@ -32,8 +34,6 @@ public class ReplyPacket extends Packet {
 
     private final int ERROR_CODE_INDEX = 9;
 
-    private short error_code;
-
     /**
      * A default constructor that creates an empty ReplyPacket with empty header
      * and no data.
@@ -51,8 +51,42 @@ public class ReplyPacket extends Packet {
      */
     public ReplyPacket(byte p[]) {
         super(p);
-        error_code = (short) super.readFromByteArray(p, ERROR_CODE_INDEX,
-                Packet.SHORT_SIZE);
+    }
+
+    /**
+     * A constructor that creates ReplyPacket reading size bytes of the array
+     * from given offset without copying them, see wrap().
+     */
+    ReplyPacket(byte p[], int offset, int size) {
+        super(p, offset, size);
+    }
+
+    /**
+     * Creates ReplyPacket reading size bytes of the array from given offset,
+     * including header and data sections, without copying them. See
+     * Packet.wrap().
+     * 
+     * @param p
+     *            array of bytes holding the JDWP packet.
+     * @param offset
+     *            index of the packet in the array.
+     * @param size
+     *            number of bytes of the packet in the array.
+     * @return ReplyPacket reading the array.
+     */
+    public static ReplyPacket wrap(byte p[], int offset, int size) {
+        return new ReplyPacket(p, offset, size);
+    }
+
+    /**
+     * A constructor that creates ReplyPacket from remaining bytes of given
+     * buffer including header and data sections.
+     * 
+     * @param buffer
+     *            the JDWP packet, given as buffer.
+     */
+    public ReplyPacket(ByteBuffer buffer) {
+        super(buffer);
     }
 
     /**
@@ -62,7 +96,7 @@ public class ReplyPacket extends Packet {
      *            the error code.
      */
     public void setErrorCode(short val) {
-        error_code = val;
+        writeHeader(val, ERROR_CODE_INDEX, Packet.SHORT_SIZE);
     }
 
     /**
@@ -71,21 +105,6 @@ public class ReplyPacket extends Packet {
      * @return the error code value of the header of the ReplyPacket.
      */
     public short getErrorCode() {
-        return error_code;
-    }
-
-    /**
-     * Gets the representation of the ReplyPacket as array of bytes in the JDWP
-     * format including header and data sections.
-     * 
-     * @return the representation of the ReplyPacket as array of bytes in the
-     *         JDWP format.
-     */
-    @Override
-    public byte[] toBytesArray() {
-        byte res[] = super.toBytesArray();
-        super.writeAtByteArray(error_code, res, ERROR_CODE_INDEX,
-                Packet.SHORT_SIZE);
-        return res;
+        return (short) readHeader(ERROR_CODE_INDEX, Packet.SHORT_SIZE);
     }
 }
@@ -0,0 +1,156 @@
+package jdi.jdwp;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import jdi.log.Log;
+
+/**
+ * This class runs one I/O thread selecting channels of many
+ * NioTransportWrapper connections, so that they need no thread each. The
+ * thread is a platform one whatever ThreadSupport provides, as it spends its
+ * time in Selector.select(). Tasks given to execute() are run by the I/O
+ * thread, which is the only one changing registrations and interest sets.
+ */
+public final class SelectorLoop {
+
+    private static final String TAG = "SelectorLoop";
+
+    /**
+     * Handler of channels registered with the loop, called by the I/O thread.
+     */
+    interface Handler {
+
+        /**
+         * Handles the channel which is ready for the operations of the key.
+         */
+        void ready(SelectionKey key);
+    }
+
+    private static SelectorLoop defaultLoop;
+
+    private final Selector selector;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates loop and starts its I/O thread.
+     *
+     * @param threadName
+     *            name of the I/O thread
+     */
+    public SelectorLoop(String threadName) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(threadName) {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns loop shared by connections which are not given their own one.
+     * It is started on the first call and is never closed.
+     *
+     * @return the shared loop
+     */
+    public static synchronized SelectorLoop getDefault() throws IOException {
+        if (defaultLoop == null) {
+            defaultLoop = new SelectorLoop("JDWP selector");
+        }
+        return defaultLoop;
+    }
+
+    /**
+     * Stops the I/O thread and closes the selector. Connections registered
+     * with the loop are no longer served, so they should be closed before.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Checks whether the calling thread is the I/O thread.
+     *
+     * @return true if called by the I/O thread
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs the task by the I/O thread, after the channels which are ready now
+     * are handled.
+     *
+     * @param task
+     *            task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Registers the channel for given operations. Must be called by the I/O
+     * thread.
+     *
+     * @return key of the channel
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler)
+            throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    private void runLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                        .iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isValid()) {
+                            ((Handler) key.attachment()).ready(key);
+                        }
+                    } catch (CancelledKeyException e) {
+                        // channel was closed by another thread
+                    }
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Selector task failed", e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Selector failed", e);
+        } finally {
+            closed = true;
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Closing selector failed", e);
+            }
+        }
+    }
+}
@@ -36,6 +36,8 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class provides TransportWrapper for row TCP/IP socket connection.
@@ -45,11 +47,40 @@ public class SocketTransportWrapper implements TransportWrapper {
 
     public static final String HANDSHAKE_STRING = "JDWP-Handshake";
 
+    /**
+     * Size of the read-ahead buffer. Packets not longer than it are framed
+     * in the buffer, so one read may bring several of them; longer ones are
+     * read directly into their arrays.
+     */
+    public static final int READ_AHEAD_SIZE = 64 * 1024;
+
+    /**
+     * Size of the buffer packets given to writePackets() are copied to.
+     */
+    public static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     private ServerSocket serverSocket;
     private Socket transportSocket;
     private InputStream input;
     private OutputStream output;
 
+    /**
+     * Bytes read from input and not yet taken by readPacket(), which are
+     * those from readPos to readLimit.
+     */
+    private byte[] readAhead;
+    private int readPos;
+    private int readLimit;
+
+    /**
+     * Lock of writing, so packets written by different threads do not mix.
+     * It is a ReentrantLock rather than a monitor, so a virtual thread
+     * blocked in writing does not pin its carrier thread.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private byte[] writeBuffer;
+
     /**
      * Starts listening for connection on given or default address.
      *
@@ -233,42 +264,53 @@ public class SocketTransportWrapper implements TransportWrapper {
      */
     @Override
     public byte[] readPacket() throws IOException {
+        return readPacket(null);
+    }
 
-        // read packet header
-        byte[] header = new byte[Packet.HEADER_SIZE];
-        int off = 0;
+    /**
+     * Reads packet bytes from transport connection into array leased from
+     * given pool. Bytes are read ahead into a buffer, from which the packet
+     * is copied; the rest of the packet is read directly into the array if
+     * it is longer than the buffer.
+     * 
+     * @param pool pool to lease the array from or null
+     * @return array holding the packet or null if connection was closed
+     */
+    @Override
+    public byte[] readPacket(PacketPool pool) throws IOException {
 
-        while (off < Packet.HEADER_SIZE) {
-            try {
-                int bytesRead = input.read(header, off, Packet.HEADER_SIZE - off);
-                if (bytesRead < 0) {
-                    break;
-                }
-                off += bytesRead;
-            } catch (IOException e) {
-                // workaround for "Socket Closed" exception if connection was closed
-                break;
-            }
+        // read packet header
+        try {
+            fillReadAhead(Packet.HEADER_SIZE);
+        } catch (IOException e) {
+            // workaround for "Socket Closed" exception if connection was closed
         }
-
-        if (off == 0) {
+        int available = readLimit - readPos;
+        if (available == 0) {
             return null;
         }
-        if (off < Packet.HEADER_SIZE) {
+        if (available < Packet.HEADER_SIZE) {
             throw new IOException("Connection closed in reading packet header");
         }
 
         // extract packet length
-        int len = Packet.getPacketLength(header);
+        int len = (int) Packet.readFromByteArray(readAhead, readPos,
+                Packet.INT_SIZE);
         if (len < Packet.HEADER_SIZE) {
             throw new IOException("Wrong packet size detected: " + len);
         }
-        
-        // allocate packet bytes and store header there 
-        byte[] bytes = new byte[len];
-        System.arraycopy(header, 0, bytes, 0, Packet.HEADER_SIZE);
 
-        // read packet data
+        // frame the packet in the read-ahead buffer if it fits there
+        if (len <= readAhead.length && fillReadAhead(len) < len) {
+            throw new IOException("Connection closed in reading packet data");
+        }
+
+        byte[] bytes = pool != null ? pool.leaseBuffer(len) : new byte[len];
+        int off = Math.min(readLimit - readPos, len);
+        System.arraycopy(readAhead, readPos, bytes, 0, off);
+        readPos += off;
+
+        // read the rest of a long packet data
         while (off < len) {
             int bytesRead = input.read(bytes, off, len - off);
             if (bytesRead < 0) {
@@ -283,6 +325,34 @@ public class SocketTransportWrapper implements TransportWrapper {
         return bytes;
     }
 
+    /**
+     * Reads into the read-ahead buffer as many bytes as are available, until
+     * it holds at least count bytes or the connection is closed. The
+     * buffered bytes are moved to its start if count bytes do not fit after
+     * them.
+     * 
+     * @param count number of bytes to hold, not more than the buffer size
+     * @return number of bytes held
+     */
+    private int fillReadAhead(int count) throws IOException {
+        if (readAhead == null) {
+            readAhead = new byte[READ_AHEAD_SIZE];
+        }
+        if (readPos + count > readAhead.length) {
+            System.arraycopy(readAhead, readPos, readAhead, 0, readLimit - readPos);
+            readLimit -= readPos;
+            readPos = 0;
+        }
+        while (readLimit - readPos < count) {
+            int bytesRead = input.read(readAhead, readLimit, readAhead.length - readLimit);
+            if (bytesRead < 0) {
+                break;
+            }
+            readLimit += bytesRead;
+        }
+        return readLimit - readPos;
+    }
+
     /**
      * Writes packet bytes to transport connection.
      * 
@@ -291,8 +361,67 @@ public class SocketTransportWrapper implements TransportWrapper {
      */
     @Override
     public void writePacket(byte[] packet) throws IOException {
-        output.write(packet);
-        output.flush();
+        writeLock.lock();
+        try {
+            output.write(packet);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes remaining bytes of the buffers to transport connection. A socket
+     * stream has no gathering write, so the bytes are copied to a write
+     * buffer, written when it is full and once at the end; buffers which do
+     * not fit in it are written directly from their arrays.
+     * 
+     * @param buffers
+     *            buffers holding packets
+     * @param offset
+     *            index of the first buffer to write
+     * @param length
+     *            number of buffers to write
+     */
+    @Override
+    public void writePackets(ByteBuffer[] buffers, int offset, int length)
+            throws IOException {
+        writeLock.lock();
+        try {
+            if (writeBuffer == null) {
+                writeBuffer = new byte[WRITE_BUFFER_SIZE];
+            }
+            int count = 0;
+            for (int i = offset; i < offset + length; i++) {
+                ByteBuffer buffer = buffers[i];
+                int remaining = buffer.remaining();
+                if (count + remaining > writeBuffer.length && count > 0) {
+                    output.write(writeBuffer, 0, count);
+                    count = 0;
+                }
+                if (remaining < writeBuffer.length) {
+                    buffer.get(writeBuffer, count, remaining);
+                    count += remaining;
+                } else if (buffer.hasArray()) {
+                    output.write(buffer.array(), buffer.arrayOffset()
+                            + buffer.position(), remaining);
+                    buffer.position(buffer.limit());
+                } else {
+                    while (buffer.hasRemaining()) {
+                        int chunk = Math.min(buffer.remaining(),
+                                writeBuffer.length);
+                        buffer.get(writeBuffer, 0, chunk);
+                        output.write(writeBuffer, 0, chunk);
+                    }
+                }
+            }
+            if (count > 0) {
+                output.write(writeBuffer, 0, count);
+            }
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -332,5 +461,7 @@ public class SocketTransportWrapper implements TransportWrapper {
     protected void createStreams() throws IOException {
         input = transportSocket.getInputStream();
         output = transportSocket.getOutputStream();
+        readPos = 0;
+        readLimit = 0;
     }
 }
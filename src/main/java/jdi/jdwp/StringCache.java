@@ -0,0 +1,95 @@
+package jdi.jdwp;
+
+/**
+ * This class is a bounded intern table for strings which repeat a lot in JDWP
+ * packets, like type signatures and method names. A cached string is returned
+ * without decoding or allocating anything if its encoded bytes match. The
+ * table is direct-mapped: a new string replaces the one in its slot, so the
+ * memory used never exceeds the given capacity. Only ASCII strings not longer
+ * than MAX_LENGTH are cached. It is safe to share the table between threads.
+ */
+public final class StringCache {
+
+    /**
+     * Longest string in bytes which is cached.
+     */
+    public static final int MAX_LENGTH = 256;
+
+    /**
+     * Default shared table for type signatures.
+     */
+    public static final StringCache SIGNATURES = new StringCache(4096);
+
+    private final String[] table;
+
+    private final int mask;
+
+    /**
+     * Creates new table holding at most capacity strings.
+     * 
+     * @param capacity
+     *            maximum number of strings, rounded up to power of two
+     */
+    public StringCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        table = new String[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Gets string decoded from given range of array of bytes, from the table
+     * if possible.
+     * 
+     * @param ar
+     *            array of bytes to read from
+     * @param from
+     *            index of the first byte
+     * @param length
+     *            number of bytes
+     * @return decoded string
+     */
+    public String get(byte ar[], int from, int length) {
+        if (length > MAX_LENGTH) {
+            return StringCodec.decode(ar, from, length);
+        }
+        int hash = 0;
+        for (int i = from, end = from + length; i < end; i++) {
+            byte b = ar[i];
+            if (b < 0) {
+                // not ASCII, bytes and chars differ
+                return StringCodec.decode(ar, from, length);
+            }
+            hash = 31 * hash + b;
+        }
+        // ASCII strings have the same hash code as their bytes
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String cached = table[slot];
+        if (cached != null && matches(cached, ar, from, length)) {
+            return cached;
+        }
+        String res = StringCodec.decode(ar, from, length);
+        table[slot] = res;
+        return res;
+    }
+
+    private static boolean matches(String s, byte ar[], int from, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != ar[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all strings from the table.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package jdi.jdwp;
+
+import java.nio.charset.Charset;
+
+/**
+ * This class encodes and decodes JDWP strings. JDWP agents use modified UTF-8
+ * (as JNI does): the NUL character takes two bytes and supplementary characters are
+ * encoded as two surrogates of three bytes each. Decoding also accepts four
+ * byte sequences of standard UTF-8. Pure ASCII strings, such as most type
+ * signatures, take a fast path without any intermediate arrays.
+ */
+public final class StringCodec {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+    private StringCodec() {
+    }
+
+    /**
+     * Gets the length in bytes of the string in modified UTF-8.
+     * 
+     * @param val string to measure
+     * @return number of bytes of encoded string
+     */
+    public static int encodedLength(String val) {
+        int length = val.length();
+        int res = length;
+        for (int i = 0; i < length; i++) {
+            char c = val.charAt(i);
+            if (c >= 0x80 || c == 0) {
+                res += c >= 0x800 ? 2 : 1;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Encodes the string in modified UTF-8 to array of bytes starting from
+     * given index. The array must have place for encodedLength(val) bytes.
+     * 
+     * @param val string to encode
+     * @param ar array of bytes to write to
+     * @param to index of the first byte
+     * @return index after the last written byte
+     */
+    public static int encode(String val, byte ar[], int to) {
+        int length = val.length();
+        int i = 0;
+        // ASCII prefix
+        for (; i < length; i++) {
+            char c = val.charAt(i);
+            if (c >= 0x80 || c == 0) {
+                break;
+            }
+            ar[to++] = (byte) c;
+        }
+        for (; i < length; i++) {
+            char c = val.charAt(i);
+            if (c < 0x80 && c != 0) {
+                ar[to++] = (byte) c;
+            } else if (c < 0x800) {
+                ar[to++] = (byte) (0xC0 | (c >> 6));
+                ar[to++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                ar[to++] = (byte) (0xE0 | (c >> 12));
+                ar[to++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                ar[to++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Tells whether all bytes of given range are ASCII characters.
+     */
+    static boolean isAscii(byte ar[], int from, int length) {
+        for (int i = from, end = from + length; i < end; i++) {
+            if (ar[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes string in modified UTF-8 from given range of array of bytes.
+     * Malformed sequences are replaced with U+FFFD.
+     * 
+     * @param ar array of bytes to read from
+     * @param from index of the first byte
+     * @param length number of bytes
+     * @return decoded string
+     */
+    public static String decode(byte ar[], int from, int length) {
+        if (isAscii(ar, from, length)) {
+            return new String(ar, from, length, ISO_8859_1);
+        }
+        char chars[] = new char[length];
+        int count = 0;
+        int i = from;
+        int end = from + length;
+        while (i < end) {
+            int b = ar[i] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+                i++;
+            } else if ((b & 0xE0) == 0xC0 && i + 1 < end
+                    && isContinuation(ar[i + 1])) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (ar[i + 1] & 0x3F));
+                i += 2;
+            } else if ((b & 0xF0) == 0xE0 && i + 2 < end
+                    && isContinuation(ar[i + 1]) && isContinuation(ar[i + 2])) {
+                chars[count++] = (char) (((b & 0x0F) << 12)
+                        | ((ar[i + 1] & 0x3F) << 6) | (ar[i + 2] & 0x3F));
+                i += 3;
+            } else if ((b & 0xF8) == 0xF0 && i + 3 < end
+                    && isContinuation(ar[i + 1]) && isContinuation(ar[i + 2])
+                    && isContinuation(ar[i + 3])) {
+                int codePoint = ((b & 0x07) << 18) | ((ar[i + 1] & 0x3F) << 12)
+                        | ((ar[i + 2] & 0x3F) << 6) | (ar[i + 3] & 0x3F);
+                if (codePoint >= 0x10000 && codePoint <= 0x10FFFF) {
+                    codePoint -= 0x10000;
+                    chars[count++] = (char) (0xD800 | (codePoint >> 10));
+                    chars[count++] = (char) (0xDC00 | (codePoint & 0x3FF));
+                } else {
+                    chars[count++] = REPLACEMENT_CHAR;
+                }
+                i += 4;
+            } else {
+                chars[count++] = REPLACEMENT_CHAR;
+                i++;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Tells whether given range of array of bytes holds the string, or starts
+     * with it if prefix is true, comparing encoded bytes without decoding.
+     * 
+     * @param ar array of bytes to compare
+     * @param from index of the first byte
+     * @param length number of bytes
+     * @param val string to compare with
+     * @param prefix whether the range may be longer than the string
+     * @return true if the range matches the string
+     */
+    public static boolean regionMatches(byte ar[], int from, int length,
+            String val, boolean prefix) {
+        int i = from;
+        int end = from + length;
+        int count = val.length();
+        for (int j = 0; j < count; j++) {
+            char c = val.charAt(j);
+            if (c < 0x80 && c != 0) {
+                if (i < end && ar[i] == (byte) c) {
+                    i++;
+                    continue;
+                }
+            } else if (c < 0x800) {
+                if (i + 1 < end && ar[i] == (byte) (0xC0 | (c >> 6))
+                        && ar[i + 1] == (byte) (0x80 | (c & 0x3F))) {
+                    i += 2;
+                    continue;
+                }
+            } else {
+                if (i + 2 < end && ar[i] == (byte) (0xE0 | (c >> 12))
+                        && ar[i + 1] == (byte) (0x80 | ((c >> 6) & 0x3F))
+                        && ar[i + 2] == (byte) (0x80 | (c & 0x3F))) {
+                    i += 3;
+                    continue;
+                }
+            }
+            if (isAscii(ar, from, length)) {
+                return false;
+            }
+            // the bytes may use another valid encoding, like four byte
+            // sequences, compare decoded strings
+            String decoded = decode(ar, from, length);
+            return prefix ? decoded.startsWith(val) : decoded.equals(val);
+        }
+        return prefix || i == end;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+}
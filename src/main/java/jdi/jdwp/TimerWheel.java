@@ -0,0 +1,219 @@
+package jdi.jdwp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jdi.concurrent.ThreadSupport;
+
+/**
+ * This class is a hashed timing wheel running tasks after their delays, with
+ * precision of one tick. Scheduling and cancelling a task takes constant time
+ * whatever the number of scheduled tasks, so it suits deadlines of many
+ * pending commands, most of which are cancelled when their replies come.
+ *
+ * Tasks are kept in doubly-linked lists, one per bucket of the wheel. The
+ * timer thread is started when the first task is scheduled, and runs the
+ * expired tasks itself, so they should be short. It is a virtual thread where
+ * ThreadSupport provides them.
+ */
+class TimerWheel {
+
+    /**
+     * Scheduled task, which may be cancelled.
+     */
+    final class Timeout {
+
+        private final Runnable task;
+
+        /**
+         * Number of wheel turns left before the task expires.
+         */
+        private long rounds;
+
+        private int bucket = -1;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Cancels the task unless it has expired.
+         */
+        void cancel() {
+            lock.lock();
+            try {
+                unlink(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final long tickNanos;
+
+    private final Timeout[] buckets;
+
+    private final int mask;
+
+    private final String threadName;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition stopping = lock.newCondition();
+
+    private long startTime;
+
+    /**
+     * Number of ticks passed since startTime.
+     */
+    private long tick;
+
+    private Thread thread;
+
+    private boolean stopped;
+
+    /**
+     * Creates timing wheel.
+     *
+     * @param tickMillis
+     *            duration of one tick in milliseconds
+     * @param wheelSize
+     *            number of buckets, rounded up to power of two
+     * @param threadName
+     *            name of the timer thread
+     */
+    TimerWheel(long tickMillis, int wheelSize, String threadName) {
+        int size = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+        this.tickNanos = tickMillis * 1000000L;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.threadName = threadName;
+    }
+
+    /**
+     * Schedules the task to run after the delay.
+     *
+     * @param task
+     *            task to run
+     * @param delayMillis
+     *            delay in milliseconds
+     * @return timeout of the task, or null if the timer is stopped
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        lock.lock();
+        try {
+            if (stopped) {
+                return null;
+            }
+            if (thread == null) {
+                start();
+            }
+            long deadline = System.nanoTime() - startTime + delayMillis
+                    * 1000000L;
+            long ticks = Math.max((deadline + tickNanos - 1) / tickNanos,
+                    tick + 1);
+            Timeout timeout = new Timeout(task);
+            timeout.rounds = (ticks - tick - 1) / buckets.length;
+            timeout.bucket = (int) ticks & mask;
+            Timeout head = buckets[timeout.bucket];
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            buckets[timeout.bucket] = timeout;
+            return timeout;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the timer thread. Tasks which have not expired are not run.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            stopping.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void start() {
+        startTime = System.nanoTime();
+        thread = ThreadSupport.newThread(threadName, true, new Runnable() {
+            public void run() {
+                runTicks();
+            }
+        });
+        thread.start();
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.bucket < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    private void runTicks() {
+        List<Runnable> expired = new ArrayList<Runnable>();
+        while (true) {
+            lock.lock();
+            try {
+                try {
+                    // wait for the end of the next tick
+                    long remaining;
+                    while (!stopped
+                            && (remaining = (tick + 1) * tickNanos
+                                    - (System.nanoTime() - startTime)) > 0) {
+                        stopping.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    stopped = true;
+                }
+                if (stopped) {
+                    return;
+                }
+
+                // take expired tasks from the bucket of the tick
+                tick++;
+                Timeout timeout = buckets[(int) tick & mask];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds > 0) {
+                        timeout.rounds--;
+                    } else {
+                        unlink(timeout);
+                        expired.add(timeout.task);
+                    }
+                    timeout = next;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (Runnable task : expired) {
+                task.run();
+            }
+            expired.clear();
+        }
+    }
+}
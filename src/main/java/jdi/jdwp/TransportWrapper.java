@@ -26,6 +26,8 @@
 package jdi.jdwp;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * This interface provides wrapper around JDWP transport connection.
@@ -88,9 +90,65 @@ public interface TransportWrapper {
     public byte[] readPacket() throws IOException;
 
     /**
-     * Writes packet to transport connection.
+     * Reads packet from transport connection into array leased from given
+     * pool for the packet length. The packet length is the one in its
+     * header; the array may be longer than the packet.
+     * 
+     * @param pool pool to lease the array from or null
+     * @return array holding the packet or null or empty packet if connection was closed
+     */
+    public default byte[] readPacket(PacketPool pool) throws IOException {
+        return readPacket();
+    }
+
+    /**
+     * Writes packet to transport connection. The array may hold several
+     * packets one after another, which are then written together.
      * 
      * @param packet packet as byte array
      */
     public void writePacket(byte[] packet) throws IOException;
+
+    /**
+     * Writes packets to transport connection together, with as few writes
+     * as the connection allows. The arrays are wrapped in buffers given to
+     * writePackets(ByteBuffer[], int, int).
+     * 
+     * @param packets packets as byte arrays, in order of writing
+     */
+    public default void writePackets(List<byte[]> packets) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[packets.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(packets.get(i));
+        }
+        writePackets(buffers, 0, buffers.length);
+    }
+
+    /**
+     * Writes remaining bytes of the buffers to transport connection in
+     * order, with one gathering write where the connection has one, see
+     * GatheringByteChannel. A packet may span several buffers, e.g. its
+     * header and its data. The bytes may be written after the method returns,
+     * so they must not be changed, but the array may be reused. By default
+     * the bytes are joined into one array given to writePacket().
+     * 
+     * @param buffers buffers holding packets, in order of writing
+     * @param offset index of the first buffer to write
+     * @param length number of buffers to write
+     */
+    public default void writePackets(ByteBuffer[] buffers, int offset,
+            int length) throws IOException {
+        int size = 0;
+        for (int i = offset; i < offset + length; i++) {
+            size += buffers[i].remaining();
+        }
+        byte[] bytes = new byte[size];
+        int position = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int remaining = buffers[i].remaining();
+            buffers[i].duplicate().get(bytes, position, remaining);
+            position += remaining;
+        }
+        writePacket(bytes);
+    }
 }
@@ -213,6 +213,13 @@ public class TypesLengths {
      */
     public static void setTypeLength(byte typeID, int typeLength)
             throws TestErrorException {
+        storeTypeLength(typeID, typeLength);
+        // packets not bound to a connection read IDs with these lengths
+        IDSizes.resetDefault();
+    }
+
+    private static void storeTypeLength(byte typeID, int typeLength)
+            throws TestErrorException {
         switch (typeID) {
         case BYTE_ID: {
             byteLength = typeLength;
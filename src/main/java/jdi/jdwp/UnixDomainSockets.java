@@ -0,0 +1,172 @@
+package jdi.jdwp;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * This class opens Unix domain socket channels for addresses "unix:path".
+ * They are supported by SocketChannel since JDK 16, whose API is used by
+ * reflection, so this code still runs on older JDKs and on Android, where
+ * opening a channel fails with IOException.
+ */
+public final class UnixDomainSockets {
+
+    /**
+     * Prefix of Unix domain socket addresses.
+     */
+    static final String SCHEME = "unix:";
+
+    private static final Method ADDRESS_OF;
+
+    private static final Method OPEN_SERVER_CHANNEL;
+
+    private static final ProtocolFamily UNIX;
+
+    static {
+        Method addressOf = null;
+        Method openServerChannel = null;
+        ProtocolFamily unix = null;
+        try {
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", String.class);
+            openServerChannel = ServerSocketChannel.class.getMethod("open",
+                    ProtocolFamily.class);
+            unix = StandardProtocolFamily.valueOf("UNIX");
+        } catch (ClassNotFoundException e) {
+            addressOf = null;
+        } catch (NoSuchMethodException e) {
+            addressOf = null;
+        } catch (IllegalArgumentException e) {
+            addressOf = null;
+        }
+        ADDRESS_OF = addressOf;
+        OPEN_SERVER_CHANNEL = openServerChannel;
+        UNIX = unix;
+    }
+
+    private UnixDomainSockets() {
+    }
+
+    /**
+     * Checks whether the address has Unix domain socket scheme.
+     *
+     * @param address
+     *            transport address or null
+     * @return true if the address starts with "unix:"
+     */
+    public static boolean isUnixAddress(String address) {
+        return address != null && address.startsWith(SCHEME);
+    }
+
+    /**
+     * Checks whether this runtime supports Unix domain socket channels.
+     *
+     * @return true on JDK 16 and later
+     */
+    static boolean isSupported() {
+        return ADDRESS_OF != null;
+    }
+
+    /**
+     * Connects to Unix domain socket.
+     *
+     * @param address
+     *            address as "unix:path"
+     * @return connected channel
+     */
+    static SocketChannel connect(String address) throws IOException {
+        return SocketChannel.open(toSocketAddress(address));
+    }
+
+    /**
+     * Binds Unix domain server socket. A socket left at the path by a server
+     * which was not closed is deleted first, if connecting to it is refused.
+     *
+     * @param address
+     *            address as "unix:path"
+     * @return bound server channel
+     * @throws BindException
+     *             if a server is listening at the path
+     */
+    static ServerSocketChannel bind(String address) throws IOException {
+        SocketAddress socketAddress = toSocketAddress(address);
+        if (isSocketFile(new File(getPath(address)))) {
+            try {
+                connect(address).close();
+                throw new BindException("Address already in use: " + address);
+            } catch (ConnectException e) {
+                // stale socket
+                unlink(address);
+            }
+        }
+        ServerSocketChannel channel = (ServerSocketChannel) invoke(
+                OPEN_SERVER_CHANNEL, null, UNIX);
+        try {
+            channel.bind(socketAddress);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Deletes the file of Unix domain socket. Regular files and directories
+     * at the path are never deleted.
+     *
+     * @param address
+     *            address as "unix:path"
+     */
+    static void unlink(String address) {
+        File file = new File(getPath(address));
+        if (isSocketFile(file)) {
+            file.delete();
+        }
+    }
+
+    private static boolean isSocketFile(File file) {
+        return file.exists() && !file.isFile() && !file.isDirectory();
+    }
+
+    private static String getPath(String address) {
+        return address.substring(SCHEME.length());
+    }
+
+    private static SocketAddress toSocketAddress(String address)
+            throws IOException {
+        if (!isSupported()) {
+            throw new IOException(
+                    "Unix domain sockets are not supported by this runtime: "
+                            + address);
+        }
+        String path = getPath(address);
+        if (path.length() == 0) {
+            throw new IOException("Illegal socket address: " + address);
+        }
+        return (SocketAddress) invoke(ADDRESS_OF, null, path);
+    }
+
+    private static Object invoke(Method method, Object target, Object arg)
+            throws IOException {
+        try {
+            return method.invoke(target, arg);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package jdi.jdwp.netty;
+
+import java.nio.ByteOrder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import jdi.jdwp.Packet;
+
+/**
+ * Splits received bytes into JDWP packets by the length field of their
+ * header, which counts the whole packet. Each packet is passed on as a
+ * retained slice of the received buffer, including its header, so its bytes
+ * are not copied.
+ */
+public class JdwpFrameDecoder extends LengthFieldBasedFrameDecoder {
+
+    /**
+     * Creates decoder accepting packets of any length.
+     */
+    public JdwpFrameDecoder() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates decoder failing on packets longer than maxPacketLength.
+     *
+     * @param maxPacketLength maximum length of a packet, including header
+     */
+    public JdwpFrameDecoder(int maxPacketLength) {
+        super(maxPacketLength, 0, 4, -4, 0, true);
+    }
+
+    @Override
+    protected long getUnadjustedFrameLength(ByteBuf buf, int offset,
+            int length, ByteOrder order) {
+        long len = super.getUnadjustedFrameLength(buf, offset, length, order);
+        if (len < Packet.HEADER_SIZE) {
+            throw new CorruptedFrameException("Wrong packet size detected: "
+                    + len);
+        }
+        return len;
+    }
+}
@@ -0,0 +1,109 @@
+package jdi.jdwp.netty;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import jdi.jdwp.SocketTransportWrapper;
+
+/**
+ * Performs JDWP handshake when the channel becomes active: sends the
+ * handshake string and waits for the same one from the other side. Then the
+ * handler removes itself from the pipeline, passing bytes received after the
+ * handshake to the next handler, and completes its handshake future.
+ */
+public class JdwpHandshakeHandler extends ByteToMessageDecoder {
+
+    private static final byte[] HANDSHAKE = SocketTransportWrapper.HANDSHAKE_STRING
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final ChannelPromise handshakeFuture;
+
+    /**
+     * Creates handler for given channel. Its handshake future is created
+     * here rather than when the handler is added to the pipeline, which
+     * happens later on the event loop if the channel is registered, so the
+     * future can be taken by any thread right away.
+     *
+     * @param channel channel the handler is to be added to
+     */
+    public JdwpHandshakeHandler(Channel channel) {
+        handshakeFuture = channel.newPromise();
+    }
+
+    /**
+     * Returns future completed when handshake is done, or failed if the
+     * response is wrong or the channel is closed before it.
+     *
+     * @return handshake future
+     */
+    public ChannelPromise handshakeFuture() {
+        return handshakeFuture;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isActive()) {
+            sendHandshake(ctx);
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        sendHandshake(ctx);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        handshakeFuture.tryFailure(new IOException(
+                "Connection closed in handshaking"));
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (handshakeFuture.tryFailure(cause)) {
+            ctx.close();
+        } else {
+            ctx.fireExceptionCaught(cause);
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in,
+            List<Object> out) {
+        if (in.readableBytes() < HANDSHAKE.length) {
+            return;
+        }
+        byte[] bytes = new byte[HANDSHAKE.length];
+        in.readBytes(bytes);
+        String response = new String(bytes, StandardCharsets.US_ASCII);
+        if (!response.equals(SocketTransportWrapper.HANDSHAKE_STRING)) {
+            handshakeFuture.tryFailure(new IOException(
+                    "Unexpected handshake response: " + response));
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+            return;
+        }
+        // complete first: removing the decoder passes the bytes read after
+        // the handshake to the next handler
+        handshakeFuture.trySuccess();
+        ctx.pipeline().remove(this);
+    }
+
+    private void sendHandshake(ChannelHandlerContext ctx) {
+        ctx.writeAndFlush(Unpooled.wrappedBuffer(HANDSHAKE)).addListener(
+                future -> {
+                    if (!future.isSuccess()) {
+                        handshakeFuture.tryFailure(future.cause());
+                    }
+                });
+    }
+}
@@ -0,0 +1,551 @@
+package jdi.jdwp.netty;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import jdi.jdwp.TransportWrapper;
+
+/**
+ * This class provides TransportWrapper for TCP/IP connection on a Netty
+ * channel, registered with a given NIO event loop group. Passing the event
+ * loop of the channel of NettyTcpClient runs JDWP and IM connections on the
+ * same thread, so relayed packets move between them without crossing
+ * threads.
+ *
+ * The pipeline of the channel holds JdwpHandshakeHandler and
+ * JdwpFrameDecoder. Received packets are handed as ByteBuf to the
+ * PacketHandler, if one is set, by the event loop. Otherwise they are copied
+ * to arrays queued for readPacket(), which keeps the blocking contract of
+ * TransportWrapper and must not be called by the event loop; reading is then
+ * suspended while MAX_RECEIVED_PACKETS packets are queued.
+ */
+public class NettyTransportWrapper implements TransportWrapper {
+
+    /**
+     * Handler of packets received by the event loop.
+     */
+    public interface PacketHandler {
+
+        /**
+         * Handles received packet. The handler owns the buffer and must
+         * release it.
+         *
+         * @param packet buffer holding exactly one packet, including header
+         */
+        void onPacket(ByteBuf packet);
+
+        /**
+         * Handles closing of the connection.
+         *
+         * @param cause error which closed the connection, or null if it was
+         *              closed by either side
+         */
+        void onClosed(Throwable cause);
+    }
+
+    /**
+     * Number of received packets queued for readPacket() at which reading is
+     * suspended. It is resumed when half of them are read.
+     */
+    public static final int MAX_RECEIVED_PACKETS = 1024;
+
+    /**
+     * Delay between attempts to attach, in milliseconds.
+     */
+    private static final long ATTACH_RETRY_DELAY = 4 * 1000;
+
+    /**
+     * Marker queued for readPacket() when the connection is closed.
+     */
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final EventLoopGroup group;
+
+    private volatile PacketHandler handler;
+
+    private Channel serverChannel;
+
+    private final LinkedBlockingQueue<Channel> accepted = new LinkedBlockingQueue<Channel>();
+
+    private volatile Channel channel;
+
+    private final LinkedBlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile Throwable failure;
+
+    private final ChannelFutureListener writeListener = new ChannelFutureListener() {
+        public void operationComplete(ChannelFuture future) {
+            if (!future.isSuccess() && failure == null) {
+                failure = future.cause();
+            }
+        }
+    };
+
+    /**
+     * Creates transport registering its channels with given event loop group.
+     *
+     * @param group NIO event loop group, or single event loop
+     */
+    public NettyTransportWrapper(EventLoopGroup group) {
+        this.group = group;
+    }
+
+    /**
+     * Sets handler of received packets. Must be set before the connection is
+     * attached or accepted; readPacket() must not be used then.
+     *
+     * @param handler handler of packets, or null to queue them for
+     *                readPacket()
+     */
+    public void setPacketHandler(PacketHandler handler) {
+        if (channel != null) {
+            throw new IllegalStateException(
+                    "Packet handler must be set before connecting");
+        }
+        this.handler = handler;
+    }
+
+    /**
+     * Returns channel of the connection.
+     *
+     * @return channel, or null if not connected yet
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Starts listening for connection on given or default address.
+     *
+     * @param address address to listen to or null for default address,
+     *                parsed as "hostname:port" or "port", if it contains no
+     *                semi-colon.
+     * @return string representation of listening address
+     */
+    @Override
+    public String startListening(String address) throws IOException {
+        String hostName = null;
+        int port = 0;
+        if (address != null) {
+            int i = address.indexOf(':');
+            if (i >= 0) {
+                hostName = address.substring(0, i);
+            }
+            port = parsePort(address, address.substring(i + 1));
+        }
+
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                // nothing is read until accept() builds the pipeline
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        accepted.add(ch);
+                    }
+                });
+        ChannelFuture future = hostName != null ? bootstrap.bind(hostName,
+                port) : bootstrap.bind(port);
+        awaitUninterruptibly(future);
+        if (!future.isSuccess()) {
+            throw toIOException(future.cause());
+        }
+        serverChannel = future.channel();
+
+        InetSocketAddress localAddress = (InetSocketAddress) serverChannel
+                .localAddress();
+        String hostNameOrAddress = localAddress.getAddress().isLoopbackAddress()
+                ? localAddress.getAddress().getHostAddress()
+                : localAddress.getHostName();
+        return hostNameOrAddress + ":" + localAddress.getPort();
+    }
+
+    /**
+     * Stops listening for connection on current address.
+     */
+    @Override
+    public void stopListening() throws IOException {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+    }
+
+    /**
+     * Accepts transport connection for currently listened address and
+     * performs handshaking for specified timeout.
+     *
+     * @param acceptTimeout    timeout for accepting in milliseconds
+     * @param handshakeTimeout timeout for handshaking in milliseconds
+     */
+    @Override
+    public void accept(long acceptTimeout, long handshakeTimeout)
+            throws IOException {
+        Channel ch;
+        try {
+            ch = acceptTimeout == 0 ? accepted.take() : accepted.poll(
+                    acceptTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interruption in accepting");
+        }
+        if (ch == null) {
+            throw new SocketTimeoutException("Timeout exceeded in accepting");
+        }
+        JdwpHandshakeHandler handshakeHandler = initPipeline(ch);
+        ch.config().setAutoRead(true);
+        handshake(ch, handshakeHandler, handshakeTimeout);
+    }
+
+    /**
+     * Attaches transport connection to given address and performs
+     * handshaking for specified timeout.
+     *
+     * @param address          address for attaching
+     * @param attachTimeout    timeout for attaching in milliseconds
+     * @param handshakeTimeout timeout for handshaking in milliseconds
+     */
+    @Override
+    public void attach(String address, long attachTimeout,
+            long handshakeTimeout) throws IOException {
+        int i = address == null ? -1 : address.indexOf(':');
+        if (i < 0) {
+            throw new IOException("Illegal socket address: " + address);
+        }
+        String hostName = address.substring(0, i);
+        int port = parsePort(address, address.substring(i + 1));
+
+        final JdwpHandshakeHandler[] handshakeHandler = new JdwpHandshakeHandler[1];
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        handshakeHandler[0] = initPipeline(ch);
+                    }
+                });
+
+        long finishTime = System.currentTimeMillis() + attachTimeout;
+        ChannelFuture future;
+        try {
+            while (true) {
+                future = bootstrap.connect(hostName, port).await();
+                if (future.isSuccess()) {
+                    break;
+                }
+                long remaining = finishTime - System.currentTimeMillis();
+                if (attachTimeout != 0 && remaining <= 0) {
+                    throw new SocketTimeoutException(
+                            "Timeout exceeded in attaching to " + address);
+                }
+                Thread.sleep(attachTimeout == 0 ? ATTACH_RETRY_DELAY : Math
+                        .min(ATTACH_RETRY_DELAY, remaining));
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interruption in attaching to "
+                    + address);
+        }
+        handshake(future.channel(), handshakeHandler[0], handshakeTimeout);
+    }
+
+    /**
+     * Closes transport connection.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            Channel ch;
+            while ((ch = accepted.poll()) != null) {
+                ch.close();
+            }
+            if (channel != null) {
+                awaitUninterruptibly(channel.close());
+            }
+        } finally {
+            terminate(null);
+        }
+    }
+
+    /**
+     * Checks if transport connection is open.
+     *
+     * @return true if transport connection is open
+     */
+    @Override
+    public boolean isOpen() {
+        Channel ch = channel;
+        return ch != null && ch.isActive() && !closed.get();
+    }
+
+    /**
+     * Takes packet received by the event loop, waiting until there is one.
+     *
+     * @return packet as byte array or null if connection was closed
+     */
+    @Override
+    public byte[] readPacket() throws IOException {
+        if (handler != null) {
+            throw new IllegalStateException(
+                    "Packets are handed to the packet handler");
+        }
+        byte[] packet;
+        try {
+            packet = received.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interruption in reading packet");
+        }
+        if (packet == END_OF_STREAM) {
+            // keep the marker for other readers
+            received.add(END_OF_STREAM);
+            if (failure != null) {
+                throw toIOException(failure);
+            }
+            return null;
+        }
+        Channel ch = channel;
+        if (!ch.config().isAutoRead()
+                && received.size() <= MAX_RECEIVED_PACKETS / 2) {
+            ch.config().setAutoRead(true);
+        }
+        return packet;
+    }
+
+    /**
+     * Writes packet bytes to the channel without copying them. Unless called
+     * by the event loop, waits for the write while the channel is not
+     * writable.
+     *
+     * @param packet packet as byte array
+     */
+    @Override
+    public void writePacket(byte[] packet) throws IOException {
+        writePacket(Unpooled.wrappedBuffer(packet));
+    }
+
+    /**
+     * Writes buffers to the channel without copying them and flushes them
+     * once, so the channel writes them with gathering writes.
+     *
+     * @param buffers buffers holding packets
+     * @param offset index of the first buffer to write
+     * @param length number of buffers to write
+     */
+    @Override
+    public void writePackets(ByteBuffer[] buffers, int offset, int length)
+            throws IOException {
+        Channel ch = checkOpen();
+        ChannelFuture future = null;
+        for (int i = offset; i < offset + length; i++) {
+            future = ch.write(Unpooled.wrappedBuffer(buffers[i])).addListener(
+                    writeListener);
+        }
+        ch.flush();
+        if (future != null) {
+            awaitWritable(ch, future);
+        }
+    }
+
+    /**
+     * Writes packet held by the buffer to the channel, taking ownership of
+     * the buffer. Unless called by the event loop, waits for the write while
+     * the channel is not writable.
+     *
+     * @param packet buffer holding exactly one packet, including header
+     * @return future of the write
+     */
+    public ChannelFuture writePacket(ByteBuf packet) throws IOException {
+        Channel ch;
+        try {
+            ch = checkOpen();
+        } catch (IOException e) {
+            packet.release();
+            throw e;
+        }
+        ChannelFuture future = ch.writeAndFlush(packet).addListener(
+                writeListener);
+        awaitWritable(ch, future);
+        return future;
+    }
+
+    /**
+     * Adds the JDWP handlers to the pipeline of the channel.
+     *
+     * @return the handshake handler
+     */
+    private JdwpHandshakeHandler initPipeline(final Channel ch) {
+        JdwpHandshakeHandler handshakeHandler = new JdwpHandshakeHandler(ch);
+        // set on the event loop before the packets read after the handshake
+        // reach the packet handler
+        handshakeHandler.handshakeFuture().addListener(future -> {
+            if (future.isSuccess()) {
+                channel = ch;
+            }
+        });
+        ch.pipeline().addLast("jdwpHandshake", handshakeHandler);
+        ch.pipeline().addLast("jdwpFrameDecoder", new JdwpFrameDecoder());
+        ch.pipeline().addLast("jdwpPacketHandler", new PacketReader());
+        return handshakeHandler;
+    }
+
+    /**
+     * Waits for handshake for given timeout and makes the channel the
+     * connection of this transport.
+     */
+    private void handshake(Channel ch, JdwpHandshakeHandler handshakeHandler,
+            long handshakeTimeout) throws IOException {
+        ChannelFuture future = handshakeHandler.handshakeFuture();
+        try {
+            if (handshakeTimeout == 0) {
+                future.await();
+            } else if (!future.await(handshakeTimeout)) {
+                ch.close();
+                throw new SocketTimeoutException(
+                        "Timeout exceeded in handshaking");
+            }
+        } catch (InterruptedException e) {
+            ch.close();
+            throw new InterruptedIOException("Interruption in handshaking");
+        }
+        if (!future.isSuccess()) {
+            ch.close();
+            throw toIOException(future.cause());
+        }
+        channel = ch;
+        if (!ch.isActive()) {
+            terminate(null);
+        }
+    }
+
+    private Channel checkOpen() throws IOException {
+        if (failure != null) {
+            throw toIOException(failure);
+        }
+        Channel ch = channel;
+        if (closed.get() || ch == null) {
+            throw new IOException("Connection is closed");
+        }
+        return ch;
+    }
+
+    private void awaitWritable(Channel ch, ChannelFuture future)
+            throws IOException {
+        if (future == null || ch.isWritable() || ch.eventLoop().inEventLoop()) {
+            return;
+        }
+        try {
+            future.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interruption in writing packet");
+        }
+        if (!future.isSuccess()) {
+            throw toIOException(future.cause());
+        }
+    }
+
+    /**
+     * Wakes up readers and notifies the handler when the connection is
+     * closed.
+     */
+    private void terminate(Throwable cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        received.add(END_OF_STREAM);
+        PacketHandler packetHandler = handler;
+        if (packetHandler != null) {
+            packetHandler.onClosed(cause);
+        }
+    }
+
+    private static void awaitUninterruptibly(ChannelFuture future) {
+        if (!future.channel().eventLoop().inEventLoop()) {
+            future.awaitUninterruptibly();
+        }
+    }
+
+    private static IOException toIOException(Throwable cause) {
+        return cause instanceof IOException ? (IOException) cause
+                : new IOException(cause);
+    }
+
+    private static int parsePort(String address, String portName)
+            throws IOException {
+        try {
+            return Integer.parseInt(portName);
+        } catch (NumberFormatException e) {
+            throw new IOException("Illegal port number in socket address: "
+                    + address);
+        }
+    }
+
+    /**
+     * Last handler of the pipeline, handing received packets on.
+     */
+    private class PacketReader extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf packet = (ByteBuf) msg;
+            PacketHandler packetHandler = handler;
+            if (packetHandler != null) {
+                packetHandler.onPacket(packet);
+                return;
+            }
+            byte[] bytes;
+            try {
+                bytes = ByteBufUtil.getBytes(packet);
+            } finally {
+                packet.release();
+            }
+            if (received.size() + 1 >= MAX_RECEIVED_PACKETS) {
+                // suspend before queueing, so the reader taking this packet
+                // sees it
+                ctx.channel().config().setAutoRead(false);
+            }
+            received.add(bytes);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (ctx.channel() == channel) {
+                terminate(failure);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (failure == null) {
+                failure = cause;
+            }
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package jdi.jdwp.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import jdi.jdwp.Packet;
+
+/**
+ * Moves JDWP packets between {@link Packet} and Netty {@link ByteBuf} without
+ * copying their bytes.
+ */
+public final class PacketByteBufUtil {
+    private PacketByteBufUtil() {
+    }
+
+    /**
+     * Enwraps readable bytes of the buffer either to ReplyPacket or
+     * EventPacket instance. Heap buffers are not copied, so the buffer must
+     * not be released or modified while the packet is in use. The reader
+     * index of the buffer is not changed.
+     *
+     * @param buf buffer holding exactly one JDWP packet
+     * @return new created ReplyPacket or EventPacket
+     */
+    public static Packet interpretPacket(ByteBuf buf) {
+        return Packet.interpretPacket(buf.nioBuffer());
+    }
+
+    /**
+     * Wraps packet bytes, including header, into a buffer which can be
+     * written to a Netty channel. The bytes are shared with the packet.
+     *
+     * @param packet packet to wrap
+     * @return buffer sharing packet bytes
+     */
+    public static ByteBuf toByteBuf(Packet packet) {
+        return Unpooled.wrappedBuffer(packet.asByteBuffer());
+    }
+
+    /**
+     * Wraps packet bytes as returned by TransportWrapper.readPacket() into a
+     * buffer which can be written to a Netty channel without copying.
+     *
+     * @param packet packet as byte array
+     * @return buffer sharing packet bytes
+     */
+    public static ByteBuf toByteBuf(byte[] packet) {
+        return Unpooled.wrappedBuffer(packet);
+    }
+}
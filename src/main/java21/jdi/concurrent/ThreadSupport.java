@@ -0,0 +1,53 @@
+package jdi.concurrent;
+
+/**
+ * Creates threads of the long-running loops of a debug session: packet
+ * readers and writers, timers and background workers. This version, used on
+ * JDK 21 and later, creates virtual threads, so mostly blocked loops of many
+ * sessions do not pin platform threads.
+ */
+public final class ThreadSupport {
+
+    private ThreadSupport() {
+    }
+
+    /**
+     * Checks whether threads created by this class are virtual.
+     * 
+     * @return true for this version
+     */
+    public static boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * Creates unstarted virtual thread running the task.
+     * 
+     * @param name
+     *            name of the thread
+     * @param daemon
+     *            ignored, virtual threads are always daemon
+     * @param task
+     *            task to run
+     * @return the thread
+     */
+    public static Thread newThread(String name, boolean daemon, Runnable task) {
+        return Thread.ofVirtual().name(name).unstarted(task);
+    }
+
+    /**
+     * Creates unstarted virtual thread running the task. Priority of virtual
+     * threads cannot be changed.
+     * 
+     * @param name
+     *            name of the thread
+     * @param priority
+     *            ignored
+     * @param task
+     *            task to run
+     * @return the thread
+     */
+    public static Thread newThread(String name, int priority, Runnable task) {
+        return newThread(name, true, task);
+    }
+}
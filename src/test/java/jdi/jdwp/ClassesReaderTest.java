@@ -0,0 +1,148 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+import org.junit.Test;
+
+public class ClassesReaderTest {
+
+    private static final IDSizes SIZES = new IDSizes(8, 8, 8, 4, 8);
+
+    private static final int COUNT = 1000;
+
+    @Test
+    public void allClassesWithGenericAreStreamed() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setIDSizes(SIZES);
+        reply.setNextValueAsInt(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            reply.setNextValueAsByte(JDWPConstants.TypeTag.CLASS);
+            reply.setNextValueAsReferenceTypeID(i);
+            reply.setNextValueAsString(signature(i));
+            reply.setNextValueAsString(i % 10 == 0 ? "Ljava/util/List<TT;>;"
+                    : "");
+            reply.setNextValueAsInt(JDWPConstants.ClassStatus.VERIFIED);
+        }
+        ReplyPacket read = read(reply);
+
+        ClassesReader classes = ClassesReader.forAllClassesWithGeneric(read);
+        assertEquals(COUNT, classes.getClassesCount());
+        EncodedString signature = null;
+        int found = 0;
+        for (int i = 0; i < COUNT; i++) {
+            assertTrue(classes.next());
+            assertEquals(i, classes.getTypeID());
+            assertEquals(JDWPConstants.TypeTag.CLASS, classes.getRefTypeTag());
+            assertEquals(JDWPConstants.ClassStatus.VERIFIED,
+                    classes.getStatus());
+            if (signature != null) {
+                // one entry object is reused for all classes
+                assertSame(signature, classes.getSignature());
+            }
+            signature = classes.getSignature();
+            if (signature.startsWith("Lcom/example/")) {
+                found++;
+                assertTrue(signature.contentEquals(signature(i)));
+                assertEquals(signature(i), signature.toString());
+            }
+            assertEquals(i % 10 == 0 ? 21 : 0, classes.getGenericSignature()
+                    .getEncodedLength());
+        }
+        assertFalse(classes.next());
+        assertFalse(classes.next());
+        assertEquals(COUNT / 7 + 1, found);
+
+        // the reader does not move the reply
+        assertEquals(COUNT, read.getNextValueAsInt());
+    }
+
+    @Test
+    public void classesBySignatureHaveNoSignature() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setIDSizes(SIZES);
+        reply.setNextValueAsInt(1);
+        reply.setNextValueAsByte(JDWPConstants.TypeTag.INTERFACE);
+        reply.setNextValueAsReferenceTypeID(-3);
+        reply.setNextValueAsInt(JDWPConstants.ClassStatus.PREPARED);
+
+        ClassesReader classes = ClassesReader.forClassesBySignature(read(reply));
+        assertTrue(classes.next());
+        assertEquals(JDWPConstants.TypeTag.INTERFACE, classes.getRefTypeTag());
+        assertEquals(-3, classes.getTypeID());
+        assertEquals(JDWPConstants.ClassStatus.PREPARED, classes.getStatus());
+        try {
+            classes.getSignature();
+            fail("reply has no signatures");
+        } catch (TestErrorException e) {
+            // expected
+        }
+        assertFalse(classes.next());
+    }
+
+    @Test
+    public void visibleClassesHaveTagAndIDOnly() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setIDSizes(SIZES);
+        reply.setNextValueAsInt(2);
+        reply.setNextValueAsByte(JDWPConstants.TypeTag.CLASS);
+        reply.setNextValueAsReferenceTypeID(1);
+        reply.setNextValueAsByte(JDWPConstants.TypeTag.ARRAY);
+        reply.setNextValueAsReferenceTypeID(2);
+
+        ClassesReader classes = ClassesReader.forVisibleClasses(read(reply));
+        assertTrue(classes.next());
+        assertTrue(classes.next());
+        assertEquals(JDWPConstants.TypeTag.ARRAY, classes.getRefTypeTag());
+        assertEquals(2, classes.getTypeID());
+        try {
+            classes.getStatus();
+            fail("reply has no status");
+        } catch (TestErrorException e) {
+            // expected
+        }
+        assertFalse(classes.next());
+    }
+
+    @Test
+    public void signatureIsTakenFromCache() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setIDSizes(SIZES);
+        reply.setNextValueAsInt(2);
+        for (int i = 0; i < 2; i++) {
+            reply.setNextValueAsByte(JDWPConstants.TypeTag.CLASS);
+            reply.setNextValueAsReferenceTypeID(i);
+            reply.setNextValueAsString("Ljava/lang/String;");
+            reply.setNextValueAsInt(0);
+        }
+        StringCache cache = new StringCache(16);
+        ClassesReader classes = ClassesReader.forAllClasses(read(reply));
+        assertTrue(classes.next());
+        String first = classes.getSignature().toString(cache);
+        assertTrue(classes.next());
+        assertSame(first, classes.getSignature().toString(cache));
+    }
+
+    @Test(expected = TestErrorException.class)
+    public void noCurrentClassBeforeNext() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setNextValueAsInt(0);
+        ClassesReader.forVisibleClasses(read(reply)).getTypeID();
+    }
+
+    private static String signature(int i) {
+        return i % 7 == 0 ? "Lcom/example/C" + i + ";" : "Lorg/other/C" + i
+                + ";";
+    }
+
+    private static ReplyPacket read(ReplyPacket reply) {
+        ReplyPacket res = new ReplyPacket(reply.toBytesArray());
+        res.setIDSizes(SIZES);
+        return res;
+    }
+}
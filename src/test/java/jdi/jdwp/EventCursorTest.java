@@ -0,0 +1,198 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+import org.junit.Test;
+
+public class EventCursorTest {
+
+    /**
+     * Object and reference type IDs differ in size, so skipping one for the
+     * other loses the position.
+     */
+    private static final IDSizes SIZES = new IDSizes(2, 8, 8, 4, 8);
+
+    private static final byte[] KINDS = { JDWPConstants.EventKind.VM_START,
+            JDWPConstants.EventKind.SINGLE_STEP,
+            JDWPConstants.EventKind.BREAKPOINT,
+            JDWPConstants.EventKind.METHOD_ENTRY,
+            JDWPConstants.EventKind.METHOD_EXIT,
+            JDWPConstants.EventKind.METHOD_EXIT_WITH_RETURN_VALUE,
+            JDWPConstants.EventKind.MONITOR_CONTENDED_ENTER,
+            JDWPConstants.EventKind.MONITOR_CONTENDED_ENTERED,
+            JDWPConstants.EventKind.MONITOR_WAIT,
+            JDWPConstants.EventKind.MONITOR_WAITED,
+            JDWPConstants.EventKind.EXCEPTION,
+            JDWPConstants.EventKind.THREAD_START,
+            JDWPConstants.EventKind.THREAD_DEATH,
+            JDWPConstants.EventKind.CLASS_PREPARE,
+            JDWPConstants.EventKind.CLASS_UNLOAD,
+            JDWPConstants.EventKind.FIELD_ACCESS,
+            JDWPConstants.EventKind.FIELD_MODIFICATION,
+            JDWPConstants.EventKind.VM_DEATH };
+
+    @Test
+    public void skipsEveryEventKind() {
+        EventPacket packet = events();
+        EventCursor cursor = new EventCursor(packet);
+        assertEquals(JDWPConstants.SuspendPolicy.ALL,
+                cursor.getSuspendPolicy());
+        assertEquals(KINDS.length, cursor.getEventsCount());
+        for (int i = 0; i < KINDS.length; i++) {
+            assertTrue(cursor.next());
+            assertEquals(i, cursor.getEventIndex());
+            assertEquals(KINDS[i], cursor.getEventKind());
+            assertEquals(100 + i, cursor.getRequestID());
+            if (cursor.hasThreadID()) {
+                assertEquals(thread(i), cursor.getThreadID());
+            }
+        }
+        assertFalse(cursor.next());
+        assertFalse(cursor.next());
+
+        // the cursor does not move the packet
+        assertEquals(JDWPConstants.SuspendPolicy.ALL,
+                packet.getNextValueAsByte());
+    }
+
+    @Test
+    public void skippedAndParsedEventsAgree() {
+        EventPacket packet = events();
+        EventCursor cursor = new EventCursor(packet);
+        ParsedEvent[] parsed = ParsedEvent.parseEventPacket(events());
+        assertEquals(KINDS.length, parsed.length);
+        for (int i = 0; i < KINDS.length; i++) {
+            assertTrue(cursor.next());
+            // parse every other event, skip the rest
+            if (i % 2 == 0) {
+                ParsedEvent event = cursor.parse();
+                assertEquals(KINDS[i], event.getEventKind());
+                assertEquals(100 + i, event.getRequestID());
+            }
+            assertEquals(parsed[i].getEventKind(), cursor.getEventKind());
+            assertEquals(parsed[i].getRequestID(), cursor.getRequestID());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void cursorIsReused() {
+        EventCursor cursor = new EventCursor(events());
+        assertTrue(cursor.next());
+        EventPacket single = new EventPacket();
+        single.setIDSizes(SIZES);
+        single.setNextValueAsByte(JDWPConstants.SuspendPolicy.NONE);
+        single.setNextValueAsInt(1);
+        writeEvent(single, JDWPConstants.EventKind.VM_DEATH, 7);
+
+        cursor.reset(new EventPacket(single.toBytesArray()));
+        assertEquals(-1, cursor.getEventIndex());
+        assertTrue(cursor.next());
+        assertEquals(JDWPConstants.EventKind.VM_DEATH, cursor.getEventKind());
+        assertFalse(cursor.hasThreadID());
+        assertFalse(cursor.next());
+    }
+
+    @Test(expected = TestErrorException.class)
+    public void noCurrentEventBeforeNext() {
+        new EventCursor(events()).getEventKind();
+    }
+
+    private static EventPacket events() {
+        EventPacket packet = new EventPacket();
+        packet.setIDSizes(SIZES);
+        packet.setNextValueAsByte(JDWPConstants.SuspendPolicy.ALL);
+        packet.setNextValueAsInt(KINDS.length);
+        for (int i = 0; i < KINDS.length; i++) {
+            writeEvent(packet, KINDS[i], i);
+        }
+        EventPacket res = new EventPacket(packet.toBytesArray());
+        res.setIDSizes(SIZES);
+        return res;
+    }
+
+    private static long thread(int i) {
+        return 0x1000000000L + i;
+    }
+
+    private static void writeEvent(Packet packet, byte kind, int i) {
+        Location location = new Location(JDWPConstants.TypeTag.CLASS, 11, 12,
+                13);
+        TaggedObject object = new TaggedObject(JDWPConstants.Tag.OBJECT_TAG,
+                14);
+        packet.setNextValueAsByte(kind);
+        packet.setNextValueAsInt(100 + i);
+        switch (kind) {
+        case JDWPConstants.EventKind.VM_START:
+        case JDWPConstants.EventKind.THREAD_START:
+        case JDWPConstants.EventKind.THREAD_DEATH:
+            packet.setNextValueAsThreadID(thread(i));
+            break;
+        case JDWPConstants.EventKind.SINGLE_STEP:
+        case JDWPConstants.EventKind.BREAKPOINT:
+        case JDWPConstants.EventKind.METHOD_ENTRY:
+        case JDWPConstants.EventKind.METHOD_EXIT:
+            packet.setNextValueAsThreadID(thread(i));
+            packet.setNextValueAsLocation(location);
+            break;
+        case JDWPConstants.EventKind.METHOD_EXIT_WITH_RETURN_VALUE:
+            packet.setNextValueAsThreadID(thread(i));
+            packet.setNextValueAsLocation(location);
+            packet.setNextValueAsValue(Value.createLong(15));
+            break;
+        case JDWPConstants.EventKind.MONITOR_CONTENDED_ENTER:
+        case JDWPConstants.EventKind.MONITOR_CONTENDED_ENTERED:
+            packet.setNextValueAsThreadID(thread(i));
+            packet.setNextValueAsTaggedObject(object);
+            packet.setNextValueAsLocation(location);
+            break;
+        case JDWPConstants.EventKind.MONITOR_WAIT:
+            packet.setNextValueAsThreadID(thread(i));
+            packet.setNextValueAsTaggedObject(object);
+            packet.setNextValueAsLocation(location);
+            packet.setNextValueAsLong(16);
+            break;
+        case JDWPConstants.EventKind.MONITOR_WAITED:
+            packet.setNextValueAsThreadID(thread(i));
+            packet.setNextValueAsTaggedObject(object);
+            packet.setNextValueAsLocation(location);
+            packet.setNextValueAsBoolean(true);
+            break;
+        case JDWPConstants.EventKind.EXCEPTION:
+            packet.setNextValueAsThreadID(thread(i));
+            packet.setNextValueAsLocation(location);
+            packet.setNextValueAsTaggedObject(object);
+            packet.setNextValueAsLocation(location);
+            break;
+        case JDWPConstants.EventKind.CLASS_PREPARE:
+            packet.setNextValueAsThreadID(thread(i));
+            packet.setNextValueAsByte(JDWPConstants.TypeTag.CLASS);
+            packet.setNextValueAsReferenceTypeID(17);
+            packet.setNextValueAsString("Ljava/lang/Object;");
+            packet.setNextValueAsInt(JDWPConstants.ClassStatus.PREPARED);
+            break;
+        case JDWPConstants.EventKind.CLASS_UNLOAD:
+            packet.setNextValueAsString("Lgone/Class;");
+            break;
+        case JDWPConstants.EventKind.FIELD_ACCESS:
+        case JDWPConstants.EventKind.FIELD_MODIFICATION:
+            packet.setNextValueAsThreadID(thread(i));
+            packet.setNextValueAsLocation(location);
+            packet.setNextValueAsByte(JDWPConstants.TypeTag.CLASS);
+            packet.setNextValueAsReferenceTypeID(17);
+            packet.setNextValueAsFieldID(18);
+            packet.setNextValueAsTaggedObject(object);
+            if (kind == JDWPConstants.EventKind.FIELD_MODIFICATION) {
+                packet.setNextValueAsValue(Value.createObjectValue(
+                        JDWPConstants.Tag.STRING_TAG, 19));
+            }
+            break;
+        default:
+            break;
+        }
+    }
+}
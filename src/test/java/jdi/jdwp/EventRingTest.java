@@ -0,0 +1,128 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EventRingTest {
+
+    @Test
+    public void emptyRing() throws InterruptedException {
+        EventRing<EventPacket> ring = new EventRing<EventPacket>(4);
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.size());
+        assertNull(ring.poll());
+        assertFalse(ring.awaitNotEmpty(10));
+    }
+
+    @Test
+    public void fullRing() {
+        EventRing<EventPacket> ring = new EventRing<EventPacket>(3);
+        assertEquals(4, ring.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(new EventPacket()));
+        }
+        assertFalse(ring.offer(new EventPacket()));
+        assertEquals(4, ring.size());
+        ring.poll();
+        assertTrue(ring.offer(new EventPacket()));
+    }
+
+    @Test
+    public void eventsAreTakenInOrderAcrossLaps() {
+        EventRing<EventPacket> ring = new EventRing<EventPacket>(2);
+        EventPacket[] events = new EventPacket[7];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new EventPacket();
+            assertTrue(ring.offer(events[i]));
+            assertSame(events[i], ring.poll());
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void drainToTakesAtMostMaxEvents() {
+        EventRing<EventPacket> ring = new EventRing<EventPacket>(8);
+        for (int i = 0; i < 5; i++) {
+            ring.offer(new EventPacket());
+        }
+        List<EventPacket> events = new ArrayList<EventPacket>();
+        assertEquals(3, ring.drainTo(events, 3));
+        assertEquals(2, ring.drainTo(events, 3));
+        assertEquals(5, events.size());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void putWaitsWhileFull() throws InterruptedException {
+        final EventRing<EventPacket> ring = new EventRing<EventPacket>(2);
+        ring.offer(new EventPacket());
+        ring.offer(new EventPacket());
+        final EventPacket last = new EventPacket();
+        final boolean[] put = new boolean[1];
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    put[0] = ring.put(last);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        writer.start();
+        writer.join(100);
+        assertTrue(writer.isAlive());
+        ring.poll();
+        writer.join(10000);
+        assertTrue(put[0]);
+        ring.poll();
+        assertSame(last, ring.poll());
+    }
+
+    @Test
+    public void terminateWakesUpWaitingWriter() throws InterruptedException {
+        final EventRing<EventPacket> ring = new EventRing<EventPacket>(2);
+        ring.offer(new EventPacket());
+        ring.offer(new EventPacket());
+        final boolean[] put = { true };
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    put[0] = ring.put(new EventPacket());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        writer.start();
+        writer.join(100);
+        ring.terminate();
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertFalse(put[0]);
+    }
+
+    @Test
+    public void terminatedRingRefusesEvents() throws InterruptedException {
+        EventRing<EventPacket> ring = new EventRing<EventPacket>(4);
+        EventPacket first = new EventPacket();
+        assertTrue(ring.offer(first));
+        ring.terminate();
+        assertTrue(ring.isTerminated());
+        assertFalse(ring.offer(new EventPacket()));
+        assertFalse(ring.put(new EventPacket()));
+        assertEquals(1, ring.size());
+
+        // events put before are still taken
+        assertSame(first, ring.poll());
+        assertTrue(ring.isEmpty());
+        assertFalse(ring.awaitNotEmpty(0));
+    }
+}
@@ -0,0 +1,154 @@
+package jdi.jdwp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Debuggee answering the JDWP handshake and returning each command as its
+ * reply, for tests of transports. A command shorter than the packet header
+ * makes it close the connection.
+ */
+public class FakeVm implements Closeable {
+
+    /**
+     * ID of the first event packet sent after the handshake.
+     */
+    public static final int FIRST_EVENT_ID = 1000000;
+
+    private final ServerSocket server;
+
+    private final List<Socket> connections = new ArrayList<Socket>();
+
+    /**
+     * Starts listening on a free loopback port.
+     *
+     * @param events
+     *            number of empty event packets sent after the handshake
+     */
+    public FakeVm(final int events) throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        synchronized (connections) {
+                            connections.add(socket);
+                        }
+                        serveInBackground(socket.getInputStream(),
+                                socket.getOutputStream(), socket, events);
+                    }
+                } catch (IOException e) {
+                    // server is closed
+                }
+            }
+        }, "FakeVm acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return address to attach to, as "127.0.0.1:port".
+     */
+    public String getAddress() {
+        return server.getInetAddress().getHostAddress() + ":"
+                + server.getLocalPort();
+    }
+
+    /**
+     * Closes the server and all the connections.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Serves one connection by a daemon thread, closing it at the end.
+     */
+    public static Thread serveInBackground(final InputStream in,
+            final OutputStream out, final Closeable connection,
+            final int events) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    serve(in, out, events);
+                } catch (IOException e) {
+                    // connection is closed
+                } finally {
+                    try {
+                        connection.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }, "FakeVm connection");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Answers the handshake, sends the events and then returns commands as
+     * replies until the connection is closed.
+     */
+    public static void serve(InputStream input, OutputStream output,
+            int events) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                input));
+        OutputStream out = new BufferedOutputStream(output);
+        byte[] handshake = new byte[SocketTransportWrapper.HANDSHAKE_STRING
+                .length()];
+        in.readFully(handshake);
+        out.write(handshake);
+        for (int i = 0; i < events; i++) {
+            out.write(event(FIRST_EVENT_ID + i));
+        }
+        out.flush();
+        while (true) {
+            int length = in.readInt();
+            if (length < Packet.HEADER_SIZE) {
+                return;
+            }
+            byte[] packet = new byte[length];
+            for (int i = 0; i < Packet.INT_SIZE; i++) {
+                packet[i] = (byte) (length >>> (24 - 8 * i));
+            }
+            in.readFully(packet, Packet.INT_SIZE, length - Packet.INT_SIZE);
+            packet[Packet.FLAGS_INDEX] = (byte) Packet.REPLY_PACKET_FLAG;
+            packet[Packet.FLAGS_INDEX + 1] = 0;
+            packet[Packet.FLAGS_INDEX + 2] = 0;
+            out.write(packet);
+            if (in.available() == 0) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Creates composite event packet holding no events.
+     */
+    public static byte[] event(int id) {
+        EventPacket packet = new EventPacket();
+        packet.setId(id);
+        packet.setNextValueAsByte(JDWPConstants.SuspendPolicy.NONE);
+        packet.setNextValueAsInt(0);
+        return packet.toBytesArray();
+    }
+}
@@ -0,0 +1,160 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import jdi.jdwp.commands.ArrayReferenceCommands;
+import jdi.jdwp.commands.ClassTypeCommands;
+import jdi.jdwp.commands.ThreadReferenceCommands;
+import jdi.jdwp.commands.VirtualMachineCommands;
+import jdi.jdwp.exceptions.TestErrorException;
+
+import org.junit.Test;
+
+public class GeneratedCommandsTest {
+
+    private static final IDSizes SIZES = new IDSizes(4, 8, 8, 4, 8);
+
+    @Test
+    public void framesCommandIsEncoded() {
+        CommandPacket generated = ThreadReferenceCommands.Frames.encode(
+                SIZES, 0x123456789L, 2, -1);
+
+        CommandPacket manual = command(
+                JDWPCommands.ThreadReferenceCommandSet.CommandSetID,
+                JDWPCommands.ThreadReferenceCommandSet.FramesCommand);
+        manual.setNextValueAsThreadID(0x123456789L);
+        manual.setNextValueAsInt(2);
+        manual.setNextValueAsInt(-1);
+        assertEncoded(manual, generated);
+        assertEquals(ThreadReferenceCommands.Frames.getDataSize(SIZES, 0, 0,
+                0), generated.getLength() - Packet.HEADER_SIZE);
+    }
+
+    @Test
+    public void invokeMethodCommandIsEncoded() {
+        Value[] args = { Value.createInt(5),
+                Value.createObjectValue(JDWPConstants.Tag.STRING_TAG, 6),
+                Value.createDouble(0.5) };
+        CommandPacket generated = ClassTypeCommands.InvokeMethod.encode(SIZES,
+                1, 2, 3, args, JDWPConstants.InvokeOptions.INVOKE_SINGLE_THREADED);
+
+        CommandPacket manual = command(
+                JDWPCommands.ClassTypeCommandSet.CommandSetID,
+                JDWPCommands.ClassTypeCommandSet.InvokeMethodCommand);
+        manual.setNextValueAsClassID(1);
+        manual.setNextValueAsThreadID(2);
+        manual.setNextValueAsMethodID(3);
+        manual.setNextValueAsInt(args.length);
+        for (Value arg : args) {
+            manual.setNextValueAsValue(arg);
+        }
+        manual.setNextValueAsInt(JDWPConstants.InvokeOptions.INVOKE_SINGLE_THREADED);
+        assertEncoded(manual, generated);
+    }
+
+    @Test
+    public void setValuesCommandWritesUntaggedValues() {
+        Value[] values = { Value.createShort((short) 7),
+                Value.createShort((short) -8) };
+        CommandPacket generated = ArrayReferenceCommands.SetValues.encode(
+                SIZES, 9, 10, values);
+
+        CommandPacket manual = command(
+                JDWPCommands.ArrayReferenceCommandSet.CommandSetID,
+                JDWPCommands.ArrayReferenceCommandSet.SetValuesCommand);
+        manual.setNextValueAsArrayID(9);
+        manual.setNextValueAsInt(10);
+        manual.setNextValueAsInt(values.length);
+        manual.setNextValueAsShort((short) 7);
+        manual.setNextValueAsShort((short) -8);
+        assertEncoded(manual, generated);
+    }
+
+    @Test
+    public void allClassesReplyIsDecoded() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setIDSizes(SIZES);
+        reply.setNextValueAsInt(2);
+        reply.setNextValueAsByte(JDWPConstants.TypeTag.CLASS);
+        reply.setNextValueAsReferenceTypeID(11);
+        reply.setNextValueAsString("Ljava/lang/Object;");
+        reply.setNextValueAsInt(JDWPConstants.ClassStatus.INITIALIZED);
+        reply.setNextValueAsByte(JDWPConstants.TypeTag.INTERFACE);
+        reply.setNextValueAsReferenceTypeID(-12);
+        reply.setNextValueAsString("Ljava/lang/Runnable;");
+        reply.setNextValueAsInt(JDWPConstants.ClassStatus.PREPARED);
+
+        VirtualMachineCommands.AllClasses.Reply decoded = new VirtualMachineCommands.AllClasses.Reply(
+                read(reply));
+        assertEquals(2, decoded.classes.length);
+        assertEquals(JDWPConstants.TypeTag.CLASS,
+                decoded.classes[0].refTypeTag);
+        assertEquals(11, decoded.classes[0].typeID);
+        assertEquals("Ljava/lang/Object;", decoded.classes[0].signature);
+        assertEquals(JDWPConstants.ClassStatus.INITIALIZED,
+                decoded.classes[0].status);
+        assertEquals(JDWPConstants.TypeTag.INTERFACE,
+                decoded.classes[1].refTypeTag);
+        assertEquals(-12, decoded.classes[1].typeID);
+        assertEquals("Ljava/lang/Runnable;", decoded.classes[1].signature);
+    }
+
+    @Test
+    public void framesReplyIsDecoded() {
+        Location location = new Location(JDWPConstants.TypeTag.CLASS, 1, 2, 3);
+        ReplyPacket reply = new ReplyPacket();
+        reply.setIDSizes(SIZES);
+        reply.setNextValueAsInt(1);
+        reply.setNextValueAsFrameID(0x7000000000L);
+        reply.setNextValueAsLocation(location);
+
+        ThreadReferenceCommands.Frames.Reply decoded = new ThreadReferenceCommands.Frames.Reply(
+                read(reply));
+        assertEquals(1, decoded.frames.length);
+        assertEquals(0x7000000000L, decoded.frames[0].frameID);
+        assertEquals(location, decoded.frames[0].location);
+    }
+
+    @Test
+    public void countBeyondDataIsRejected() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setIDSizes(SIZES);
+        reply.setNextValueAsInt(Integer.MAX_VALUE);
+        reply.setNextValueAsThreadID(1);
+        try {
+            new VirtualMachineCommands.AllThreads.Reply(read(reply));
+            throw new AssertionError("count is not checked");
+        } catch (TestErrorException e) {
+            // expected, nothing is allocated
+        }
+
+        reply = new ReplyPacket();
+        reply.setNextValueAsInt(-1);
+        try {
+            new VirtualMachineCommands.ClassPaths.Reply(read(reply));
+            throw new AssertionError("string is not checked");
+        } catch (TestErrorException e) {
+            // expected
+        }
+    }
+
+    private static CommandPacket command(byte commandSet, byte command) {
+        CommandPacket packet = new CommandPacket(commandSet, command);
+        packet.setIDSizes(SIZES);
+        return packet;
+    }
+
+    private static ReplyPacket read(ReplyPacket reply) {
+        ReplyPacket res = new ReplyPacket(reply.toBytesArray());
+        res.setIDSizes(SIZES);
+        return res;
+    }
+
+    private static void assertEncoded(CommandPacket expected,
+            CommandPacket actual) {
+        assertEquals(expected.getCommandSet(), actual.getCommandSet());
+        assertEquals(expected.getCommand(), actual.getCommand());
+        assertArrayEquals(expected.toBytesArray(), actual.toBytesArray());
+    }
+}
@@ -0,0 +1,114 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+import org.junit.Test;
+
+public class IDSizesTest {
+
+    @Test
+    public void eightByteIDsKeepAllBits() {
+        IDSizes sizes = new IDSizes(8, 8, 8, 8, 8);
+        Packet packet = new Packet();
+        packet.setIDSizes(sizes);
+        packet.setNextValueAsObjectID(0x8123456789ABCDEFL);
+        packet.setNextValueAsReferenceTypeID(0x1234567890L);
+        packet.setNextValueAsMethodID(-5);
+        packet.setNextValueAsFieldID(0xFFFFFFFFL);
+        packet.setNextValueAsFrameID(Long.MIN_VALUE);
+        assertEquals(Packet.HEADER_SIZE + 5 * 8, packet.getLength());
+
+        Packet read = new Packet(packet.toBytesArray());
+        read.setIDSizes(sizes);
+        assertEquals(0x8123456789ABCDEFL, read.getNextValueAsObjectID());
+        assertEquals(0x1234567890L, read.getNextValueAsReferenceTypeID());
+        assertEquals(-5, read.getNextValueAsMethodID());
+        assertEquals(0xFFFFFFFFL, read.getNextValueAsFieldID());
+        assertEquals(Long.MIN_VALUE, read.getNextValueAsFrameID());
+        assertTrue(read.isAllDataRead());
+    }
+
+    @Test
+    public void fourByteObjectIDsAreSignExtended() {
+        IDSizes sizes = new IDSizes(4, 4, 4, 4, 4);
+        Packet packet = new Packet();
+        packet.setIDSizes(sizes);
+        packet.setNextValueAsObjectID(0xFFFFFFF0L);
+        packet.setNextValueAsClassID(-2);
+        packet.setNextValueAsObjectID(0x7FFFFFFF);
+        assertEquals(Packet.HEADER_SIZE + 3 * 4, packet.getLength());
+
+        Packet read = new Packet(packet.toBytesArray());
+        read.setIDSizes(sizes);
+        assertEquals(-16, read.getNextValueAsObjectID());
+        assertEquals(-2, read.getNextValueAsClassID());
+        assertEquals(0x7FFFFFFF, read.getNextValueAsObjectID());
+    }
+
+    @Test
+    public void fourByteOtherIDsAreZeroExtended() {
+        IDSizes sizes = new IDSizes(4, 4, 4, 4, 4);
+        Packet packet = new Packet();
+        packet.setIDSizes(sizes);
+        packet.setNextValueAsMethodID(-1);
+        packet.setNextValueAsFieldID(0x80000000L);
+        packet.setNextValueAsFrameID(7);
+
+        Packet read = new Packet(packet.toBytesArray());
+        read.setIDSizes(sizes);
+        assertEquals(0xFFFFFFFFL, read.getNextValueAsMethodID());
+        assertEquals(0x80000000L, read.getNextValueAsFieldID());
+        assertEquals(7, read.getNextValueAsFrameID());
+        assertTrue(read.isAllDataRead());
+    }
+
+    @Test
+    public void otherSizesAreSupported() {
+        IDSizes sizes = new IDSizes(2, 3, 2, 6, 1);
+        Packet packet = new Packet();
+        packet.setIDSizes(sizes);
+        packet.setNextValueAsFieldID(0xABCD);
+        packet.setNextValueAsMethodID(0x123456);
+        packet.setNextValueAsObjectID(0xFFFF);
+        packet.setNextValueAsReferenceTypeID(0x123456789ABCL);
+        packet.setNextValueAsFrameID(0x1FF);
+        assertEquals(Packet.HEADER_SIZE + 14, packet.getLength());
+
+        Packet read = new Packet(packet.toBytesArray());
+        read.setIDSizes(sizes);
+        assertEquals(0xABCD, read.getNextValueAsFieldID());
+        assertEquals(0x123456, read.getNextValueAsMethodID());
+        assertEquals(0xFFFF, read.getNextValueAsObjectID());
+        assertEquals(0x123456789ABCL, read.getNextValueAsReferenceTypeID());
+        assertEquals(0xFF, read.getNextValueAsFrameID());
+    }
+
+    @Test
+    public void sizesAreReadFromReply() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setNextValueAsInt(8);
+        reply.setNextValueAsInt(4);
+        reply.setNextValueAsInt(8);
+        reply.setNextValueAsInt(4);
+        reply.setNextValueAsInt(8);
+        ReplyPacket read = new ReplyPacket(reply.toBytesArray());
+
+        IDSizes sizes = IDSizes.fromReply(read);
+        assertEquals(8, sizes.getFieldIDSize());
+        assertEquals(4, sizes.getMethodIDSize());
+        assertEquals(8, sizes.getObjectIDSize());
+        assertEquals(4, sizes.getReferenceTypeIDSize());
+        assertEquals(8, sizes.getFrameIDSize());
+        assertEquals(1 + 4 + 4 + 8, sizes.getLocationSize());
+        // the reading position is restored
+        assertEquals(8, read.getNextValueAsInt());
+    }
+
+    @Test(expected = TestErrorException.class)
+    public void improperSizeIsRejected() {
+        new IDSizes(8, 8, 9, 8, 8);
+    }
+}
@@ -0,0 +1,123 @@
+package jdi.jdwp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Transport answering commands of the dispatcher in memory, for tests.
+ */
+class LoopbackTransport implements TransportWrapper {
+
+    /**
+     * Answers one command, or returns null to leave it unanswered.
+     */
+    interface Responder {
+        ReplyPacket reply(CommandPacket command);
+    }
+
+    private final BlockingQueue<byte[]> incoming = new LinkedBlockingQueue<byte[]>();
+
+    private final List<CommandPacket> commands = new ArrayList<CommandPacket>();
+
+    private final List<Integer> writes = new ArrayList<Integer>();
+
+    private final Responder responder;
+
+    private volatile boolean open = true;
+
+    LoopbackTransport(Responder responder) {
+        this.responder = responder;
+    }
+
+    /**
+     * Queues packet to be read by the dispatcher.
+     */
+    void receive(Packet packet) {
+        incoming.add(packet.toBytesArray());
+    }
+
+    /**
+     * @return commands written so far.
+     */
+    synchronized List<CommandPacket> getCommands() {
+        return new ArrayList<CommandPacket>(commands);
+    }
+
+    /**
+     * @return number of packets in each write so far.
+     */
+    synchronized List<Integer> getWrites() {
+        return new ArrayList<Integer>(writes);
+    }
+
+    @Override
+    public String startListening(String address) {
+        return address;
+    }
+
+    @Override
+    public void stopListening() {
+    }
+
+    @Override
+    public void accept(long acceptTimeout, long handshakeTimeout) {
+    }
+
+    @Override
+    public void attach(String address, long attachTimeout,
+            long handshakeTimeout) {
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        incoming.add(new byte[0]);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public byte[] readPacket() throws IOException {
+        try {
+            return incoming.take();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void writePacket(byte[] packet) throws IOException {
+        if (!open) {
+            throw new IOException("Transport is closed");
+        }
+        List<ReplyPacket> replies = new ArrayList<ReplyPacket>();
+        synchronized (this) {
+            int count = 0;
+            for (int offset = 0; offset < packet.length; count++) {
+                int length = Packet.getPacketLength(Arrays.copyOfRange(packet,
+                        offset, offset + Packet.HEADER_SIZE));
+                CommandPacket command = new CommandPacket(Arrays.copyOfRange(
+                        packet, offset, offset + length));
+                commands.add(command);
+                ReplyPacket reply = responder.reply(command);
+                if (reply != null) {
+                    reply.setId(command.getId());
+                    reply.setFlags((byte) Packet.REPLY_PACKET_FLAG);
+                    replies.add(reply);
+                }
+                offset += length;
+            }
+            writes.add(count);
+        }
+        for (ReplyPacket reply : replies) {
+            receive(reply);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class NioTransportWrapperTest {
+
+    private FakeVm vm;
+
+    private SelectorLoop loop;
+
+    private final List<NioTransportWrapper> transports = new ArrayList<NioTransportWrapper>();
+
+    @BeforeClass
+    public static void installLog() {
+        TestLog.install();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        vm = new FakeVm(3);
+        loop = new SelectorLoop("NioTransportWrapperTest loop");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (NioTransportWrapper transport : transports) {
+            transport.close();
+        }
+        loop.close();
+        vm.close();
+    }
+
+    private NioTransportWrapper attach() throws IOException {
+        NioTransportWrapper transport = new NioTransportWrapper(loop);
+        transports.add(transport);
+        transport.attach(vm.getAddress(), 5000, 5000);
+        return transport;
+    }
+
+    @Test
+    public void packetsAreReadAndWritten() throws IOException {
+        NioTransportWrapper transport = attach();
+        assertTrue(transport.isOpen());
+        for (int i = 0; i < 3; i++) {
+            byte[] event = transport.readPacket();
+            assertEquals(FakeVm.FIRST_EVENT_ID + i, new EventPacket(event)
+                    .getId());
+        }
+
+        // packets shorter and longer than the read buffer
+        int[] sizes = { 0, 100, NioTransportWrapper.BUFFER_SIZE
+                - Packet.HEADER_SIZE, NioTransportWrapper.BUFFER_SIZE,
+                300000 };
+        for (int i = 0; i < sizes.length; i++) {
+            transport.writePacket(command(i + 1, sizes[i]).toBytesArray());
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            assertReply(transport.readPacket(), i + 1, sizes[i]);
+        }
+    }
+
+    @Test
+    public void dispatchersShareOneLoop() throws Exception {
+        List<PacketDispatcher> dispatchers = new ArrayList<PacketDispatcher>();
+        for (int i = 0; i < 4; i++) {
+            PacketDispatcher dispatcher = new PacketDispatcher(attach(), null,
+                    TestLog.logWriter());
+            dispatcher.start();
+            dispatchers.add(dispatcher);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final PacketDispatcher dispatcher : dispatchers) {
+                for (int n = 0; n < 2; n++) {
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < 300; i++) {
+                            ReplyPacket reply = dispatcher.performCommand(
+                                    command(0, i), 5000);
+                            assertEquals(Packet.HEADER_SIZE + i,
+                                    reply.getLength());
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // events may be taken in more than one batch
+        int events = 0;
+        while (events < 3) {
+            events += dispatchers.get(0).receiveEvents(3 - events, 5000)
+                    .size();
+        }
+    }
+
+    @Test
+    public void listenerGetsPacketsOnLoop() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final CountDownLatch allReceived = new CountDownLatch(1003);
+        final CountDownLatch closed = new CountDownLatch(1);
+        NioTransportWrapper transport = new NioTransportWrapper(loop);
+        transports.add(transport);
+        transport.setPacketListener(new NioTransportWrapper.PacketListener() {
+            public void onPacket(byte[] packet) {
+                if (loop.inLoop()) {
+                    received.incrementAndGet();
+                }
+                allReceived.countDown();
+            }
+
+            public void onClosed(IOException cause) {
+                closed.countDown();
+            }
+        });
+        transport.attach(vm.getAddress(), 5000, 5000);
+        for (int i = 0; i < 1000; i++) {
+            transport.writePacket(command(i + 1, i % 50).toBytesArray());
+        }
+        assertTrue(allReceived.await(5, TimeUnit.SECONDS));
+        assertEquals(1003, received.get());
+
+        transport.close();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        try {
+            transport.writePacket(command(1, 0).toBytesArray());
+            fail("connection is closed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void remoteCloseEndsReading() throws IOException {
+        NioTransportWrapper transport = attach();
+        for (int i = 0; i < 3; i++) {
+            transport.readPacket();
+        }
+        // fake VM closes the connection
+        transport.writePacket(new byte[] { 0, 0, 0, 2 });
+        assertNull(transport.readPacket());
+        assertNull(transport.readPacket());
+        assertFalse(transport.isOpen());
+    }
+
+    @Test
+    public void attachTimesOut() {
+        NioTransportWrapper transport = new NioTransportWrapper(loop);
+        long start = System.currentTimeMillis();
+        try {
+            // not an ephemeral port, which a retried connect may take itself
+            transport.attach("127.0.0.1:1", 300, 300);
+            fail("nobody listens");
+        } catch (IOException e) {
+            assertTrue(e instanceof SocketTimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start >= 300);
+    }
+
+    @Test
+    public void acceptedConnectionIsHandshaken() throws IOException {
+        NioTransportWrapper transport = new NioTransportWrapper(loop);
+        transports.add(transport);
+        String address = transport.startListening("127.0.0.1:0");
+        try {
+            transport.accept(100, 100);
+            fail("nobody connects");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+
+        int port = Integer.parseInt(address.substring(address.indexOf(':') + 1));
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        FakeVm.serveInBackground(socket.getInputStream(),
+                socket.getOutputStream(), socket, 1);
+        transport.accept(5000, 5000);
+        assertEquals(FakeVm.FIRST_EVENT_ID,
+                new EventPacket(transport.readPacket()).getId());
+        transport.writePacket(command(7, 3).toBytesArray());
+        assertReply(transport.readPacket(), 7, 3);
+    }
+
+    static CommandPacket command(int id, int size) {
+        CommandPacket command = new CommandPacket(
+                JDWPCommands.VirtualMachineCommandSet.CommandSetID,
+                JDWPCommands.VirtualMachineCommandSet.VersionCommand);
+        command.setId(id);
+        for (int i = 0; i < size; i++) {
+            command.setNextValueAsByte((byte) i);
+        }
+        return command;
+    }
+
+    static void assertReply(byte[] packet, int id, int size) {
+        ReplyPacket reply = new ReplyPacket(packet);
+        assertEquals(id, reply.getId());
+        assertEquals(Packet.HEADER_SIZE + size, reply.getLength());
+        for (int i = 0; i < size; i++) {
+            assertEquals((byte) i, reply.getNextValueAsByte());
+        }
+    }
+}
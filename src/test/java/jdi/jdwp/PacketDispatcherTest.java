@@ -0,0 +1,96 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PacketDispatcherTest {
+
+    private LoopbackTransport transport;
+
+    private PacketDispatcher dispatcher;
+
+    private void start(LoopbackTransport.Responder responder) {
+        transport = new LoopbackTransport(responder);
+        dispatcher = new PacketDispatcher(transport, null,
+                TestLog.logWriter());
+        dispatcher.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void negotiatedIDSizesAreUsedByCommands() throws Exception {
+        start(new LoopbackTransport.Responder() {
+            @Override
+            public ReplyPacket reply(CommandPacket command) {
+                ReplyPacket reply = new ReplyPacket();
+                if (command.getCommand() == JDWPCommands.VirtualMachineCommandSet.IDSizesCommand) {
+                    reply.setNextValueAsInt(8);
+                    reply.setNextValueAsInt(8);
+                    reply.setNextValueAsInt(4);
+                    reply.setNextValueAsInt(4);
+                    reply.setNextValueAsInt(8);
+                }
+                return reply;
+            }
+        });
+        dispatcher.performCommand(dispatcher.createCommand(
+                JDWPCommands.VirtualMachineCommandSet.CommandSetID,
+                JDWPCommands.VirtualMachineCommandSet.IDSizesCommand), 5000);
+        IDSizes sizes = dispatcher.getIDSizes();
+        assertEquals(4, sizes.getObjectIDSize());
+        assertEquals(8, sizes.getFrameIDSize());
+
+        CommandPacket command = dispatcher.createCommand(
+                JDWPCommands.ObjectReferenceCommandSet.CommandSetID,
+                JDWPCommands.ObjectReferenceCommandSet.ReferenceTypeCommand);
+        assertSame(sizes, command.getIDSizes());
+        command.setNextValueAsObjectID(-2);
+        ReplyPacket reply = dispatcher.performCommand(command, 5000);
+        assertSame(sizes, reply.getIDSizes());
+
+        CommandPacket written = transport.getCommands().get(1);
+        assertEquals(Packet.HEADER_SIZE + 4, written.getLength());
+        written.setIDSizes(sizes);
+        assertEquals(-2, written.getNextValueAsObjectID());
+    }
+
+    @Test
+    public void commandsOfOneBatchAreWrittenAtOnce() throws Exception {
+        start(new LoopbackTransport.Responder() {
+            @Override
+            public ReplyPacket reply(CommandPacket command) {
+                ReplyPacket reply = new ReplyPacket();
+                reply.setNextValueAsInt(command.getNextValueAsInt());
+                return reply;
+            }
+        });
+        // more than the writer takes from its queue at once
+        List<CommandPacket> commands = new ArrayList<CommandPacket>();
+        for (int i = 0; i < 600; i++) {
+            CommandPacket command = dispatcher.createCommand(
+                    JDWPCommands.VirtualMachineCommandSet.CommandSetID,
+                    JDWPCommands.VirtualMachineCommandSet.VersionCommand);
+            command.setNextValueAsInt(i);
+            commands.add(command);
+        }
+        List<ReplyPacket> replies = dispatcher.performCommands(commands, 5000);
+        assertEquals(600, replies.size());
+        for (int i = 0; i < replies.size(); i++) {
+            assertEquals(i, replies.get(i).getNextValueAsInt());
+        }
+        assertEquals(Collections.singletonList(600), transport.getWrites());
+    }
+}
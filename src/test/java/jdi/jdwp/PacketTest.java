@@ -0,0 +1,163 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class PacketTest {
+
+    @Test
+    public void packetGrowsPastItsCapacity() {
+        CommandPacket command = new CommandPacket((byte) 1, (byte) 2, 0);
+        for (int i = 0; i < 1000; i++) {
+            command.setNextValueAsByte((byte) i);
+            command.setNextValueAsInt(i);
+            command.setNextValueAsLong(-i);
+            command.setNextValueAsString("s" + i);
+        }
+        Packet packet = new Packet(command.toBytesArray());
+        assertEquals(command.getLength(), packet.getLength());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((byte) i, packet.getNextValueAsByte());
+            assertEquals(i, packet.getNextValueAsInt());
+            assertEquals(-i, packet.getNextValueAsLong());
+            assertEquals("s" + i, packet.getNextValueAsString());
+        }
+        assertTrue(packet.isAllDataRead());
+    }
+
+    @Test
+    public void presizedPacketIsNotGrown() {
+        Packet packet = new Packet(12);
+        byte[] buffer = packet.asByteBuffer().array();
+        packet.setNextValueAsInt(1);
+        packet.setNextValueAsLong(2);
+        assertSame(buffer, packet.asByteBuffer().array());
+        assertEquals(Packet.HEADER_SIZE + 12, packet.getLength());
+    }
+
+    @Test
+    public void toBytesArrayReturnsCopy() {
+        CommandPacket command = new CommandPacket((byte) 1, (byte) 2);
+        command.setId(5);
+        command.setNextValueAsInt(7);
+        byte[] bytes = command.toBytesArray();
+        assertEquals(Packet.HEADER_SIZE + 4, bytes.length);
+        assertEquals(bytes.length, Packet.getPacketLength(bytes));
+
+        command.setId(6);
+        command.setNextValueAsInt(8);
+        CommandPacket copy = new CommandPacket(bytes);
+        assertEquals(5, copy.getId());
+        assertEquals(Packet.HEADER_SIZE + 4, copy.getLength());
+        assertEquals(7, copy.getNextValueAsInt());
+        assertTrue(copy.isAllDataRead());
+    }
+
+    @Test
+    public void asByteBufferSharesBytes() {
+        CommandPacket command = new CommandPacket((byte) 1, (byte) 2, 8);
+        command.setNextValueAsInt(7);
+        ByteBuffer view = command.asByteBuffer();
+        assertEquals(Packet.HEADER_SIZE + 4, view.remaining());
+        assertEquals(view.remaining(), view.getInt(0));
+
+        // values set later go after the bytes of the view
+        command.setNextValueAsInt(8);
+        command.setNextValueAsLong(9);
+        assertEquals(Packet.HEADER_SIZE + 4, view.remaining());
+        assertEquals(7, view.getInt(Packet.HEADER_SIZE));
+        ByteBuffer grown = command.asByteBuffer();
+        assertEquals(Packet.HEADER_SIZE + 16, grown.remaining());
+        assertEquals(9, grown.getLong(Packet.HEADER_SIZE + 8));
+    }
+
+    @Test
+    public void constructorCopiesArray() {
+        byte[] bytes = reply(3, 7);
+        ReplyPacket packet = new ReplyPacket(bytes);
+        bytes[Packet.HEADER_SIZE + 3] = 8;
+        assertEquals(7, packet.getNextValueAsInt());
+    }
+
+    @Test
+    public void wrapReadsArrayAtOffset() {
+        byte[] reply = reply(3, 7);
+        byte[] bytes = new byte[reply.length + 10];
+        System.arraycopy(reply, 0, bytes, 5, reply.length);
+        ReplyPacket packet = ReplyPacket.wrap(bytes, 5, bytes.length - 5);
+        assertEquals(3, packet.getId());
+        assertEquals(reply.length, packet.getLength());
+        bytes[5 + Packet.HEADER_SIZE + 3] = 8;
+        assertEquals(8, packet.getNextValueAsInt());
+        assertTrue(packet.isAllDataRead());
+    }
+
+    @Test
+    public void wrappedPacketDoesNotWriteToArray() {
+        byte[] bytes = reply(3, 7);
+        byte[] original = bytes.clone();
+        ReplyPacket packet = ReplyPacket.wrap(bytes, 0, bytes.length);
+        packet.asByteBuffer();
+        packet.setId(3);
+        assertArrayEquals(original, bytes);
+
+        packet.setId(4);
+        packet.setFlags((byte) 0);
+        packet.setErrorCode((short) 1);
+        packet.setNextValueAsInt(9);
+        assertArrayEquals(original, bytes);
+        assertEquals(4, packet.getId());
+        assertEquals(1, packet.getErrorCode());
+        assertEquals(7, packet.getNextValueAsInt());
+        assertEquals(9, packet.getNextValueAsInt());
+    }
+
+    @Test
+    public void sharedHeaderIsCopiedOnWrite() {
+        ReplyPacket source = ReplyPacket.wrap(reply(3, 7), 0,
+                Packet.HEADER_SIZE + 4);
+        assertEquals(7, source.getNextValueAsInt());
+        Packet view = source.duplicate();
+        assertEquals(7, view.getNextValueAsInt());
+
+        view.setId(4);
+        view.setFlags((byte) 0);
+        assertEquals(3, source.getId());
+        assertTrue(source.isReply());
+        source.setId(5);
+        assertEquals(4, view.getId());
+        assertFalse(view.isReply());
+
+        Packet other = source.duplicate();
+        source.setId(6);
+        assertEquals(5, other.getId());
+        assertEquals(7, other.getNextValueAsInt());
+    }
+
+    @Test
+    public void directBufferIsCopied() {
+        byte[] bytes = reply(3, 7);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 2);
+        buffer.put(new byte[2]).put(bytes).flip().position(2);
+        ReplyPacket packet = new ReplyPacket(buffer);
+        buffer.put(2 + Packet.HEADER_SIZE + 3, (byte) 8);
+        assertEquals(2, buffer.position());
+        assertEquals(3, packet.getId());
+        assertEquals(7, packet.getNextValueAsInt());
+    }
+
+    private static byte[] reply(int id, int value) {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setId(id);
+        reply.setFlags((byte) Packet.REPLY_PACKET_FLAG);
+        reply.setNextValueAsInt(value);
+        return reply.toBytesArray();
+    }
+}
@@ -0,0 +1,93 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class PendingCommandsTest {
+
+    private static CommandPacket command() {
+        return new CommandPacket((byte) 1, (byte) 1);
+    }
+
+    @Test
+    public void idIsNotReusedWhileCommandIsPending() throws IOException {
+        PendingCommands pending = new PendingCommands(4);
+        PendingCommands.Slot first = pending.add(command(), null);
+        for (int i = 0; i < 16; i++) {
+            PendingCommands.Slot slot = pending.add(command(), null);
+            assertNotEquals(first.id & 3, slot.id & 3);
+            assertTrue(pending.remove(slot));
+        }
+        assertSame(first, pending.get(first.id));
+        assertEquals(1, pending.size());
+    }
+
+    @Test
+    public void cellIsReusedAfterRemove() throws IOException {
+        PendingCommands pending = new PendingCommands(2);
+        PendingCommands.Slot first = pending.add(command(), null);
+        PendingCommands.Slot second = pending.add(command(), null);
+        assertTrue(pending.remove(first));
+        PendingCommands.Slot third = pending.add(command(), null);
+        assertEquals(first.id & 1, third.id & 1);
+        assertNotEquals(first.id, third.id);
+        assertNull(pending.get(first.id));
+        assertSame(second, pending.get(second.id));
+        assertSame(third, pending.get(third.id));
+    }
+
+    @Test
+    public void addFailsWhenTableIsFull() throws IOException {
+        PendingCommands pending = new PendingCommands(2);
+        pending.add(command(), null);
+        pending.add(command(), null);
+        try {
+            pending.add(command(), null);
+            fail("table is full");
+        } catch (IOException e) {
+            assertEquals(2, pending.size());
+        }
+    }
+
+    @Test
+    public void removeIsDoneOnce() throws IOException {
+        PendingCommands pending = new PendingCommands(4);
+        PendingCommands.Slot slot = pending.add(command(), null);
+        assertTrue(pending.remove(slot));
+        assertFalse(pending.remove(slot));
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    public void waiterGetsReply() throws Exception {
+        PendingCommands pending = new PendingCommands(4);
+        final PendingCommands.Slot slot = pending.add(command(), null);
+        final ReplyPacket reply = new ReplyPacket();
+        Thread replier = new Thread(new Runnable() {
+            public void run() {
+                slot.complete(reply);
+            }
+        });
+        replier.start();
+        assertSame(reply, slot.awaitReply(10000));
+        replier.join();
+    }
+
+    @Test
+    public void abandonedSlotRejectsLateReply() throws IOException {
+        PendingCommands pending = new PendingCommands(4);
+        PendingCommands.Slot slot = pending.add(command(), null);
+        assertTrue(slot.abandon());
+        assertFalse(slot.complete(new ReplyPacket()));
+        assertNull(slot.getReply());
+    }
+}
@@ -0,0 +1,156 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+import org.junit.Test;
+
+public class PrimitiveArrayRegionTest {
+
+    private static final byte[] TAGS = { JDWPConstants.Tag.BOOLEAN_TAG,
+            JDWPConstants.Tag.BYTE_TAG, JDWPConstants.Tag.CHAR_TAG,
+            JDWPConstants.Tag.SHORT_TAG, JDWPConstants.Tag.INT_TAG,
+            JDWPConstants.Tag.LONG_TAG, JDWPConstants.Tag.FLOAT_TAG,
+            JDWPConstants.Tag.DOUBLE_TAG };
+
+    private static final int LENGTH = 37;
+
+    @Test
+    public void bulkDecodeMatchesPerElementDecode() {
+        for (byte tag : TAGS) {
+            byte[] bytes = encodePerElement(tag);
+
+            ArrayRegion bulk = new ReplyPacket(bytes)
+                    .getNextValueAsArrayRegion();
+            assertTrue(bulk instanceof PrimitiveArrayRegion);
+            assertEquals(tag, bulk.getTag());
+            assertEquals(LENGTH, bulk.getLength());
+
+            Packet packet = new ReplyPacket(bytes);
+            assertEquals(tag, packet.getNextValueAsByte());
+            assertEquals(LENGTH, packet.getNextValueAsInt());
+            for (int i = 0; i < LENGTH; i++) {
+                assertEquals(packet.getNextValueAsUntaggedValue(tag),
+                        bulk.getValue(i));
+            }
+            assertTrue(packet.isAllDataRead());
+        }
+    }
+
+    @Test
+    public void bulkEncodeMatchesPerElementEncode() {
+        for (byte tag : TAGS) {
+            PrimitiveArrayRegion region = PrimitiveArrayRegion.create(tag,
+                    LENGTH);
+            for (int i = 0; i < LENGTH; i++) {
+                region.setValue(i, value(tag, i));
+            }
+            ReplyPacket reply = new ReplyPacket();
+            reply.setNextValueAsArrayRegion(region);
+            assertArrayEquals(encodePerElement(tag), reply.toBytesArray());
+        }
+    }
+
+    @Test
+    public void typedArrayHoldsDecodedValues() {
+        ArrayRegion region = new ReplyPacket(
+                encodePerElement(JDWPConstants.Tag.LONG_TAG))
+                .getNextValueAsArrayRegion();
+        long[] values = ((PrimitiveArrayRegion) region).getLongArray();
+        assertEquals(LENGTH, values.length);
+        assertEquals(-3L * 0x123456789L, values[3]);
+    }
+
+    @Test
+    public void objectRegionStaysGeneric() {
+        ArrayRegion region = new ArrayRegion(JDWPConstants.Tag.STRING_TAG, 2);
+        region.setValue(0, Value.createObjectValue(
+                JDWPConstants.Tag.STRING_TAG, 5));
+        region.setValue(1, Value.createObjectValue(
+                JDWPConstants.Tag.OBJECT_TAG, 0));
+        IDSizes sizes = new IDSizes(8, 8, 8, 8, 8);
+        ReplyPacket reply = new ReplyPacket();
+        reply.setIDSizes(sizes);
+        reply.setNextValueAsArrayRegion(region);
+
+        ReplyPacket packet = new ReplyPacket(reply.toBytesArray());
+        packet.setIDSizes(sizes);
+        ArrayRegion decoded = packet.getNextValueAsArrayRegion();
+        assertFalse(decoded instanceof PrimitiveArrayRegion);
+        assertEquals(2, decoded.getLength());
+        assertEquals(region.getValue(0), decoded.getValue(0));
+        assertEquals(region.getValue(1), decoded.getValue(1));
+    }
+
+    @Test(expected = TestErrorException.class)
+    public void lengthBeyondDataIsRejected() {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setNextValueAsByte(JDWPConstants.Tag.LONG_TAG);
+        // 8 * 0x20000001 overflows int to 8, which the data would hold
+        reply.setNextValueAsInt(0x20000001);
+        reply.setNextValueAsLong(1);
+        new ReplyPacket(reply.toBytesArray()).getNextValueAsArrayRegion();
+    }
+
+    private static byte[] encodePerElement(byte tag) {
+        ReplyPacket reply = new ReplyPacket();
+        reply.setNextValueAsByte(tag);
+        reply.setNextValueAsInt(LENGTH);
+        for (int i = 0; i < LENGTH; i++) {
+            Value value = value(tag, i);
+            switch (tag) {
+            case JDWPConstants.Tag.BOOLEAN_TAG:
+                reply.setNextValueAsBoolean(value.getBooleanValue());
+                break;
+            case JDWPConstants.Tag.BYTE_TAG:
+                reply.setNextValueAsByte(value.getByteValue());
+                break;
+            case JDWPConstants.Tag.CHAR_TAG:
+                reply.setNextValueAsChar(value.getCharValue());
+                break;
+            case JDWPConstants.Tag.SHORT_TAG:
+                reply.setNextValueAsShort(value.getShortValue());
+                break;
+            case JDWPConstants.Tag.INT_TAG:
+                reply.setNextValueAsInt(value.getIntValue());
+                break;
+            case JDWPConstants.Tag.LONG_TAG:
+                reply.setNextValueAsLong(value.getLongValue());
+                break;
+            case JDWPConstants.Tag.FLOAT_TAG:
+                reply.setNextValueAsFloat(value.getFloatValue());
+                break;
+            default:
+                reply.setNextValueAsDouble(value.getDoubleValue());
+                break;
+            }
+        }
+        return reply.toBytesArray();
+    }
+
+    private static Value value(byte tag, int i) {
+        switch (tag) {
+        case JDWPConstants.Tag.BOOLEAN_TAG:
+            return Value.createBoolean(i % 3 == 0);
+        case JDWPConstants.Tag.BYTE_TAG:
+            return Value.createByte((byte) (i * 29 - 128));
+        case JDWPConstants.Tag.CHAR_TAG:
+            return Value.createChar((char) (0xFFFF - i * 1000));
+        case JDWPConstants.Tag.SHORT_TAG:
+            return Value.createShort((short) (i * -1234));
+        case JDWPConstants.Tag.INT_TAG:
+            return Value.createInt(i * -123456789);
+        case JDWPConstants.Tag.LONG_TAG:
+            return Value.createLong(-i * 0x123456789L);
+        case JDWPConstants.Tag.FLOAT_TAG:
+            return Value.createFloat(i == 1 ? Float.NaN : i * -1.5f);
+        default:
+            return Value.createDouble(i == 1 ? Double.NEGATIVE_INFINITY
+                    : i / 7.0);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SocketTransportWrapperTest {
+
+    private static final int READ_AHEAD = SocketTransportWrapper.READ_AHEAD_SIZE;
+
+    private ServerSocket server;
+
+    private SocketTransportWrapper transport;
+
+    @BeforeClass
+    public static void installLog() {
+        TestLog.install();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (transport != null) {
+            transport.close();
+        }
+        server.close();
+    }
+
+    /**
+     * Attaches to the server, which sends the stream in chunks of given sizes
+     * after the handshake, and then closes the connection.
+     */
+    private void attach(final byte[] stream, final int... chunks)
+            throws IOException {
+        Thread vm = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    try {
+                        socket.setTcpNoDelay(true);
+                        byte[] handshake = new byte[SocketTransportWrapper.HANDSHAKE_STRING
+                                .length()];
+                        new DataInputStream(socket.getInputStream())
+                                .readFully(handshake);
+                        OutputStream out = socket.getOutputStream();
+                        out.write(handshake);
+                        int offset = 0;
+                        for (int i = 0; offset < stream.length; i++) {
+                            int count = Math.min(chunks[i % chunks.length],
+                                    stream.length - offset);
+                            out.write(stream, offset, count);
+                            out.flush();
+                            offset += count;
+                            if (chunks[i % chunks.length] < Packet.HEADER_SIZE) {
+                                // let the reader take the short chunk alone
+                                Thread.sleep(1);
+                            }
+                        }
+                    } finally {
+                        socket.close();
+                    }
+                } catch (Exception e) {
+                    // test fails reading
+                }
+            }
+        });
+        vm.setDaemon(true);
+        vm.start();
+        transport = new SocketTransportWrapper();
+        transport.attach("127.0.0.1:" + server.getLocalPort(), 5000, 5000);
+    }
+
+    @Test
+    public void coalescedPacketsAreFramed() throws IOException {
+        // sizes do not divide the buffer, so packets straddle its end
+        int[] sizes = new int[3000];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = i * 37 % 700;
+        }
+        attach(stream(sizes), 1 << 20);
+        PacketPool pool = new PacketPool(4, null, false);
+        for (int i = 0; i < sizes.length; i++) {
+            if (i % 2 == 0) {
+                assertPacket(transport.readPacket(), i, sizes[i]);
+            } else {
+                byte[] packet = transport.readPacket(pool);
+                assertPacket(packet, i, sizes[i]);
+                pool.returnBuffer(packet);
+            }
+        }
+        assertNull(transport.readPacket());
+    }
+
+    @Test
+    public void splitPacketsAreFramed() throws IOException {
+        int[] sizes = { 0, 1, 5, 100, READ_AHEAD - Packet.HEADER_SIZE,
+                READ_AHEAD - Packet.HEADER_SIZE + 1, READ_AHEAD,
+                READ_AHEAD + 1, 3 * READ_AHEAD, 0, 7 };
+        // headers are split as well as data
+        attach(stream(sizes), 1, 2, 3, 5, 8, 13, 4000, 70000);
+        for (int i = 0; i < sizes.length; i++) {
+            assertPacket(transport.readPacket(), i, sizes[i]);
+        }
+        assertNull(transport.readPacket());
+    }
+
+    @Test
+    public void longPacketIsReadIntoPooledArray() throws IOException {
+        int[] sizes = { 10, 5 * READ_AHEAD, 10 };
+        attach(stream(sizes), 1000, 100000);
+        PacketPool pool = new PacketPool(4, null, false);
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] packet = transport.readPacket(pool);
+            assertPacket(packet, i, sizes[i]);
+            pool.returnBuffer(packet);
+        }
+    }
+
+    @Test
+    public void closeInPacketIsReported() throws IOException {
+        byte[] stream = stream(new int[] { 20, 20 });
+        attach(Arrays.copyOf(stream, stream.length - 5), 25);
+        assertPacket(transport.readPacket(), 0, 20);
+        try {
+            transport.readPacket();
+            fail("packet is truncated");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void closeInHeaderIsReported() throws IOException {
+        byte[] stream = stream(new int[] { 3, 3 });
+        attach(Arrays.copyOf(stream, stream.length - 6), 4);
+        assertPacket(transport.readPacket(), 0, 3);
+        try {
+            transport.readPacket();
+            fail("header is truncated");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongLengthIsRejected() throws IOException {
+        attach(new byte[] { 0, 0, 0, 10, 0, 0, 0, 1, 0, 1, 1 }, 11);
+        transport.readPacket();
+    }
+
+    /**
+     * Creates event packets of given data sizes, joined in one array.
+     */
+    private static byte[] stream(int[] sizes) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < sizes.length; i++) {
+            EventPacket packet = new EventPacket();
+            packet.setId(i);
+            for (int j = 0; j < sizes[i]; j++) {
+                packet.setNextValueAsByte((byte) (i + j));
+            }
+            byte[] bytes = packet.toBytesArray();
+            stream.write(bytes, 0, bytes.length);
+        }
+        return stream.toByteArray();
+    }
+
+    private static void assertPacket(byte[] bytes, int id, int size) {
+        assertEquals(Packet.HEADER_SIZE + size, Packet.getPacketLength(bytes));
+        EventPacket packet = new EventPacket(bytes);
+        assertEquals(id, packet.getId());
+        for (int j = 0; j < size; j++) {
+            assertEquals((byte) (id + j), packet.getNextValueAsByte());
+        }
+    }
+}
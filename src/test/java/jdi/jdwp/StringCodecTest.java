@@ -0,0 +1,159 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import jdi.jdwp.exceptions.TestErrorException;
+
+import org.junit.Test;
+
+public class StringCodecTest {
+
+    @Test
+    public void nulTakesTwoBytes() {
+        byte[] bytes = encode("a\u0000b");
+        assertArrayEquals(new byte[] { 'a', (byte) 0xC0, (byte) 0x80, 'b' },
+                bytes);
+        assertEquals("a\u0000b", StringCodec.decode(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void supplementaryCharacterIsEncodedAsSurrogates() {
+        String smile = "x\uD83D\uDE00";
+        byte[] bytes = encode(smile);
+        assertArrayEquals(new byte[] { 'x', (byte) 0xED, (byte) 0xA0,
+                (byte) 0xBD, (byte) 0xED, (byte) 0xB8, (byte) 0x80 }, bytes);
+        assertEquals(smile, StringCodec.decode(bytes, 0, bytes.length));
+
+        // standard UTF-8 four byte sequence is accepted as well
+        byte[] standard = { 'x', (byte) 0xF0, (byte) 0x9F, (byte) 0x98,
+                (byte) 0x80 };
+        assertEquals(smile, StringCodec.decode(standard, 0, standard.length));
+        assertTrue(StringCodec.regionMatches(standard, 0, standard.length,
+                smile, false));
+    }
+
+    @Test
+    public void encodingMatchesModifiedUtf8OfJdk() throws IOException {
+        Random random = new Random(5);
+        for (int n = 0; n < 1000; n++) {
+            char[] chars = new char[random.nextInt(20)];
+            for (int i = 0; i < chars.length; i++) {
+                switch (random.nextInt(4)) {
+                case 0:
+                    chars[i] = (char) random.nextInt(0x80);
+                    break;
+                case 1:
+                    chars[i] = (char) random.nextInt(0x800);
+                    break;
+                default:
+                    chars[i] = (char) random.nextInt(0x10000);
+                    break;
+                }
+            }
+            String val = new String(chars);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new DataOutputStream(out).writeUTF(val);
+            byte[] expected = out.toByteArray();
+            expected = Arrays.copyOfRange(expected, 2, expected.length);
+
+            byte[] bytes = encode(val);
+            assertArrayEquals(val, expected, bytes);
+            assertEquals(val, StringCodec.decode(bytes, 0, bytes.length));
+            assertTrue(StringCodec.regionMatches(bytes, 0, bytes.length, val,
+                    false));
+        }
+    }
+
+    @Test
+    public void malformedBytesAreReplaced() {
+        assertDecoded("a\uFFFDb", 'a', 0x80, 'b');
+        // truncated three byte sequence
+        assertDecoded("a\uFFFD\uFFFD", 'a', 0xE2, 0x82);
+        // continuation byte missing inside two byte sequence
+        assertDecoded("\uFFFDz", 0xC3, 'z');
+        // code point above U+10FFFF
+        assertDecoded("\uFFFD.", 0xF4, 0x90, 0x80, 0x80, '.');
+        assertDecoded("\uFFFD", 0xFF);
+    }
+
+    @Test
+    public void regionMatchesComparesEncodedBytes() {
+        byte[] bytes = encode("Ljava/lang/\u00E9t\u00E9;");
+        assertTrue(StringCodec.regionMatches(bytes, 0, bytes.length,
+                "Ljava/lang/\u00E9t\u00E9;", false));
+        assertTrue(StringCodec.regionMatches(bytes, 0, bytes.length,
+                "Ljava/lang/", true));
+        assertFalse(StringCodec.regionMatches(bytes, 0, bytes.length,
+                "Ljava/lang/", false));
+        assertFalse(StringCodec.regionMatches(bytes, 0, bytes.length,
+                "Ljava/lang/\u00E9t\u00E8;", false));
+        assertFalse(StringCodec.regionMatches(bytes, 0, 3, "Ljava", true));
+    }
+
+    @Test
+    public void packetStringsRoundTrip() {
+        String[] values = { "", "Ljava/lang/String;", "\u0000",
+                "caf\u00E9 \u4E2D\u6587 \uD83D\uDE00" };
+        Packet packet = new Packet();
+        for (String val : values) {
+            packet.setNextValueAsString(val);
+        }
+        Packet read = new Packet(packet.toBytesArray());
+        for (String val : values) {
+            assertEquals(val, read.getNextValueAsString());
+        }
+        assertTrue(read.isAllDataRead());
+    }
+
+    @Test(expected = TestErrorException.class)
+    public void stringLengthBeyondDataIsRejected() {
+        Packet packet = new Packet();
+        packet.setNextValueAsInt(100);
+        packet.setNextValueAsInt(0);
+        new Packet(packet.toBytesArray()).getNextValueAsString();
+    }
+
+    @Test
+    public void cacheReturnsSameAsciiString() {
+        StringCache cache = new StringCache(16);
+        byte[] bytes = encode("xLjava/lang/Object;");
+        String first = cache.get(bytes, 1, bytes.length - 1);
+        assertEquals("Ljava/lang/Object;", first);
+        assertSame(first, cache.get(bytes.clone(), 1, bytes.length - 1));
+
+        byte[] other = encode("\u00E9t\u00E9");
+        String decoded = cache.get(other, 0, other.length);
+        assertEquals("\u00E9t\u00E9", decoded);
+        assertNotSame(decoded, cache.get(other, 0, other.length));
+
+        cache.clear();
+        assertNotSame(first, cache.get(bytes, 1, bytes.length - 1));
+    }
+
+    private static byte[] encode(String val) {
+        byte[] bytes = new byte[StringCodec.encodedLength(val)];
+        assertEquals(bytes.length, StringCodec.encode(val, bytes, 0));
+        return bytes;
+    }
+
+    private static void assertDecoded(String expected, int... values) {
+        byte[] bytes = new byte[values.length + 2];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i + 1] = (byte) values[i];
+        }
+        assertEquals(expected, StringCodec.decode(bytes, 1, values.length));
+        assertFalse(StringCodec.regionMatches(bytes, 1, values.length,
+                expected.replace('\uFFFD', '?'), false));
+    }
+}
@@ -0,0 +1,69 @@
+package jdi.jdwp;
+
+import javax.inject.Named;
+
+import ioc.Injector;
+import jdi.log.Log;
+
+/**
+ * Logger of jdi.log.Log printing errors only, for tests of classes which log
+ * through it. It creates log writers of the dispatcher as well.
+ */
+@Named("loggerImpl")
+public class TestLog implements Log.ILog {
+
+    private static boolean installed;
+
+    /**
+     * Registers this logger unless it is registered.
+     */
+    public static synchronized void install() {
+        if (!installed) {
+            Injector.registerQualifiedClass(Log.ILog.class, TestLog.class);
+            installed = true;
+        }
+    }
+
+    /**
+     * Creates JDWP log writer which prints errors only.
+     */
+    public static LogWriter logWriter() {
+        return new LogWriter("") {
+            @Override
+            public void printError(String message) {
+                System.err.println(message);
+            }
+
+            @Override
+            public void printError(String message, Throwable throwable) {
+                System.err.println(message);
+                throwable.printStackTrace();
+            }
+
+            @Override
+            public void printError(Throwable throwable) {
+                throwable.printStackTrace();
+            }
+
+            @Override
+            public void print(String message) {
+            }
+
+            @Override
+            public void println(String message) {
+            }
+        };
+    }
+
+    public void e(String tag, String message, Throwable t) {
+        System.err.println(tag + ": " + message);
+        t.printStackTrace();
+    }
+
+    public void d(String tag, String s) {
+    }
+
+    public void e(String tag, String message) {
+        System.err.println(tag + ": " + message);
+    }
+}
@@ -0,0 +1,70 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+    private final TimerWheel timer = new TimerWheel(10, 8, "TimerWheelTest");
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void taskExpiresAfterDelay() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.schedule(countDown(expired), 50);
+        assertTrue(expired.await(10, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+                .toNanos(50));
+    }
+
+    @Test
+    public void taskExpiresAfterSeveralTurns() throws InterruptedException {
+        // 8 buckets of 10 ms turn in 80 ms
+        CountDownLatch expired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.schedule(countDown(expired), 250);
+        assertTrue(expired.await(10, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+                .toNanos(250));
+    }
+
+    @Test
+    public void cancelledTaskDoesNotExpire() throws InterruptedException {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch expired = new CountDownLatch(1);
+        timer.schedule(countDown(cancelled), 30).cancel();
+        timer.schedule(countDown(expired), 60);
+        assertTrue(expired.await(10, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+    }
+
+    @Test
+    public void stoppedTimerDoesNotSchedule() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(1);
+        timer.schedule(countDown(expired), 30);
+        timer.stop();
+        assertNull(timer.schedule(countDown(expired), 30));
+        assertFalse(expired.await(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,158 @@
+package jdi.jdwp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class UnixDomainSocketsTest {
+
+    private File file;
+
+    private String address;
+
+    private NioTransportWrapper transport;
+
+    @BeforeClass
+    public static void installLog() {
+        TestLog.install();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(UnixDomainSockets.isSupported());
+        file = File.createTempFile("jdwp", ".sock");
+        file.delete();
+        address = UnixDomainSockets.SCHEME + file.getPath();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (transport != null) {
+            transport.close();
+        }
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void unixAddressIsRecognized() {
+        assertTrue(UnixDomainSockets.isUnixAddress("unix:/tmp/jdwp.sock"));
+        assertFalse(UnixDomainSockets.isUnixAddress("localhost:8000"));
+        assertFalse(UnixDomainSockets.isUnixAddress(null));
+    }
+
+    @Test
+    public void acceptedConnectionServesDispatcher() throws Exception {
+        transport = new NioTransportWrapper();
+        assertEquals(address, transport.startListening(address));
+        assertTrue(file.exists());
+
+        SocketChannel vm = UnixDomainSockets.connect(address);
+        FakeVm.serveInBackground(Channels.newInputStream(vm),
+                Channels.newOutputStream(vm), vm, 1);
+        transport.accept(5000, 5000);
+        PacketDispatcher dispatcher = new PacketDispatcher(transport, null,
+                TestLog.logWriter());
+        dispatcher.start();
+        assertEquals(FakeVm.FIRST_EVENT_ID, dispatcher.receiveEvents(1, 5000)
+                .get(0).getId());
+        for (int i = 0; i < 100; i++) {
+            CommandPacket command = new CommandPacket(
+                    JDWPCommands.VirtualMachineCommandSet.CommandSetID,
+                    JDWPCommands.VirtualMachineCommandSet.VersionCommand);
+            command.setNextValueAsInt(i);
+            assertEquals(i, dispatcher.performCommand(command, 5000)
+                    .getNextValueAsInt());
+        }
+
+        // the socket file goes with the listening transport
+        transport.close();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void attachedConnectionIsHandshaken() throws Exception {
+        ServerSocketChannel server = UnixDomainSockets.bind(address);
+        try {
+            transport = new NioTransportWrapper();
+            Thread attach = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        transport.attach(address, 5000, 5000);
+                    } catch (IOException e) {
+                        // test fails reading
+                    }
+                }
+            });
+            attach.start();
+            SocketChannel vm = server.accept();
+            FakeVm.serveInBackground(Channels.newInputStream(vm),
+                    Channels.newOutputStream(vm), vm, 0);
+            attach.join(5000);
+            assertTrue(transport.isOpen());
+
+            CommandPacket command = new CommandPacket(
+                    JDWPCommands.VirtualMachineCommandSet.CommandSetID,
+                    JDWPCommands.VirtualMachineCommandSet.VersionCommand);
+            command.setId(5);
+            transport.writePacket(command.toBytesArray());
+            assertEquals(5, new ReplyPacket(transport.readPacket()).getId());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void staleSocketIsReplaced() throws IOException {
+        // server gone without deleting its socket
+        UnixDomainSockets.bind(address).close();
+        assertTrue(file.exists());
+
+        ServerSocketChannel server = UnixDomainSockets.bind(address);
+        server.close();
+    }
+
+    @Test
+    public void listeningSocketIsNotReplaced() throws IOException {
+        ServerSocketChannel server = UnixDomainSockets.bind(address);
+        try {
+            UnixDomainSockets.bind(address).close();
+            fail("server is listening");
+        } catch (BindException e) {
+            // expected
+        } finally {
+            server.close();
+        }
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void regularFileIsNotDeleted() throws IOException {
+        new FileOutputStream(file).close();
+        UnixDomainSockets.unlink(address);
+        assertTrue(file.isFile());
+        try {
+            UnixDomainSockets.bind(address).close();
+            fail("path is taken by a regular file");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(file.isFile());
+    }
+}
@@ -0,0 +1,305 @@
+package jdi.jdwp.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.DecoderException;
+import jdi.jdwp.CommandPacket;
+import jdi.jdwp.EventPacket;
+import jdi.jdwp.FakeVm;
+import jdi.jdwp.JDWPCommands;
+import jdi.jdwp.Packet;
+import jdi.jdwp.PacketDispatcher;
+import jdi.jdwp.ReplyPacket;
+import jdi.jdwp.SocketTransportWrapper;
+import jdi.jdwp.TestLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class NettyTransportWrapperTest {
+
+    private FakeVm vm;
+
+    private NioEventLoopGroup group;
+
+    private final List<NettyTransportWrapper> transports = new ArrayList<NettyTransportWrapper>();
+
+    @BeforeClass
+    public static void installLog() {
+        TestLog.install();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        vm = new FakeVm(3);
+        group = new NioEventLoopGroup(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (NettyTransportWrapper transport : transports) {
+            transport.close();
+        }
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        vm.close();
+    }
+
+    private NettyTransportWrapper newTransport() {
+        NettyTransportWrapper transport = new NettyTransportWrapper(group);
+        transports.add(transport);
+        return transport;
+    }
+
+    @Test
+    public void attachedConnectionServesDispatcher() throws Exception {
+        NettyTransportWrapper transport = newTransport();
+        transport.attach(vm.getAddress(), 5000, 5000);
+        final PacketDispatcher dispatcher = new PacketDispatcher(transport,
+                null, TestLog.logWriter());
+        dispatcher.start();
+        int events = 0;
+        while (events < 3) {
+            events += dispatcher.receiveEvents(3 - events, 5000).size();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int n = 0; n < 4; n++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 300; i++) {
+                        ReplyPacket reply = dispatcher.performCommand(
+                                command(0, i), 5000);
+                        assertEquals(Packet.HEADER_SIZE + i, reply.getLength());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // longer than a read of the channel
+        assertEquals(Packet.HEADER_SIZE + 300000, dispatcher.performCommand(
+                command(0, 300000), 5000).getLength());
+
+        List<CommandPacket> commands = new ArrayList<CommandPacket>();
+        for (int i = 0; i < 1000; i++) {
+            commands.add(command(0, i % 20));
+        }
+        assertEquals(1000, dispatcher.performCommands(commands, 5000).size());
+    }
+
+    @Test
+    public void handlerGetsPacketsOnEventLoop() throws Exception {
+        final NettyTransportWrapper transport = newTransport();
+        final AtomicInteger onLoop = new AtomicInteger();
+        final AtomicInteger unframed = new AtomicInteger();
+        final AtomicInteger unreleased = new AtomicInteger();
+        final CountDownLatch allReceived = new CountDownLatch(503);
+        final CountDownLatch closed = new CountDownLatch(1);
+        transport.setPacketHandler(new NettyTransportWrapper.PacketHandler() {
+            public void onPacket(ByteBuf packet) {
+                if (transport.getChannel().eventLoop().inEventLoop()) {
+                    onLoop.incrementAndGet();
+                }
+                if (packet.readableBytes() != packet.getInt(packet
+                        .readerIndex())) {
+                    unframed.incrementAndGet();
+                }
+                packet.release();
+                if (packet.refCnt() != 0) {
+                    unreleased.incrementAndGet();
+                }
+                allReceived.countDown();
+            }
+
+            public void onClosed(Throwable cause) {
+                closed.countDown();
+            }
+        });
+        transport.attach(vm.getAddress(), 5000, 5000);
+
+        ByteBuffer[] buffers = new ByteBuffer[500];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(command(i + 1, i % 30).toBytesArray());
+        }
+        transport.writePackets(buffers, 0, buffers.length);
+        assertTrue(allReceived.await(5, TimeUnit.SECONDS));
+        assertEquals(503, onLoop.get());
+        assertEquals(0, unframed.get());
+        assertEquals(0, unreleased.get());
+
+        // fake VM closes the connection
+        transport.writePacket(new byte[] { 0, 0, 0, 2 });
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertFalse(transport.isOpen());
+    }
+
+    @Test
+    public void acceptedConnectionIsHandshaken() throws IOException {
+        NettyTransportWrapper transport = newTransport();
+        String address = transport.startListening("127.0.0.1:0");
+        try {
+            transport.accept(100, 100);
+            fail("nobody connects");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+
+        int port = Integer.parseInt(address.substring(address.indexOf(':') + 1));
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        FakeVm.serveInBackground(socket.getInputStream(),
+                socket.getOutputStream(), socket, 1);
+        transport.accept(5000, 5000);
+        assertTrue(transport.isOpen());
+        assertEquals(FakeVm.FIRST_EVENT_ID,
+                new EventPacket(transport.readPacket()).getId());
+        transport.writePacket(command(7, 3).toBytesArray());
+        ReplyPacket reply = new ReplyPacket(transport.readPacket());
+        assertEquals(7, reply.getId());
+        assertEquals(Packet.HEADER_SIZE + 3, reply.getLength());
+
+        transport.close();
+        assertNull(transport.readPacket());
+        assertFalse(transport.isOpen());
+    }
+
+    @Test
+    public void wrongHandshakeFails() throws IOException {
+        final ServerSocket server = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress());
+        try {
+            Thread other = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Socket socket = server.accept();
+                        InputStream in = socket.getInputStream();
+                        OutputStream out = socket.getOutputStream();
+                        for (int i = 0; i < SocketTransportWrapper.HANDSHAKE_STRING
+                                .length(); i++) {
+                            in.read();
+                        }
+                        out.write("HTTP/1.1 400 Ba".getBytes("US-ASCII"));
+                        out.flush();
+                        in.read();
+                        socket.close();
+                    } catch (IOException e) {
+                        // test fails attaching
+                    }
+                }
+            });
+            other.setDaemon(true);
+            other.start();
+            try {
+                newTransport().attach("127.0.0.1:" + server.getLocalPort(),
+                        5000, 5000);
+                fail("handshake is wrong");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("handshake"));
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void attachTimesOut() {
+        long start = System.currentTimeMillis();
+        try {
+            // not an ephemeral port, which a retried connect may take itself
+            newTransport().attach("127.0.0.1:1", 300, 300);
+            fail("nobody listens");
+        } catch (IOException e) {
+            assertTrue(e instanceof SocketTimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start >= 300);
+    }
+
+    @Test
+    public void framesAreSplitAndJoined() {
+        byte[] first = command(1, 5).toBytesArray();
+        byte[] second = command(2, 0).toBytesArray();
+        byte[] third = command(3, 100).toBytesArray();
+        EmbeddedChannel channel = new EmbeddedChannel(new JdwpFrameDecoder());
+
+        // header split, then the rest of one packet joined with the next
+        channel.writeInbound(Unpooled.wrappedBuffer(first, 0, 3));
+        assertNull(channel.readInbound());
+        ByteBuf joined = Unpooled.buffer();
+        joined.writeBytes(first, 3, first.length - 3);
+        joined.writeBytes(second);
+        joined.writeBytes(third, 0, 20);
+        channel.writeInbound(joined);
+        assertFrame(channel.readInbound(), 1, first.length);
+        assertFrame(channel.readInbound(), 2, second.length);
+        assertNull(channel.readInbound());
+        channel.writeInbound(Unpooled.wrappedBuffer(third, 20,
+                third.length - 20));
+        assertFrame(channel.readInbound(), 3, third.length);
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void wrongLengthIsRejected() {
+        EmbeddedChannel channel = new EmbeddedChannel(new JdwpFrameDecoder());
+        try {
+            channel.writeInbound(Unpooled.wrappedBuffer(new byte[] { 0, 0, 0,
+                    10, 0, 0, 0, 1, 0, 1, 1 }));
+            fail("length is shorter than header");
+        } catch (DecoderException e) {
+            // expected
+        }
+    }
+
+    private static void assertFrame(Object frame, int id, int length) {
+        ByteBuf packet = (ByteBuf) frame;
+        try {
+            assertEquals(length, packet.readableBytes());
+            assertEquals(id, packet.getInt(packet.readerIndex() + 4));
+        } finally {
+            packet.release();
+        }
+    }
+
+    private static CommandPacket command(int id, int size) {
+        CommandPacket command = new CommandPacket(
+                JDWPCommands.VirtualMachineCommandSet.CommandSetID,
+                JDWPCommands.VirtualMachineCommandSet.VersionCommand);
+        command.setId(id);
+        for (int i = 0; i < size; i++) {
+            command.setNextValueAsByte((byte) i);
+        }
+        return command;
+    }
+}